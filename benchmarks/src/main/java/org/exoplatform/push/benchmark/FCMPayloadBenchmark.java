@@ -0,0 +1,129 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.benchmark;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.openjdk.jmh.annotations.*;
+
+import org.exoplatform.push.service.fcm.FCMPayloadSerializer;
+
+/**
+ * Serialization of the Firebase Cloud Messaging payloads, compared to the former StringBuilder concatenation.
+ * Run with the GC profiler (-prof gc) to get the bytes allocated per message (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FCMPayloadBenchmark {
+
+  private static final Integer MESSAGE_EXPIRATION_TIME = 86400;
+
+  private final FCMPayloadSerializer payloadSerializer = new FCMPayloadSerializer(MESSAGE_EXPIRATION_TIME);
+
+  private String token;
+
+  private String title;
+
+  private String htmlBody;
+
+  private String textBody;
+
+  private String url;
+
+  @Setup
+  public void setup() {
+    token = "dGhpcyBpcyBhIGZha2UgZGV2aWNlIHRva2VuIGZvciBiZW5jaG1hcmtz:APA91bHPRgkFLJu6Kx5f2n5xT8mKl0dX9qZs1vW3yB7cE4gN2hJ6iO8pR0tU";
+    title = "Acme Corp";
+    htmlBody = "<a href=\"/portal/dw/profile/john\">John Smith</a> has posted in the space <b>Marketing</b>: "
+        + "\"Our new <i>product</i> launch is scheduled for next week, don't forget to review the slides\" <br/> "
+        + "Caf\u00e9 meeting at 10:00 \u2013 everyone is welcome";
+    textBody = "John Smith has posted in the space Marketing: \"Our new product launch is scheduled for next week, "
+        + "don't forget to review the slides\" \n Caf\u00e9 meeting at 10:00 \u2013 everyone is welcome";
+    url = "https://community.acme.com/portal/dw/activity?id=123456";
+  }
+
+  @Benchmark
+  public HttpEntity dataMessage() {
+    return payloadSerializer.serializeDataMessage(token, title, htmlBody, url);
+  }
+
+  @Benchmark
+  public HttpEntity legacyDataMessage() {
+    String messageBody = htmlBody.replaceAll("\"", "\\\\\"");
+    StringBuilder requestBody = new StringBuilder()
+        .append("{")
+        .append("  \"validate_only\": false,")
+        .append("  \"message\": {")
+        .append("    \"data\": {")
+        .append("      \"title\": \"").append(title.replaceAll("\"", "\\\\\"")).append("\",")
+        .append("      \"body\": \"").append(messageBody).append("\",")
+        .append("      \"url\": \"").append(url).append("\"")
+        .append("    },")
+        .append("    \"android\": {")
+        .append("      \"ttl\": \"").append(MESSAGE_EXPIRATION_TIME).append("s\"")
+        .append("    },")
+        .append("    \"token\":\"").append(token).append("\"")
+        .append("  }")
+        .append("}");
+    return new ByteArrayEntity(requestBody.toString().getBytes());
+  }
+
+  @Benchmark
+  public HttpEntity notificationMessage() {
+    return payloadSerializer.serializeNotificationMessage(token, title, textBody, url, 5);
+  }
+
+  @Benchmark
+  public HttpEntity legacyNotificationMessage() {
+    String messageBody = textBody.replaceAll("\"", "\\\\\"").replace("\n", "\\n");
+    Instant expirationInstant = Instant.now().minus(MESSAGE_EXPIRATION_TIME, ChronoUnit.SECONDS);
+    String expirationHeader = "      \"headers\": {" +
+        "        \"apns-expiration\": \"" + expirationInstant.getEpochSecond() + "\"" +
+        "      },";
+    StringBuilder requestBody = new StringBuilder()
+        .append("{")
+        .append("  \"validate_only\": false,")
+        .append("  \"message\": {")
+        .append("    \"data\": {")
+        .append("      \"url\": \"").append(url).append("\"")
+        .append("    },")
+        .append("    \"notification\": {")
+        .append("      \"title\": \"").append(title.replaceAll("\\<[^>]*>", "").replaceAll("\"", "\\\\\"")).append("\",")
+        .append("      \"body\": \"").append(messageBody).append("\"")
+        .append("    },")
+        .append("    \"apns\": {")
+        .append(expirationHeader)
+        .append("      \"payload\": {")
+        .append("        \"aps\": {")
+        .append("          \"badge\": ").append(5)
+        .append("        }")
+        .append("      }")
+        .append("    },")
+        .append("    \"token\":\"").append(token).append("\"")
+        .append("  }")
+        .append("}");
+    return new ByteArrayEntity(requestBody.toString().getBytes());
+  }
+}
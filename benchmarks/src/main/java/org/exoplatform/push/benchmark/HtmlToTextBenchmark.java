@@ -0,0 +1,70 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import org.exoplatform.push.util.HtmlUtil;
+
+/**
+ * Conversion of the notification bodies and titles to plain text for iOS devices,
+ * compared to the former double Jsoup parsing and regular expression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlToTextBenchmark {
+
+  @Param({
+      "<a href=\"/portal/dw/profile/john\">John Smith</a> has posted: <p>Our new <b>product</b> launch is next week</p><p>See you there</p>",
+      "<a href=\"/portal/dw/profile/john\" class=\"user-suggester\">John Smith</a> has mentioned you: <div>Hello <b>@mary</b>,<br>can you review the <a href=\"/portal/dw/documents\">document</a> &amp; the <i> [inline image] </i> ?</div>"
+  })
+  public String body;
+
+  public String title = "<b>Acme</b> Corp";
+
+  @Benchmark
+  public String toPlainText() {
+    return HtmlUtil.toPlainText(body);
+  }
+
+  @Benchmark
+  public String legacyToPlainText() {
+    Document document = Jsoup.parse(body);
+    document.outputSettings(new Document.OutputSettings().prettyPrint(false));
+    document.select("br").append("\n");
+    document.select("p").prepend("\n\n");
+    return Jsoup.parse(document.html()).wholeText().trim();
+  }
+
+  @Benchmark
+  public String stripTags() {
+    return HtmlUtil.stripTags(title);
+  }
+
+  @Benchmark
+  public String legacyStripTags() {
+    return title.replaceAll("\\<[^>]*>", "");
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.exoplatform.commons.api.notification.NotificationContext;
+import org.exoplatform.commons.api.notification.model.MessageInfo;
+import org.exoplatform.commons.api.notification.model.NotificationInfo;
+import org.exoplatform.commons.api.notification.model.PluginKey;
+import org.exoplatform.portal.branding.BrandingService;
+import org.exoplatform.push.channel.PushChannel;
+import org.exoplatform.push.domain.Device;
+import org.exoplatform.push.service.DeviceService;
+import org.exoplatform.push.service.MessagePublisher;
+
+/**
+ * Dispatch of a notification to the devices of a user by the push channel, synchronously.
+ * The rendering of the notification needs a running container, so it is replaced by a constant message (its duration
+ * is given by the render time metrics). With the noop publisher, the benchmark gives the cost of the dispatch
+ * itself, with the stub publisher it includes the payloads and the HTTP requests to a local stub server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PushChannelDispatchBenchmark {
+
+  @Param({ "1", "5", "20" })
+  private int devices;
+
+  @Param({ "noop", "stub" })
+  private String publisher;
+
+  private StubFCMServer server;
+
+  private StubFCMMessagePublisher stubPublisher;
+
+  private PushChannel pushChannel;
+
+  private NotificationContext ctx;
+
+  @Setup
+  public void setup() throws IOException {
+    MessagePublisher messagePublisher;
+    if ("stub".equals(publisher)) {
+      server = new StubFCMServer();
+      stubPublisher = new StubFCMMessagePublisher(server.getSendEndpoint());
+      messagePublisher = stubPublisher;
+    } else {
+      messagePublisher = message -> {};
+    }
+
+    List<Device> userDevices = new ArrayList<>(devices);
+    for (int i = 0; i < devices; i++) {
+      userDevices.add(new Device("dGhpcyBpcyBhIGZha2UgZGV2aWNlIHRva2Vu:APA91bHPRgkFLJu6Kx5f2n5xT8mKl0dX9qZs" + i,
+                                 i % 2 == 0 ? "android" : "ios"));
+    }
+    DeviceService deviceService = stub(DeviceService.class, "getDeviceTokensByUser", userDevices);
+    BrandingService brandingService = stub(BrandingService.class, "getCompanyName", "Acme Corp");
+    MessageInfo messageInfo = new MessageInfo().body("<a href=\"/portal/dw/profile/john\">John Smith</a> likes your activity "
+        + "<b>Our new product launch is scheduled for next week</b>").subject("https://community.acme.com/portal/dw/activity?id=123456").end();
+
+    pushChannel = new PushChannel(messagePublisher, deviceService, brandingService) {
+      @Override
+      protected MessageInfo buildMessageInfo(NotificationContext ctx, String userId, String pluginId) {
+        return messageInfo;
+      }
+    };
+    ctx = stub(NotificationContext.class, "getNotificationInfo", NotificationInfo.instance().key(new PluginKey("LikePlugin")));
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (stubPublisher != null) {
+      stubPublisher.stop();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Benchmark
+  public void dispatch() {
+    pushChannel.dispatch(ctx, "john");
+  }
+
+  /**
+   * @return A proxy of the given interface returning the given value for the given method, and null otherwise
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T stub(Class<T> type, String methodName, Object value) {
+    return (T) Proxy.newProxyInstance(PushChannelDispatchBenchmark.class.getClassLoader(),
+                                      new Class<?>[] { type },
+                                      (proxy, method, args) -> method.getName().equals(methodName) ? value : null);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpPost;
+import org.openjdk.jmh.annotations.*;
+
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.service.fcm.FCMHttpResponse;
+import org.exoplatform.push.util.HtmlUtil;
+import org.exoplatform.push.util.StringUtil;
+
+/**
+ * Stages of the sending of a push notification to a device, from the message body processing to the HTTP request
+ * to Firebase Cloud Messaging (served by a local stub server). Comparing the stages gives the one dominating the
+ * per-message cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PushSendPathBenchmark {
+
+  private static final String TOKEN = "dGhpcyBpcyBhIGZha2UgZGV2aWNlIHRva2VuIGZvciBiZW5jaG1hcmtz:APA91bHPRgkFLJu6Kx5f2n5xT8mKl0dX9qZs1vW3yB7cE4gN2hJ6iO8pR0tU";
+
+  private static final String BODY = "<a href=\"/portal/dw/profile/john\">John Smith</a> has posted in the space <b>Marketing</b>: "
+      + "\"Our new <i>product</i> launch is scheduled for next week <img src=\"/rest/images/slides.png\" alt=\"slides\"/>\" <br/> "
+      + "Caf\u00e9 meeting at 10:00 \u2013 everyone is welcome";
+
+  private static final String URL = "https://community.acme.com/portal/dw/activity?id=123456";
+
+  private StubFCMServer server;
+
+  private StubFCMMessagePublisher publisher;
+
+  private Message androidMessage;
+
+  private Message iosMessage;
+
+  private FCMHttpResponse unregisteredResponse;
+
+  private FCMHttpResponse invalidTokenFieldResponse;
+
+  private FCMHttpResponse invalidArgumentResponse;
+
+  @Setup
+  public void setup() throws IOException {
+    server = new StubFCMServer();
+    publisher = new StubFCMMessagePublisher(server.getSendEndpoint());
+    androidMessage = new Message("john", TOKEN, "android", "Acme Corp", BODY, URL);
+    iosMessage = new Message("john", TOKEN, "ios", "Acme Corp", BODY, URL);
+
+    unregisteredResponse = response(400, "{\"error\":{\"code\":404,\"message\":\"Requested entity was not found.\","
+        + "\"status\":\"UNREGISTERED\",\"details\":[{\"@type\":\"type.googleapis.com/google.firebase.fcm.v1.FcmError\","
+        + "\"errorCode\":\"UNREGISTERED\"}]}}");
+    invalidTokenFieldResponse = response(400, "{\"error\":{\"code\":400,\"message\":\"The registration token is not a valid FCM registration token\","
+        + "\"status\":\"INVALID_ARGUMENT\",\"details\":[{\"@type\":\"type.googleapis.com/google.rpc.BadRequest\","
+        + "\"fieldViolations\":[{\"field\":\"message.token\",\"description\":\"Invalid registration token\"}]}]}}");
+    invalidArgumentResponse = response(400, "{\"error\":{\"code\":400,\"message\":\"Invalid value at 'message.android.ttl'\","
+        + "\"status\":\"INVALID_ARGUMENT\",\"details\":[{\"@type\":\"type.googleapis.com/google.rpc.BadRequest\","
+        + "\"fieldViolations\":[{\"field\":\"message.android.ttl\",\"description\":\"Invalid value\"}]}]}}");
+  }
+
+  @TearDown
+  public void tearDown() {
+    publisher.stop();
+    server.close();
+  }
+
+  @Benchmark
+  public String mask() {
+    return StringUtil.mask(TOKEN, 4);
+  }
+
+  @Benchmark
+  public String processBody() {
+    return publisher.processMessageBody(androidMessage);
+  }
+
+  @Benchmark
+  public String processAndConvertBody() {
+    return HtmlUtil.toPlainText(publisher.processMessageBody(iosMessage));
+  }
+
+  @Benchmark
+  public HttpPost buildAndroidRequest() {
+    return publisher.buildRequest(androidMessage);
+  }
+
+  @Benchmark
+  public HttpPost buildIosRequest() {
+    return publisher.buildRequest(iosMessage);
+  }
+
+  @Benchmark
+  public boolean isTokenInvalidUnregistered() throws IOException {
+    return publisher.checkTokenInvalid(unregisteredResponse);
+  }
+
+  @Benchmark
+  public boolean isTokenInvalidFieldViolation() throws IOException {
+    return publisher.checkTokenInvalid(invalidTokenFieldResponse);
+  }
+
+  @Benchmark
+  public boolean isTokenInvalidOtherError() throws IOException {
+    return publisher.checkTokenInvalid(invalidArgumentResponse);
+  }
+
+  @Benchmark
+  public void send() throws Exception {
+    publisher.send(androidMessage);
+  }
+
+  private static FCMHttpResponse response(int statusCode, String content) {
+    return new FCMHttpResponse(statusCode, "Bad Request", content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+
+import org.apache.http.client.methods.HttpPost;
+
+import org.exoplatform.commons.api.notification.service.WebNotificationService;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.service.PushBadgeCounter;
+import org.exoplatform.push.service.PushMetrics;
+import org.exoplatform.push.service.fcm.FCMHttpResponse;
+import org.exoplatform.push.service.fcm.FCMMessagePublisher;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.social.notification.plugin.SocialNotificationUtils;
+
+/**
+ * Firebase Cloud Messaging publisher configured with a generated service account, sending the messages to a
+ * {@link StubFCMServer}. The parts needing a running container (user language, access token request) are replaced
+ * by constants, and the badge counter reads a stub of the web notifications through an in-memory cache.
+ */
+public class StubFCMMessagePublisher extends FCMMessagePublisher {
+
+  private static final String INLINE_IMAGE_LABEL = "inline image";
+
+  private static final int BADGE = 3;
+
+  private final String sendEndpoint;
+
+  public StubFCMMessagePublisher(String sendEndpoint) throws IOException {
+    super(initParams(), null, new PushMetrics(), null, badgeCounter());
+    this.sendEndpoint = sendEndpoint;
+  }
+
+  public HttpPost buildRequest(Message message) {
+    return buildRequest(message, getAccessToken());
+  }
+
+  public String processMessageBody(Message message) {
+    return processBody(message);
+  }
+
+  public boolean checkTokenInvalid(FCMHttpResponse response) throws IOException {
+    return isTokenInvalid(response);
+  }
+
+  @Override
+  protected String getSendEndpoint() {
+    return sendEndpoint;
+  }
+
+  @Override
+  protected String processBody(Message message) {
+    return SocialNotificationUtils.processImageTitle(message.getBody(), INLINE_IMAGE_LABEL);
+  }
+
+  @Override
+  protected String getAccessToken() {
+    return "benchmark-access-token";
+  }
+
+  @Override
+  protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
+    try {
+      return KeyPairGenerator.getInstance("RSA").generateKeyPair().getPrivate();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static InitParams initParams() throws IOException {
+    File serviceAccountFile = File.createTempFile("fcm-benchmark", ".json");
+    serviceAccountFile.deleteOnExit();
+    Files.write(serviceAccountFile.toPath(), ("{\"type\":\"service_account\",\"project_id\":\"benchmark-project\","
+        + "\"private_key_id\":\"benchmark-key-id\",\"private_key\":\"benchmark-key\","
+        + "\"client_email\":\"benchmark@benchmark-project.iam.gserviceaccount.com\",\"client_id\":\"000000000000000000000\"}")
+        .getBytes(StandardCharsets.UTF_8));
+
+    InitParams initParams = new InitParams();
+    ValueParam serviceAccountFilePath = new ValueParam();
+    serviceAccountFilePath.setName("serviceAccountFilePath");
+    serviceAccountFilePath.setValue(serviceAccountFile.getAbsolutePath());
+    initParams.addParameter(serviceAccountFilePath);
+    // measure the send path, not the rate limit
+    ValueParam rateLimit = new ValueParam();
+    rateLimit.setName("rateLimit");
+    rateLimit.setValue("0");
+    initParams.addParameter(rateLimit);
+    return initParams;
+  }
+
+  private static PushBadgeCounter badgeCounter() {
+    WebNotificationService webNotificationService =
+        (WebNotificationService) Proxy.newProxyInstance(StubFCMMessagePublisher.class.getClassLoader(),
+                                                        new Class<?>[] { WebNotificationService.class },
+                                                        (proxy, method, args) -> method.getReturnType() == int.class ? BADGE : null);
+    CacheService cacheService =
+        (CacheService) Proxy.newProxyInstance(StubFCMMessagePublisher.class.getClassLoader(),
+                                              new Class<?>[] { CacheService.class },
+                                              (proxy, method, args) -> "getCacheInstance".equals(method.getName())
+                                                  ? new ConcurrentFIFOExoCache<>(100)
+                                                  : null);
+    return new PushBadgeCounter(null, webNotificationService, cacheService);
+  }
+}
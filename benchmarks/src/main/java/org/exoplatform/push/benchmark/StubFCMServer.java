@@ -0,0 +1,75 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server answering like the Firebase Cloud Messaging send endpoint, so the benchmarks measure the
+ * network side of the sending without reaching Google.
+ */
+public class StubFCMServer implements AutoCloseable {
+
+  private static final byte[] OK_RESPONSE = "{\"name\":\"projects/benchmark-project/messages/0:1500415314455276%31bd1c9631bd1c96\"}"
+      .getBytes(StandardCharsets.UTF_8);
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  public StubFCMServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  /**
+   * @return The URL of the send endpoint of the stub server
+   */
+  public String getSendEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/projects/benchmark-project/messages:send";
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (InputStream requestBody = exchange.getRequestBody()) {
+      requestBody.transferTo(OutputStream.nullOutputStream());
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(200, OK_RESPONSE.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(OK_RESPONSE);
+    }
+  }
+}
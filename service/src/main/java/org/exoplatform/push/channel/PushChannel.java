@@ -28,13 +28,17 @@ import org.exoplatform.commons.api.notification.model.PluginKey;
 import org.exoplatform.portal.branding.BrandingService;
 import org.exoplatform.push.domain.Device;
 import org.exoplatform.push.domain.Message;
-import org.exoplatform.push.exception.InvalidTokenException;
 import org.exoplatform.push.service.DeviceService;
+import org.exoplatform.push.service.PushBadgeCounter;
 import org.exoplatform.push.service.MessagePublisher;
-import org.exoplatform.push.util.StringUtil;
+import org.exoplatform.push.service.PushDispatchQueue;
+import org.exoplatform.push.service.PushMetrics;
+import org.exoplatform.push.service.PushOutbox;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.exoplatform.social.notification.plugin.SocialNotificationUtils;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -48,21 +52,42 @@ public class PushChannel extends AbstractChannel {
   public final static String LOG_SERVICE_NAME = "notifications";
   public final static String LOG_OPERATION_NAME = "send-push-notification";
 
+  // Maximum length of the collapse key, limited by APNs (apns-collapse-id header)
+  private static final int MAX_COLLAPSE_KEY_LENGTH = 64;
+
   private final ChannelKey key = ChannelKey.key(ID);
 
   private final Map<PluginKey, String> templateFilePaths = new HashMap<PluginKey, String>();
 
   private final Map<PluginKey, AbstractTemplateBuilder> templateBuilders = new HashMap<PluginKey, AbstractTemplateBuilder>();
 
-  private MessagePublisher messagePublisher;
-
   private DeviceService deviceService;
   private BrandingService brandingService;
-
+  private PushDispatchQueue dispatchQueue;
+  private PushMetrics metrics;
+  private PushOutbox outbox;
+  private PushCoalescer coalescer;
+  private PushBadgeCounter badgeCounter;
+
+  /**
+   * Channel sending the push notifications synchronously, without outbox, coalescing nor badge counter
+   */
   public PushChannel(MessagePublisher messagePublisher, DeviceService deviceService, BrandingService brandingService) {
-    this.messagePublisher = messagePublisher;
+    this(deviceService, brandingService, new PushDispatchQueue(null, messagePublisher, deviceService), null, null, null);
+  }
+
+  /**
+   * Channel appending the push notifications to the outbox when it is enabled, or to the dispatch queue otherwise
+   */
+  public PushChannel(DeviceService deviceService, BrandingService brandingService, PushDispatchQueue dispatchQueue, PushOutbox outbox,
+                     PushCoalescer coalescer, PushBadgeCounter badgeCounter) {
     this.deviceService = deviceService;
     this.brandingService = brandingService;
+    this.dispatchQueue = dispatchQueue;
+    this.metrics = dispatchQueue.getMetrics();
+    this.outbox = outbox;
+    this.coalescer = coalescer;
+    this.badgeCounter = badgeCounter;
   }
 
   @Override
@@ -81,47 +106,113 @@ public class PushChannel extends AbstractChannel {
     String pluginId = notificationInfo.getKey().getId();
     LOG.debug("Received push notification sending order for user {} and pluginId {}", userId, pluginId);
 
-    List<Device> devices = deviceService.getDevicesByUser(userId);
-
-    if(devices != null) {
-      LOG.debug("Found {} registered devices for user {}", devices.size(), userId);
-      devices.forEach(device -> {
-        long startTimeSendingMessage = System.currentTimeMillis();
-        try {
-          AbstractTemplateBuilder builder = getTemplateBuilder(ctx.getNotificationInfo().getKey());
-          if (builder != null) {
-            MessageInfo messageInfo = builder.buildMessage(ctx);
-            if (messageInfo != null) {
-              String maskedToken = StringUtil.mask(device.getToken(), 4);
-              LOG.info("Sending push notification to user {} (token={})",
-                      userId, maskedToken);
-              if(StringUtils.isBlank(messageInfo.getSubject())) {
-                if(LOG.isDebugEnabled()) {
-                  LOG.warn("No URL provided for notification type {}", messageInfo.getPluginId());
-                }
-              }
-              Message message = new Message(userId, device.getToken(), device.getType(), brandingService.getCompanyName(), messageInfo.getBody(), messageInfo.getSubject());
-              messagePublisher.send(message);
-              long sendMessageExecutionTime = System.currentTimeMillis() - startTimeSendingMessage;
-              LOG.info("service={} operation={} parameters=\"user:{},token:{},type:{},pluginId:{}\" status=ok duration_ms={}", 
-                      LOG_SERVICE_NAME, LOG_OPERATION_NAME, userId, maskedToken, device.getType(), pluginId, sendMessageExecutionTime);
-            }
-          }
-        } catch (Exception e) {
-          long sendMessageExecutionTime = System.currentTimeMillis() - startTimeSendingMessage;
-          LOG.error("Cannot send push notification to user " + userId, e);
-          LOG.info("service={} operation={} parameters=\"user:{},token:{},type:{},pluginId:{}\" status=ko duration_ms={} error_msg=\"{}\"", 
-                      LOG_SERVICE_NAME, LOG_OPERATION_NAME, userId, StringUtil.mask(device.getToken(), 4), device.getType(), pluginId, sendMessageExecutionTime, e.getMessage());
-
-          if(e instanceof InvalidTokenException) {
-            LOG.info("Removing device of user {} (token={}) since the token is invalid", userId, StringUtil.mask(device.getToken(), 4));
-            deviceService.deleteDevice(deviceService.getDeviceByToken(device.getToken()));
-          }
-        }
-      });
-    } else {
+    List<Device> devices = deviceService.getDeviceTokensByUser(userId);
+    metrics.recordDevicesPerUser(devices == null ? 0 : devices.size());
+
+    if(devices == null || devices.isEmpty()) {
       LOG.debug("No device registered for user {}", userId);
+      return;
+    }
+    LOG.debug("Found {} registered devices for user {}", devices.size(), userId);
+
+    // the message content only depends on the notification and the user, so it is rendered once
+    // and then sent to each device of the user
+    MessageInfo messageInfo = buildMessageInfo(ctx, userId, pluginId);
+    if (messageInfo == null) {
+      return;
+    }
+    if(StringUtils.isBlank(messageInfo.getSubject())) {
+      if(LOG.isDebugEnabled()) {
+        LOG.warn("No URL provided for notification type {}", messageInfo.getPluginId());
+      }
+    }
+
+    if (coalescer != null && coalescer.isCoalesced(pluginId)) {
+      // the notifications of a same activity replace each other, during the coalescing window and on the devices.
+      // The last one sums up the burst since the template builders merge the users of the successive notifications.
+      String activityId = notificationInfo.getValueOwnerParameter(SocialNotificationUtils.ACTIVITY_ID.getKey());
+      String collapseKey = StringUtils.left(activityId == null ? pluginId : pluginId + "-" + activityId, MAX_COLLAPSE_KEY_LENGTH);
+      if (!coalescer.coalesce(pluginId, userId + "|" + collapseKey, () -> send(userId, pluginId, devices, messageInfo, collapseKey))) {
+        send(userId, pluginId, devices, messageInfo, collapseKey);
+      }
+      return;
     }
+    send(userId, pluginId, devices, messageInfo, null);
+  }
+
+  /**
+   * Send the rendered notification to the devices of the user
+   *
+   * @param userId The receiver of the notification
+   * @param pluginId The notification plugin id
+   * @param devices The devices of the user
+   * @param messageInfo The rendered notification
+   * @param collapseKey The key of the group of push notifications replacing each other on the devices, or null
+   */
+  private void send(String userId, String pluginId, List<Device> devices, MessageInfo messageInfo, String collapseKey) {
+    if (badgeCounter != null) {
+      // a coalesced burst is a single unread notification
+      badgeCounter.increment(userId);
+    }
+    String companyName = brandingService.getCompanyName();
+    List<Message> messages = new ArrayList<>(devices.size());
+    for (Device device : devices) {
+      Message message = buildDeviceMessage(userId, device, companyName, messageInfo);
+      message.setPluginId(pluginId);
+      message.setCollapseKey(collapseKey);
+      messages.add(message);
+    }
+    if (outbox != null && outbox.isEnabled()) {
+      try {
+        outbox.store(messages);
+        return;
+      } catch (Exception e) {
+        LOG.error("Cannot append push notifications of user " + userId + " to the outbox, sending them directly", e);
+      }
+    }
+    dispatchQueue.dispatch(messages);
+  }
+
+  /**
+   * Render the notification with the template builder of its plugin.
+   *
+   * @param ctx The notification context
+   * @param userId The receiver of the notification
+   * @param pluginId The notification plugin id
+   * @return The rendered message, or null if there is nothing to send
+   */
+  protected MessageInfo buildMessageInfo(NotificationContext ctx, String userId, String pluginId) {
+    long startTimeBuildingMessage = System.currentTimeMillis();
+    try {
+      AbstractTemplateBuilder builder = getTemplateBuilder(ctx.getNotificationInfo().getKey());
+      if (builder == null) {
+        LOG.debug("No template builder found for pluginId {}", pluginId);
+        return null;
+      }
+      MessageInfo messageInfo = builder.buildMessage(ctx);
+      metrics.recordRender(pluginId, System.currentTimeMillis() - startTimeBuildingMessage);
+      return messageInfo;
+    } catch (Exception e) {
+      long buildMessageExecutionTime = System.currentTimeMillis() - startTimeBuildingMessage;
+      LOG.error("Cannot build push notification for user " + userId, e);
+      LOG.info("service={} operation={} parameters=\"user:{},pluginId:{}\" status=ko duration_ms={} error_msg=\"{}\"",
+              LOG_SERVICE_NAME, LOG_OPERATION_NAME, userId, pluginId, buildMessageExecutionTime, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Build the message sent to a given device from the rendered notification.
+   * This is the per-device step of the dispatch, where device specific data is set.
+   *
+   * @param userId The receiver of the notification
+   * @param device The target device
+   * @param title The title of the notification
+   * @param messageInfo The rendered notification
+   * @return The message to send to the device
+   */
+  protected Message buildDeviceMessage(String userId, Device device, String title, MessageInfo messageInfo) {
+    return new Message(userId, device.getToken(), device.getType(), title, messageInfo.getBody(), messageInfo.getSubject());
   }
 
   @Override
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.push.service.PushMetrics;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.picocontainer.Startable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.exoplatform.push.util.InitParamsUtil.getStringParam;
+
+/**
+ * Coalesces the bursts of notifications of a same group (same user, plugin and activity) into a single push.
+ * The first notification of a group opens a window, configured by notification plugin, and only the last notification
+ * received during the window is sent when it closes. The template builders merge the users of the successive
+ * notifications (NB_USERS, COUNT), so the last notification sums up the whole burst.
+ */
+public class PushCoalescer implements Startable {
+
+  private static final Log LOG = ExoLogger.getLogger(PushCoalescer.class);
+
+  private static final String THREAD_NAME = "PushNotifications-Coalescing";
+
+  private final Map<String, Long> windows;
+
+  private final PushMetrics metrics;
+
+  private final ConcurrentMap<String, Runnable> pendingSendings = new ConcurrentHashMap<>();
+
+  private volatile ScheduledThreadPoolExecutor executor;
+
+  private ExoContainer container;
+
+  public PushCoalescer(InitParams initParams, PushMetrics metrics) {
+    this.windows = parseWindows(getStringParam(initParams, "windows", null));
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void start() {
+    if (windows.isEmpty()) {
+      return;
+    }
+    container = ExoContainerContext.getCurrentContainerIfPresent();
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, THREAD_NAME);
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    executor = scheduledExecutor;
+    LOG.info("Push Notifications - Coalescing windows (in milliseconds) by notification plugin: {}", windows);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledThreadPoolExecutor scheduledExecutor = executor;
+    executor = null;
+    if (scheduledExecutor == null) {
+      return;
+    }
+    scheduledExecutor.shutdownNow();
+    // the pending push notifications are sent right away
+    for (String key : new ArrayList<>(pendingSendings.keySet())) {
+      flush(key);
+    }
+  }
+
+  /**
+   * @param pluginId The notification plugin id
+   * @return true if the notifications of this plugin are coalesced
+   */
+  public boolean isCoalesced(String pluginId) {
+    return windows.containsKey(pluginId);
+  }
+
+  /**
+   * Hold the sending of a notification until the end of the coalescing window of its group. If a sending is already held
+   * for the group, it is replaced by this one.
+   *
+   * @param pluginId The notification plugin id
+   * @param groupKey The key of the group of notifications, including the user
+   * @param sending The sending of the notification
+   * @return true if the sending is held, false if the notification is not coalesced and has to be sent now
+   */
+  public boolean coalesce(String pluginId, String groupKey, Runnable sending) {
+    Long window = windows.get(pluginId);
+    ScheduledThreadPoolExecutor scheduledExecutor = executor;
+    if (window == null || scheduledExecutor == null) {
+      return false;
+    }
+    if (pendingSendings.put(groupKey, sending) != null) {
+      metrics.recordCoalesced();
+      return true;
+    }
+    try {
+      scheduledExecutor.schedule(() -> flush(groupKey), window, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // stopped concurrently
+      return !pendingSendings.remove(groupKey, sending);
+    }
+    return true;
+  }
+
+  int getPendingCount() {
+    return pendingSendings.size();
+  }
+
+  private void flush(String groupKey) {
+    Runnable sending = pendingSendings.remove(groupKey);
+    if (sending == null) {
+      return;
+    }
+    if (container != null) {
+      ExoContainerContext.setCurrentContainer(container);
+      RequestLifeCycle.begin(container);
+    }
+    try {
+      sending.run();
+    } catch (Exception e) {
+      LOG.error("Push Notifications - Error while sending coalesced push notification " + groupKey, e);
+    } finally {
+      if (container != null) {
+        RequestLifeCycle.end();
+      }
+    }
+  }
+
+  /**
+   * @param value The windows, as a comma separated list of pluginId:milliseconds
+   * @return The windows by notification plugin id
+   */
+  static Map<String, Long> parseWindows(String value) {
+    if (StringUtils.isBlank(value)) {
+      return Collections.emptyMap();
+    }
+    Map<String, Long> windows = new HashMap<>();
+    for (String window : value.split(",")) {
+      String[] parts = window.split(":");
+      if (parts.length != 2 || StringUtils.isBlank(parts[0])) {
+        LOG.warn("Push Notifications - Invalid coalescing window {}, it should be pluginId:milliseconds", window);
+        continue;
+      }
+      try {
+        long duration = Long.parseLong(parts[1].trim());
+        if (duration > 0) {
+          windows.put(parts[0].trim(), duration);
+        }
+      } catch (NumberFormatException e) {
+        LOG.warn("Push Notifications - Invalid coalescing window {}, it should be pluginId:milliseconds", window);
+      }
+    }
+    return windows;
+  }
+}
@@ -17,9 +17,9 @@
 package org.exoplatform.push.channel.template;
 
 import java.io.Writer;
-import java.util.Calendar;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
@@ -44,12 +44,10 @@ import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.social.core.activity.model.ExoSocialActivity;
 import org.exoplatform.social.core.identity.model.Identity;
-import org.exoplatform.social.core.identity.model.Profile;
 import org.exoplatform.social.core.identity.provider.OrganizationIdentityProvider;
 import org.exoplatform.social.core.identity.provider.SpaceIdentityProvider;
 import org.exoplatform.social.core.service.LinkProvider;
 import org.exoplatform.social.core.space.model.Space;
-import org.exoplatform.social.notification.LinkProviderUtils;
 import org.exoplatform.social.notification.Utils;
 import org.exoplatform.social.notification.plugin.ActivityCommentPlugin;
 import org.exoplatform.social.notification.plugin.ActivityMentionPlugin;
@@ -63,7 +61,6 @@ import org.exoplatform.social.notification.plugin.RelationshipReceivedRequestPlu
 import org.exoplatform.social.notification.plugin.RequestJoinSpacePlugin;
 import org.exoplatform.social.notification.plugin.SocialNotificationUtils;
 import org.exoplatform.social.notification.plugin.SpaceInvitationPlugin;
-import org.exoplatform.webui.utils.TimeConvertUtils;
 
 /**
  * Templates for Push Notifications.
@@ -90,14 +87,25 @@ import org.exoplatform.webui.utils.TimeConvertUtils;
 public class PushTemplateProvider extends TemplateProvider {
   private static final Log LOG = ExoLogger.getLogger(PushTemplateProvider.class);
 
-  private static final String ACCEPT_INVITATION_TO_CONNECT = "social/intranet-notification/confirmInvitationToConnect";
-  private static final String REFUSE_INVITATION_TO_CONNECT = "social/intranet-notification/ignoreInvitationToConnect";
-  private static final String MESSAGE_JSON_FILE_NAME = "message.json";
+  /**
+   * Variables read by the push template of each notification plugin. The builders only compute these variables, the
+   * other variables of the web notifications (avatars, profile URLs, dates, actions URLs...) are never displayed in
+   * a push notification. A template reading a new variable must declare it here and its builder must compute it.
+   */
+  static final Map<String, Set<String>> TEMPLATE_VARIABLES = Map.ofEntries(
+    Map.entry(ActivityCommentPlugin.ID, Set.of("USER", "LAST_USER", "NB_USERS", "COUNT", "COMMENT")),
+    Map.entry(ActivityReplyToCommentPlugin.ID, Set.of("USER", "LAST_USER", "NB_USERS", "COUNT", "COMMENT_REPLY")),
+    Map.entry(ActivityMentionPlugin.ID, Set.of("USER", "ACTIVITY")),
+    Map.entry(LikePlugin.ID, Set.of("USER", "LAST_USER", "NB_USERS", "COUNT", "ACTIVITY")),
+    Map.entry(LikeCommentPlugin.ID, Set.of("USER", "LAST_USER", "NB_USERS", "COUNT", "ACTIVITY")),
+    Map.entry(NewUserPlugin.ID, Set.of("USER", "PORTAL_NAME")),
+    Map.entry(PostActivityPlugin.ID, Set.of("USER", "ACTIVITY")),
+    Map.entry(PostActivitySpaceStreamPlugin.ID, Set.of("USER", "ACTIVITY", "SPACE")),
+    Map.entry(RelationshipReceivedRequestPlugin.ID, Set.of("USER", "STATUS")),
+    Map.entry(RequestJoinSpacePlugin.ID, Set.of("USER", "STATUS", "SPACE")),
+    Map.entry(SpaceInvitationPlugin.ID, Set.of("STATUS", "SPACE", "SENDER_NAME"))
+  );
 
-  private static final String VALIDATE_SPACE_REQUEST = "social/intranet-notification/validateRequestToJoinSpace";
-  private static final String REFUSE_SPACE_REQUEST = "social/intranet-notification/refuseRequestToJoinSpace";
-  private static final String ACCEPT_SPACE_INVITATION = "social/intranet-notification/acceptInvitationToJoinSpace";
-  private static final String REFUSE_SPACE_INVITATION = "social/intranet-notification/ignoreInvitationToJoinSpace";
   /** Defines the template builder for ActivityCommentPlugin*/
   private AbstractTemplateBuilder comment = new AbstractTemplateBuilder() {
 
@@ -117,23 +125,24 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
       boolean isPopupOverOnly = ctx.value(WebNotificationService.POPUP_OVER);
 
       String language = getLanguage(notification);
 
       String activityId = notification.getValueOwnerParameter(SocialNotificationUtils.ACTIVITY_ID.getKey());
       String commentId = notification.getValueOwnerParameter(SocialNotificationUtils.COMMENT_ID.getKey());
-      ExoSocialActivity activity = Utils.getActivityManager().getActivity(activityId);
+      ExoSocialActivity activity = lookupContext.getActivity(activityId);
       ExoSocialActivity commentActivity = null;
       if (StringUtils.isNotBlank(commentId)) {
-        commentActivity = Utils.getActivityManager().getActivity(commentId);
+        commentActivity = lookupContext.getActivity(commentId);
       }
       if (activity == null) {
         LOG.debug("Activity with id '{}' was removed but the notification with id'{}' is remaining", activityId, notification.getId());
         return null;
       }
       if(activity.isComment()) {
-        commentActivity = Utils.getActivityManager().getParentActivity(activity);
+        commentActivity = lookupContext.getParentActivity(activity);
       }
       if (commentActivity == null) {
         LOG.debug("Comment of activity with id '{}' was removed but the notification with id'{}' is remaining", commentId, notification.getId());
@@ -145,28 +154,18 @@ public class PushTemplateProvider extends TemplateProvider {
       String pluginId = notification.getKey().getId();
 
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), pluginId, language);
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
-      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(getActivityTitle(activity), activity.getType()));
-      templateContext.put("COMMENT", isPopupOverOnly ? cutStringByMaxLength(getActivityTitle(commentActivity), 30) : getActivityTitle(commentActivity));
+      templateContext.put("COMMENT", isPopupOverOnly ? cutStringByMaxLength(lookupContext.getActivityTitle(commentActivity), 30) : lookupContext.getActivityTitle(commentActivity));
       List<String> users = SocialNotificationUtils.mergeUsers(notification, SocialNotificationUtils.POSTER.getKey(), activity.getId(), notification.getValueOwnerParameter(SocialNotificationUtils.POSTER.getKey()));
 
       //
       int nbUsers = users.size();
       if (nbUsers > 0) {
-        Identity lastIdentity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 1), true);
-        Profile profile = lastIdentity.getProfile();
+        Identity lastIdentity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 1));
         templateContext.put("USER", Utils.addExternalFlag(lastIdentity));
-        templateContext.put("AVATAR", profile.getAvatarUrl() != null ? profile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-        templateContext.put("PROFILE_URL", LinkProvider.getUserProfileUri(lastIdentity.getRemoteId()));
         templateContext.put("NB_USERS", nbUsers);
         //
         if (nbUsers >= 2) {
-          Identity beforeLastIdentity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 2), true);
+          Identity beforeLastIdentity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 2));
           templateContext.put("LAST_USER",  Utils.addExternalFlag(beforeLastIdentity));
           if (nbUsers > 2) {
             templateContext.put("COUNT", nbUsers - 2);
@@ -176,10 +175,9 @@ public class PushTemplateProvider extends TemplateProvider {
       //
       boolean notHighLightComment = Boolean.parseBoolean(notification.getValueOwnerParameter(NotificationMessageUtils.NOT_HIGHLIGHT_COMMENT_PORPERTY.getKey()));
       String notificationLink =  CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(notHighLightComment ?  activity.getId() : activity.getId() + "#comment-" + commentActivity.getId());
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", notificationLink);
 
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -220,6 +218,7 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
       boolean isPopupOverOnly = ctx.value(WebNotificationService.POPUP_OVER);
 
       String language = getLanguage(notification);
@@ -228,9 +227,9 @@ public class PushTemplateProvider extends TemplateProvider {
       String commentId = notification.getValueOwnerParameter(SocialNotificationUtils.COMMENT_ID.getKey());
       String replyToCommentId = notification.getValueOwnerParameter(SocialNotificationUtils.COMMENT_REPLY_ID.getKey());
 
-      ExoSocialActivity activity = Utils.getActivityManager().getActivity(activityId);
-      ExoSocialActivity commentActivity = commentId == null ? null : Utils.getActivityManager().getActivity(commentId);
-      ExoSocialActivity replyToCommentActivity = replyToCommentId == null ? null : Utils.getActivityManager().getActivity(replyToCommentId);
+      ExoSocialActivity activity = lookupContext.getActivity(activityId);
+      ExoSocialActivity commentActivity = commentId == null ? null : lookupContext.getActivity(commentId);
+      ExoSocialActivity replyToCommentActivity = replyToCommentId == null ? null : lookupContext.getActivity(replyToCommentId);
 
       if (commentActivity != null) {
         if(commentActivity.getParentCommentId() == null) {
@@ -278,7 +277,7 @@ public class PushTemplateProvider extends TemplateProvider {
         if (StringUtils.isBlank(activityId)) {
           throw new IllegalStateException("Cannot find Activity ID in context");
         }
-        activity = Utils.getActivityManager().getActivity(activityId);
+        activity = lookupContext.getActivity(activityId);
         if (activity == null) {
           LOG.warn("Cannot find Activity with id '{}', it will not be displayed in notifications", activityId);
           return null;
@@ -288,7 +287,7 @@ public class PushTemplateProvider extends TemplateProvider {
         if (StringUtils.isBlank(commentId)) {
           throw new IllegalStateException("Cannot find Parent Comment ID in context");
         }
-        commentActivity = Utils.getActivityManager().getActivity(commentId);
+        commentActivity = lookupContext.getActivity(commentId);
         if (commentActivity == null) {
           LOG.warn("Cannot find Parent Comment with id '{}', it will not be displayed in notifications", commentId);
           return null;
@@ -298,7 +297,7 @@ public class PushTemplateProvider extends TemplateProvider {
         if (StringUtils.isBlank(replyToCommentId)) {
           throw new IllegalStateException("Cannot find Reply Comment ID in context");
         }
-        replyToCommentActivity = Utils.getActivityManager().getActivity(replyToCommentId);
+        replyToCommentActivity = lookupContext.getActivity(replyToCommentId);
         if (replyToCommentActivity == null) {
           LOG.warn("Cannot find Reply Comment with id '{}', it will not be displayed in notifications", replyToCommentId);
           return null;
@@ -315,31 +314,20 @@ public class PushTemplateProvider extends TemplateProvider {
       String pluginId = notification.getKey().getId();
 
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), pluginId, language);
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
-      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(getActivityTitle(activity), activity.getType()));
-      templateContext.put("COMMENT", NotificationUtils.getNotificationActivityTitle(getActivityTitle(commentActivity), activity.getType()));
-      templateContext.put("COMMENT_REPLY", isPopupOverOnly ? cutStringByMaxLength(getActivityTitle(replyToCommentActivity), 30)
-                                                           : getActivityTitle(replyToCommentActivity));
+      templateContext.put("COMMENT_REPLY", isPopupOverOnly ? cutStringByMaxLength(lookupContext.getActivityTitle(replyToCommentActivity), 30)
+                                                           : lookupContext.getActivityTitle(replyToCommentActivity));
       List<String>
           users = SocialNotificationUtils.mergeUsers(notification, SocialNotificationUtils.POSTER.getKey(), activity.getId(), notification.getValueOwnerParameter(SocialNotificationUtils.POSTER.getKey()));
 
       //
       int nbUsers = users.size();
       if (nbUsers > 0) {
-        Identity lastIdentity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 1), true);
-        Profile profile = lastIdentity.getProfile();
+        Identity lastIdentity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 1));
         templateContext.put("USER", Utils.addExternalFlag(lastIdentity));
-        templateContext.put("AVATAR", profile.getAvatarUrl() != null ? profile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-        templateContext.put("PROFILE_URL", LinkProvider.getUserProfileUri(lastIdentity.getRemoteId()));
         templateContext.put("NB_USERS", nbUsers);
         //
         if (nbUsers >= 2) {
-          Identity beforeLastIdentity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 2), true);
+          Identity beforeLastIdentity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 2));
           templateContext.put("LAST_USER", Utils.addExternalFlag(beforeLastIdentity));
           if (nbUsers > 2) {
             templateContext.put("COUNT", nbUsers - 2);
@@ -349,10 +337,9 @@ public class PushTemplateProvider extends TemplateProvider {
       //
 
       String notificationLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activity.getId() + "#comment-" + replyToCommentActivity.getId());
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", notificationLink);
 
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -380,43 +367,34 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
       String language = getLanguage(notification);
 
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
 
       String activityId = notification.getValueOwnerParameter(SocialNotificationUtils.ACTIVITY_ID.getKey());
-      ExoSocialActivity activity = Utils.getActivityManager().getActivity(activityId);
+      ExoSocialActivity activity = lookupContext.getActivity(activityId);
       if (activity == null) {
         LOG.debug("Notification related to activity with id '{}' couldn't be found. The related notification will be ignored", activityId);
         return null;
       }
-      Identity identity = Utils.getIdentityManager().getIdentity(activity.getPosterId(), true);
-      Profile profile = identity.getProfile();
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
+      Identity identity = lookupContext.getIdentityById(activity.getPosterId());
       templateContext.put("USER", Utils.addExternalFlag(identity));
-      templateContext.put("AVATAR", profile.getAvatarUrl() != null ? profile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-      templateContext.put("PROFILE_URL", LinkProvider.getUserProfileUri(identity.getRemoteId()));
 
       // In case of mention on a comment, we need provide the id of the activity, not of the comment
-      String activityTitle = getActivityTitle(activity);
+      String activityTitle = lookupContext.getActivityTitle(activity);
       String activityLink;
       if (activity.isComment()) {
-        ExoSocialActivity parentActivity = Utils.getActivityManager().getParentActivity(activity);
-        activityTitle = getActivityTitle(parentActivity);
+        ExoSocialActivity parentActivity = lookupContext.getParentActivity(activity);
+        activityTitle = lookupContext.getActivityTitle(parentActivity);
         activityId = parentActivity.getId();
         activityLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activityId + "#comment-" + activity.getId());
       } else {
         activityLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activityId);
       }
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", activityLink);
       templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(activityTitle, activity.getType()));
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -448,47 +426,37 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
       String language = getLanguage(notification);
       String pluginId = notification.getKey().getId();
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), pluginId, language);
 
       String activityId = notification.getValueOwnerParameter(SocialNotificationUtils.ACTIVITY_ID.getKey());
-      ExoSocialActivity activity = Utils.getActivityManager().getActivity(activityId);
+      ExoSocialActivity activity = lookupContext.getActivity(activityId);
       if (activity == null) {
         LOG.debug("Notification related to activity with id '{}' couldn't be found. The related notification will be ignored", activityId);
         return null;
       }
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
-      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(getActivityTitle(activity), activity.getType()));
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", LinkProvider.getSingleActivityUrl(activity.getId()));
+      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(lookupContext.getActivityTitle(activity), activity.getType()));
 
       String notificationLink;
       if(activity.isComment()) {
-        ExoSocialActivity activityOfComment = Utils.getActivityManager().getParentActivity(activity);
+        ExoSocialActivity activityOfComment = lookupContext.getParentActivity(activity);
         notificationLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activityOfComment.getId() + "#comment-" + activity.getId());
 
       } else {
         notificationLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activity.getId());
       }
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", notificationLink);
       List<String> users = SocialNotificationUtils.mergeUsers(notification, SocialNotificationUtils.LIKER.getKey(), activity.getId(), notification.getValueOwnerParameter(SocialNotificationUtils.LIKER.getKey()));
       //
       int nbUsers = users.size();
       if (nbUsers > 0) {
-        Identity lastIdentity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 1));
-        Profile profile = lastIdentity.getProfile();
+        Identity lastIdentity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 1));
         templateContext.put("USER", Utils.addExternalFlag(lastIdentity));
-        templateContext.put("AVATAR", profile.getAvatarUrl() != null ? profile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-        templateContext.put("PROFILE_URL", LinkProvider.getUserProfileUri(lastIdentity.getRemoteId()));
         templateContext.put("NB_USERS", nbUsers);
         //
         if (nbUsers >= 2) {
-          Identity beforeLastIdentity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 2));
+          Identity beforeLastIdentity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, users.get(nbUsers - 2));
           templateContext.put("LAST_USER", Utils.addExternalFlag(beforeLastIdentity));
           if (nbUsers > 2) {
             templateContext.put("COUNT", nbUsers - 2);
@@ -497,7 +465,7 @@ public class PushTemplateProvider extends TemplateProvider {
       }
 
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -516,26 +484,18 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
 
       String language = getLanguage(notification);
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
 
       String remoteId = notification.getValueOwnerParameter(SocialNotificationUtils.REMOTE_ID.getKey());
-      Identity identity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, remoteId, true);
-      Profile userProfile = identity.getProfile();
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
+      Identity identity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, remoteId);
       templateContext.put("USER", Utils.addExternalFlag(identity));
       templateContext.put("PORTAL_NAME", NotificationPluginUtils.getBrandingPortalName());
       String profileUrl = CommonsUtils.getCurrentDomain() + LinkProvider.getUserProfileUri(identity.getRemoteId());
-      templateContext.put("PROFILE_URL", profileUrl);
-      templateContext.put("AVATAR", userProfile.getAvatarUrl() != null ? userProfile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -555,12 +515,13 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
 
       String language = getLanguage(notification);
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
 
       String activityId = notification.getValueOwnerParameter(SocialNotificationUtils.ACTIVITY_ID.getKey());
-      ExoSocialActivity activity = Utils.getActivityManager().getActivity(activityId);
+      ExoSocialActivity activity = lookupContext.getActivity(activityId);
       if (activity == null) {
         LOG.debug("Activity with id '{}' doesn't exist. The related notification will be ignored", activityId);
         return null;
@@ -568,26 +529,24 @@ public class PushTemplateProvider extends TemplateProvider {
       if (!Utils.getActivityManager().isNotificationEnabled(activity, notification.getTo())) {
         return null;
       }
-      Identity identity = Utils.getIdentityManager().getIdentity(activity.getPosterId(), true);
-      Profile profile = identity.getProfile();
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
-      templateContext.put("AVATAR", profile.getAvatarUrl() != null ? profile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(getActivityTitle(activity), activity.getType()));
+      // the message is the same for all the receivers of the notification with the same language
+      MessageInfo renderedMessage = getRenderedMessage(notification, language);
+      if (renderedMessage != null) {
+        return renderedMessage;
+      }
+      Identity identity = lookupContext.getIdentityById(activity.getPosterId());
+      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(lookupContext.getActivityTitle(activity), activity.getType()));
       templateContext.put("USER", Utils.addExternalFlag(identity));
-      templateContext.put("PROFILE_URL", LinkProvider.getUserProfileUri(identity.getRemoteId()));
       String activityLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activity.getId());
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", activityLink) ;
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
-      MessageInfo messageInfo = new MessageInfo();
-      return messageInfo.body(body).subject(activityLink).end();
+      MessageInfo messageInfo = new MessageInfo().body(body).subject(activityLink).end();
+      if (templateContext.getException() == null) {
+        putRenderedMessage(notification, language, messageInfo);
+      }
+      return messageInfo;
     }
 
     @Override
@@ -603,12 +562,13 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
 
       String language = getLanguage(notification);
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
 
       String activityId = notification.getValueOwnerParameter(SocialNotificationUtils.ACTIVITY_ID.getKey());
-      ExoSocialActivity activity = Utils.getActivityManager().getActivity(activityId);
+      ExoSocialActivity activity = lookupContext.getActivity(activityId);
       if (activity == null) {
         LOG.debug("Notification related to activity with id '{}' couldn't be found. The related notification will be ignored", activityId);
         return null;
@@ -616,33 +576,30 @@ public class PushTemplateProvider extends TemplateProvider {
       if (!Utils.getActivityManager().isNotificationEnabled(activity, notification.getTo())) {
         return null;
       }
-      Identity identity = Utils.getIdentityManager().getIdentity(activity.getPosterId(), true);
-      Profile profile = identity.getProfile();
-      Identity spaceIdentity = Utils.getIdentityManager().getOrCreateIdentity(SpaceIdentityProvider.NAME, activity.getStreamOwner(), true);
-      Space space = Utils.getSpaceService().getSpaceByPrettyName(spaceIdentity.getRemoteId());
+      // the message is the same for all the receivers of the notification with the same language
+      MessageInfo renderedMessage = getRenderedMessage(notification, language);
+      if (renderedMessage != null) {
+        return renderedMessage;
+      }
+      Identity identity = lookupContext.getIdentityById(activity.getPosterId());
+      Identity spaceIdentity = lookupContext.getIdentity(SpaceIdentityProvider.NAME, activity.getStreamOwner());
+      Space space = lookupContext.getSpaceByPrettyName(spaceIdentity.getRemoteId());
       if (space == null) {
         return null;
       }
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
       templateContext.put("USER", Utils.addExternalFlag(identity));
-      templateContext.put("AVATAR", profile.getAvatarUrl() != null ? profile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(getActivityTitle(activity), activity.getType()));
+      templateContext.put("ACTIVITY", NotificationUtils.getNotificationActivityTitle(lookupContext.getActivityTitle(activity), activity.getType()));
       templateContext.put("SPACE", space.getDisplayName());
-      templateContext.put("SPACE_URL", LinkProvider.getActivityUriForSpace(space.getPrettyName(), space.getGroupId().replace("/spaces/", "")));
-      templateContext.put("PROFILE_URL", LinkProvider.getUserProfileUri(identity.getRemoteId()));
       String activityLink = CommonsUtils.getCurrentDomain() + LinkProvider.getSingleActivityUrl(activity.getId());
-      templateContext.put("VIEW_FULL_DISCUSSION_ACTION_URL", activityLink);
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
-      MessageInfo messageInfo = new MessageInfo();
-      return messageInfo.body(body).subject(activityLink).end();
+      MessageInfo messageInfo = new MessageInfo().body(body).subject(activityLink).end();
+      if (templateContext.getException() == null) {
+        putRenderedMessage(notification, language, messageInfo);
+      }
+      return messageInfo;
     }
 
     @Override
@@ -657,30 +614,19 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
 
       String language = getLanguage(notification);
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
 
       String sender = notification.getValueOwnerParameter("sender");
       String status = notification.getValueOwnerParameter("status");
-      String toUser = notification.getTo();
-      Identity identity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, sender, true);
-      Profile userProfile = identity.getProfile();
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
+      Identity identity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, sender);
       templateContext.put("STATUS", status != null && status.equals("accepted") ? "ACCEPTED" : "PENDING");
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
       templateContext.put("USER", Utils.addExternalFlag(identity));
       String senderProfileUrl = CommonsUtils.getCurrentDomain() + LinkProvider.getUserProfileUri(identity.getRemoteId());
-      templateContext.put("PROFILE_URL", senderProfileUrl);
-      templateContext.put("AVATAR", userProfile.getAvatarUrl() != null ? userProfile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-      templateContext.put("ACCEPT_CONNECTION_REQUEST_ACTION_URL", LinkProviderUtils.getWebNotificationRestUrl(ACCEPT_INVITATION_TO_CONNECT, sender, toUser, notification.getId(), MESSAGE_JSON_FILE_NAME));
-      templateContext.put("REFUSE_CONNECTION_REQUEST_ACTION_URL", LinkProviderUtils.getWebNotificationRestUrl(REFUSE_INVITATION_TO_CONNECT, sender, toUser, notification.getId(), MESSAGE_JSON_FILE_NAME));
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -701,34 +647,24 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
 
       String language = getLanguage(notification);
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
 
       String status = notification.getValueOwnerParameter("status");
       String spaceId = notification.getValueOwnerParameter(SocialNotificationUtils.SPACE_ID.getKey());
-      Space space = Utils.getSpaceService().getSpaceById(spaceId);
+      Space space = lookupContext.getSpaceById(spaceId);
       if (space == null) {
         return null;
       }
-      Identity identity = Utils.getIdentityManager().getOrCreateIdentity(OrganizationIdentityProvider.NAME, notification.getValueOwnerParameter("request_from"), true);
-      Profile userProfile = identity.getProfile();
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ", Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey())) ? "read" : "unread");
+      Identity identity = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, notification.getValueOwnerParameter("request_from"));
       templateContext.put("STATUS", status != null && status.equals("accepted") ? "ACCEPTED" : "PENDING");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
       templateContext.put("SPACE", space.getDisplayName());
       templateContext.put("USER", Utils.addExternalFlag(identity));
       String spaceUrl = CommonsUtils.getCurrentDomain() + LinkProvider.getActivityUriForSpace(space.getPrettyName(), space.getGroupId().replace("/spaces/", ""));
-      templateContext.put("SPACE_URL", spaceUrl);
-      templateContext.put("AVATAR", userProfile.getAvatarUrl() != null ? userProfile.getAvatarUrl() : LinkProvider.PROFILE_DEFAULT_AVATAR_URL);
-      templateContext.put("VALIDATE_SPACE_REQUEST_ACTION_URL", LinkProviderUtils.getWebNotificationRestUrl(VALIDATE_SPACE_REQUEST, space.getId(), identity.getRemoteId()) + "/" + notification.getTo() + "/" + notification.getId() + "/" + MESSAGE_JSON_FILE_NAME);
-      templateContext.put("REFUSE_SPACE_REQUEST_ACTION_URL", LinkProviderUtils.getWebNotificationRestUrl(REFUSE_SPACE_REQUEST, space.getId(), identity.getRemoteId()) + "/" + notification.getTo() + "/" + notification.getId() + "/" + MESSAGE_JSON_FILE_NAME);
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -747,6 +683,7 @@ public class PushTemplateProvider extends TemplateProvider {
     @Override
     protected MessageInfo makeMessage(NotificationContext ctx) {
       NotificationInfo notification = ctx.getNotificationInfo();
+      SocialLookupContext lookupContext = SocialLookupContext.of(ctx);
 
       String language = getLanguage(notification);
       TemplateContext templateContext = TemplateContext.newChannelInstance(getChannelKey(), notification.getKey().getId(), language);
@@ -755,27 +692,16 @@ public class PushTemplateProvider extends TemplateProvider {
       String spaceId = notification.getValueOwnerParameter(SocialNotificationUtils.SPACE_ID.getKey());
       String sender = notification.getValueOwnerParameter(SocialNotificationUtils.SENDER.getKey());
 
-      Space space = Utils.getSpaceService().getSpaceById(spaceId);
+      Space space = lookupContext.getSpaceById(spaceId);
       if (space == null) {
         return null;
       }
-      templateContext.put("isIntranet", "true");
-      Calendar cal = Calendar.getInstance();
-      cal.setTimeInMillis(notification.getLastModifiedDate());
-      templateContext.put("READ",
-                          Boolean.TRUE.equals(Boolean.valueOf(notification.getValueOwnerParameter(NotificationMessageUtils.READ_PORPERTY.getKey()))) ? "read" : "unread");
       templateContext.put("STATUS", status != null && status.equals("accepted") ? "ACCEPTED" : "PENDING");
-      templateContext.put("NOTIFICATION_ID", notification.getId());
-      templateContext.put("LAST_UPDATED_TIME", TimeConvertUtils.convertXTimeAgoByTimeServer(cal.getTime(), "EE, dd yyyy", new Locale(language), TimeConvertUtils.YEAR));
       templateContext.put("SPACE", space.getDisplayName());
       templateContext.put("SENDER_NAME", sender);
       String spaceUrl = CommonsUtils.getCurrentDomain() + LinkProvider.getActivityUriForSpace(space.getPrettyName(), space.getGroupId().replace("/spaces/", ""));
-      templateContext.put("SPACE_URL", spaceUrl);
-      templateContext.put("SPACE_AVATAR", space.getAvatarUrl() != null ? space.getAvatarUrl() : LinkProvider.SPACE_DEFAULT_AVATAR_URL);
-      templateContext.put("ACCEPT_SPACE_INVITATION_ACTION_URL", LinkProviderUtils.getWebNotificationRestUrl(ACCEPT_SPACE_INVITATION, space.getId(), notification.getTo(), notification.getId(), MESSAGE_JSON_FILE_NAME));
-      templateContext.put("REFUSE_SPACE_INVITATION_ACTION_URL", LinkProviderUtils.getWebNotificationRestUrl(REFUSE_SPACE_INVITATION, space.getId(), notification.getTo(), notification.getId(), MESSAGE_JSON_FILE_NAME));
       //
-      String body = TemplateUtils.processGroovy(templateContext);
+      String body = renderTemplate(templateContext);
       //binding the exception throws by processing template
       ctx.setException(templateContext.getException());
       MessageInfo messageInfo = new MessageInfo();
@@ -789,8 +715,27 @@ public class PushTemplateProvider extends TemplateProvider {
 
   };
 
+  private PushTemplateRenderer templateRenderer;
+
+  private RenderedMessageCache renderedMessageCache;
+
   public PushTemplateProvider(InitParams initParams) {
+    this(initParams, null, null);
+  }
+
+  /**
+   * Template provider rendering the templates with the compiled templates of the renderer, and sharing the messages
+   * which are the same for all the receivers of a notification through the rendered message cache
+   */
+  public PushTemplateProvider(InitParams initParams, PushTemplateRenderer templateRenderer, RenderedMessageCache renderedMessageCache) {
     super(initParams);
+    this.templateRenderer = templateRenderer;
+    this.renderedMessageCache = renderedMessageCache;
+    if (templateRenderer != null) {
+      for (TemplateConfig templateConfig : getClass().getAnnotation(TemplateConfigs.class).templates()) {
+        templateRenderer.registerTemplate(templateConfig.pluginId(), templateConfig.template());
+      }
+    }
     this.templateBuilders.put(PluginKey.key(ActivityCommentPlugin.ID), comment);
     this.templateBuilders.put(PluginKey.key(ActivityReplyToCommentPlugin.ID), replyToComment);
     this.templateBuilders.put(PluginKey.key(ActivityMentionPlugin.ID), mention);
@@ -804,8 +749,18 @@ public class PushTemplateProvider extends TemplateProvider {
     this.templateBuilders.put(PluginKey.key(SpaceInvitationPlugin.ID), spaceInvitation);
   }
 
-  private String getActivityTitle(ExoSocialActivity activity) {
-    return Utils.getActivityManager().getActivityTitle(activity);
+  private MessageInfo getRenderedMessage(NotificationInfo notification, String language) {
+    return renderedMessageCache == null ? null : renderedMessageCache.get(notification, language);
+  }
+
+  private void putRenderedMessage(NotificationInfo notification, String language, MessageInfo messageInfo) {
+    if (renderedMessageCache != null) {
+      renderedMessageCache.put(notification, language, messageInfo);
+    }
+  }
+
+  private String renderTemplate(TemplateContext templateContext) {
+    return templateRenderer == null ? TemplateUtils.processGroovy(templateContext) : templateRenderer.render(templateContext);
   }
 
 }
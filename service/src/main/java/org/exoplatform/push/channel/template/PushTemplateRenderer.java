@@ -0,0 +1,236 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel.template;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.LocaleUtils;
+import org.picocontainer.Startable;
+
+import org.exoplatform.commons.api.notification.model.PluginConfig;
+import org.exoplatform.commons.api.notification.service.setting.PluginSettingService;
+import org.exoplatform.commons.api.notification.service.template.TemplateContext;
+import org.exoplatform.commons.notification.template.TemplateUtils;
+import org.exoplatform.commons.utils.PropertyManager;
+import org.exoplatform.container.configuration.ConfigurationManager;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.groovyscript.GroovyTemplate;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.resources.ResourceBundleService;
+
+import static org.exoplatform.push.util.InitParamsUtil.getBooleanParam;
+
+/**
+ * Renders the push templates with compiled Groovy templates kept in memory, instead of compiling the template of each
+ * notification. The compiled templates are cached by notification plugin and their resource bundles by notification
+ * plugin and language. They are compiled at startup and the cache is bypassed in developing mode so the changes of
+ * the templates are applied right away. The cache can also be cleared through JMX.
+ */
+@Managed
+@ManagedDescription("Push notifications templates")
+@NameTemplate({ @Property(key = "service", value = "push-notifications"), @Property(key = "view", value = "templates") })
+public class PushTemplateRenderer implements Startable {
+
+  private static final Log LOG = ExoLogger.getLogger(PushTemplateRenderer.class);
+
+  private static final String CONTEXT_VARIABLE = "_ctx";
+
+  private final ConfigurationManager configurationManager;
+
+  private final ResourceBundleService resourceBundleService;
+
+  private final PluginSettingService pluginSettingService;
+
+  private final boolean cacheEnabled;
+
+  // Template paths by notification plugin id
+  private final ConcurrentMap<String, String> templatePaths = new ConcurrentHashMap<>();
+
+  // Compiled templates by notification plugin id
+  private final ConcurrentMap<String, GroovyTemplate> compiledTemplates = new ConcurrentHashMap<>();
+
+  // Resources of the templates by notification plugin id and language
+  private final ConcurrentMap<String, TemplateResources> templateResources = new ConcurrentHashMap<>();
+
+  public PushTemplateRenderer(InitParams initParams,
+                              ConfigurationManager configurationManager,
+                              ResourceBundleService resourceBundleService,
+                              PluginSettingService pluginSettingService) {
+    this.configurationManager = configurationManager;
+    this.resourceBundleService = resourceBundleService;
+    this.pluginSettingService = pluginSettingService;
+    this.cacheEnabled = getBooleanParam(initParams, "cacheEnabled", true) && !PropertyManager.isDevelopping();
+  }
+
+  @Override
+  public void start() {
+    if (!cacheEnabled) {
+      return;
+    }
+    // compile the templates registered before the start, the next ones are compiled when registered
+    templatePaths.keySet().forEach(this::getCompiledTemplate);
+    LOG.info("Push Notifications - {} push templates compiled", compiledTemplates.size());
+  }
+
+  @Override
+  public void stop() {
+    // Nothing to stop
+  }
+
+  /**
+   * Register the template of a notification plugin
+   *
+   * @param pluginId The notification plugin id
+   * @param templatePath The path of the template, such as war:/push-notifications/templates/LikePlugin.gtmpl
+   */
+  public void registerTemplate(String pluginId, String templatePath) {
+    templatePaths.put(pluginId, templatePath);
+    compiledTemplates.remove(pluginId);
+    templateResources.keySet().removeIf(key -> key.startsWith(pluginId + "/"));
+  }
+
+  /**
+   * Render the template of the notification plugin of a template context. It falls back on the rendering of the
+   * notification service when the template of the plugin is not registered or cannot be compiled.
+   *
+   * @param templateContext The template context, holding the notification plugin id, the language and the variables
+   * @return The rendered template
+   */
+  public String render(TemplateContext templateContext) {
+    String pluginId = templateContext.getPluginId();
+    GroovyTemplate compiledTemplate = getCompiledTemplate(pluginId);
+    if (compiledTemplate == null) {
+      return TemplateUtils.processGroovy(templateContext);
+    }
+    try {
+      templateContext.put(CONTEXT_VARIABLE, getTemplateResources(pluginId, templateContext.getLanguage()));
+      StringWriter writer = new StringWriter();
+      compiledTemplate.render(writer, templateContext);
+      return writer.toString();
+    } catch (Exception e) {
+      LOG.warn("Push Notifications - Error while rendering push template of plugin {}", pluginId, e);
+      templateContext.setException(e);
+      return "";
+    }
+  }
+
+  @Managed
+  @ManagedDescription("Number of compiled push templates")
+  public int getCompiledTemplatesCount() {
+    return compiledTemplates.size();
+  }
+
+  @Managed
+  @ManagedDescription("Clear the compiled push templates, so the changes of the templates are applied")
+  public void clearCache() {
+    compiledTemplates.clear();
+    templateResources.clear();
+  }
+
+  private GroovyTemplate getCompiledTemplate(String pluginId) {
+    String templatePath = pluginId == null ? null : templatePaths.get(pluginId);
+    if (templatePath == null) {
+      return null;
+    }
+    if (!cacheEnabled) {
+      return compileTemplate(pluginId, templatePath);
+    }
+    GroovyTemplate compiledTemplate = compiledTemplates.get(pluginId);
+    if (compiledTemplate == null) {
+      compiledTemplate = compileTemplate(pluginId, templatePath);
+      if (compiledTemplate != null) {
+        compiledTemplates.putIfAbsent(pluginId, compiledTemplate);
+      }
+    }
+    return compiledTemplate;
+  }
+
+  private GroovyTemplate compileTemplate(String pluginId, String templatePath) {
+    try (InputStream inputStream = configurationManager.getInputStream(templatePath)) {
+      return new GroovyTemplate(IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+    } catch (Exception e) {
+      LOG.warn("Push Notifications - Cannot compile push template {} of plugin {}, it will be rendered by the notification service",
+               templatePath, pluginId, e);
+      return null;
+    }
+  }
+
+  private TemplateResources getTemplateResources(String pluginId, String language) {
+    if (!cacheEnabled) {
+      return new TemplateResources(loadResourceBundle(pluginId, language));
+    }
+    return templateResources.computeIfAbsent(pluginId + "/" + language,
+                                             key -> new TemplateResources(loadResourceBundle(pluginId, language)));
+  }
+
+  private ResourceBundle loadResourceBundle(String pluginId, String language) {
+    PluginConfig pluginConfig = pluginSettingService.getPluginConfig(pluginId);
+    if (pluginConfig == null || pluginConfig.getBundlePath() == null) {
+      return null;
+    }
+    Locale locale;
+    try {
+      locale = language == null ? Locale.ENGLISH : LocaleUtils.toLocale(language);
+    } catch (IllegalArgumentException e) {
+      locale = Locale.ENGLISH;
+    }
+    return resourceBundleService.getResourceBundle(pluginConfig.getBundlePath(), locale);
+  }
+
+  /**
+   * Resources of the templates, available as _ctx in the templates
+   */
+  public static final class TemplateResources {
+
+    private final ResourceBundle resourceBundle;
+
+    TemplateResources(ResourceBundle resourceBundle) {
+      this.resourceBundle = resourceBundle;
+    }
+
+    /**
+     * @param key The resource bundle key
+     * @param args The values of the {0}, {1}... placeholders of the message
+     * @return The localized message, or the key when it is not found
+     */
+    public String appRes(String key, String... args) {
+      String value;
+      try {
+        value = resourceBundle == null ? key : resourceBundle.getString(key);
+      } catch (MissingResourceException e) {
+        value = key;
+      }
+      for (int i = 0; i < args.length; i++) {
+        value = value.replace("{" + i + "}", args[i] == null ? "" : args[i]);
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel.template;
+
+import java.io.Serializable;
+
+import org.exoplatform.commons.api.notification.model.MessageInfo;
+import org.exoplatform.commons.api.notification.model.NotificationInfo;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+
+/**
+ * Cache of the push notifications rendered for all the receivers of a notification, such as the new activities of a
+ * space stream, by notification id, plugin id and language. A notification sent to the members of a space is then
+ * rendered once per language instead of once per member. The entries expire after a short time since they are only
+ * useful during the dispatch of the notification.
+ */
+public class RenderedMessageCache {
+
+  public static final String RENDERED_MESSAGE_CACHE_NAME = "pushnotifications.RenderedMessageCache";
+
+  private final ExoCache<String, RenderedMessage> renderedMessages;
+
+  public RenderedMessageCache(CacheService cacheService) {
+    this.renderedMessages = cacheService.getCacheInstance(RENDERED_MESSAGE_CACHE_NAME);
+  }
+
+  /**
+   * @param notification The notification
+   * @param language The language of the receiver
+   * @return A new message with the cached rendering, or null if the notification has not been rendered for this language
+   */
+  public MessageInfo get(NotificationInfo notification, String language) {
+    String key = getKey(notification, language);
+    RenderedMessage renderedMessage = key == null ? null : renderedMessages.get(key);
+    if (renderedMessage == null) {
+      return null;
+    }
+    return new MessageInfo().body(renderedMessage.body).subject(renderedMessage.subject).end();
+  }
+
+  /**
+   * @param notification The notification
+   * @param language The language of the receiver
+   * @param messageInfo The rendered message
+   */
+  public void put(NotificationInfo notification, String language, MessageInfo messageInfo) {
+    String key = getKey(notification, language);
+    if (key != null && messageInfo != null) {
+      renderedMessages.put(key, new RenderedMessage(messageInfo.getBody(), messageInfo.getSubject()));
+    }
+  }
+
+  private static String getKey(NotificationInfo notification, String language) {
+    if (notification.getId() == null || notification.getKey() == null) {
+      return null;
+    }
+    return notification.getId() + ":" + notification.getKey().getId() + ":" + language;
+  }
+
+  static final class RenderedMessage implements Serializable {
+
+    private static final long serialVersionUID = 4137619752463852874L;
+
+    private final String body;
+
+    private final String subject;
+
+    RenderedMessage(String body, String subject) {
+      this.body = body;
+      this.subject = subject;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel.template;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.exoplatform.commons.api.notification.NotificationContext;
+import org.exoplatform.commons.api.notification.model.ArgumentLiteral;
+import org.exoplatform.social.core.activity.model.ExoSocialActivity;
+import org.exoplatform.social.core.identity.model.Identity;
+import org.exoplatform.social.core.manager.ActivityManager;
+import org.exoplatform.social.core.manager.IdentityManager;
+import org.exoplatform.social.core.space.model.Space;
+import org.exoplatform.social.core.space.spi.SpaceService;
+import org.exoplatform.social.notification.Utils;
+
+/**
+ * Memo of the social objects (activities, identities, spaces) needed to render a notification.
+ * It is attached to the notification context, so each object is loaded once for all the receivers of the notification
+ * and all the template builders rendering it, instead of once per receiver. Missing objects are memoized too.
+ */
+public class SocialLookupContext {
+
+  public static final ArgumentLiteral<SocialLookupContext> SOCIAL_LOOKUP_CONTEXT =
+      new ArgumentLiteral<>(SocialLookupContext.class, "pushSocialLookupContext");
+
+  private final ActivityManager activityManager;
+
+  private final IdentityManager identityManager;
+
+  private final SpaceService spaceService;
+
+  private final Map<String, Optional<ExoSocialActivity>> activities = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<ExoSocialActivity>> parentActivities = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<String>> activityTitles = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<Identity>> identitiesById = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<Identity>> identitiesByRemoteId = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<Space>> spacesById = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<Space>> spacesByPrettyName = new ConcurrentHashMap<>();
+
+  public SocialLookupContext(ActivityManager activityManager, IdentityManager identityManager, SpaceService spaceService) {
+    this.activityManager = activityManager;
+    this.identityManager = identityManager;
+    this.spaceService = spaceService;
+  }
+
+  /**
+   * Get the lookup context of a notification, created on first use
+   *
+   * @param ctx The notification context
+   * @return The lookup context attached to the notification context
+   */
+  public static SocialLookupContext of(NotificationContext ctx) {
+    SocialLookupContext lookupContext = ctx.value(SOCIAL_LOOKUP_CONTEXT);
+    if (lookupContext == null) {
+      lookupContext = new SocialLookupContext(Utils.getActivityManager(), Utils.getIdentityManager(), Utils.getSpaceService());
+      ctx.append(SOCIAL_LOOKUP_CONTEXT, lookupContext);
+    }
+    return lookupContext;
+  }
+
+  public ExoSocialActivity getActivity(String activityId) {
+    return lookup(activities, activityId, activityManager::getActivity);
+  }
+
+  public ExoSocialActivity getParentActivity(ExoSocialActivity comment) {
+    if (comment.getId() == null) {
+      return activityManager.getParentActivity(comment);
+    }
+    return lookup(parentActivities, comment.getId(), id -> activityManager.getParentActivity(comment));
+  }
+
+  public String getActivityTitle(ExoSocialActivity activity) {
+    if (activity.getId() == null) {
+      return activityManager.getActivityTitle(activity);
+    }
+    return lookup(activityTitles, activity.getId(), id -> activityManager.getActivityTitle(activity));
+  }
+
+  /**
+   * @param identityId The technical id of the identity
+   * @return The identity, with its profile
+   */
+  public Identity getIdentityById(String identityId) {
+    Identity identity = lookup(identitiesById, identityId, id -> identityManager.getIdentity(id, true));
+    if (identity != null) {
+      identitiesByRemoteId.putIfAbsent(remoteIdKey(identity.getProviderId(), identity.getRemoteId()), Optional.of(identity));
+    }
+    return identity;
+  }
+
+  /**
+   * @param providerId The identity provider, user or space
+   * @param remoteId The user name or the space pretty name
+   * @return The identity, with its profile
+   */
+  public Identity getIdentity(String providerId, String remoteId) {
+    Identity identity = lookup(identitiesByRemoteId, remoteIdKey(providerId, remoteId),
+                               key -> identityManager.getOrCreateIdentity(providerId, remoteId, true));
+    if (identity != null && identity.getId() != null) {
+      identitiesById.putIfAbsent(identity.getId(), Optional.of(identity));
+    }
+    return identity;
+  }
+
+  public Space getSpaceById(String spaceId) {
+    return lookup(spacesById, spaceId, spaceService::getSpaceById);
+  }
+
+  public Space getSpaceByPrettyName(String prettyName) {
+    return lookup(spacesByPrettyName, prettyName, spaceService::getSpaceByPrettyName);
+  }
+
+  private static String remoteIdKey(String providerId, String remoteId) {
+    return providerId + ":" + remoteId;
+  }
+
+  private static <T> T lookup(Map<String, Optional<T>> memo, String key, Function<String, T> loader) {
+    if (key == null) {
+      return loader.apply(null);
+    }
+    return memo.computeIfAbsent(key, k -> Optional.ofNullable(loader.apply(k))).orElse(null);
+  }
+}
@@ -16,17 +16,32 @@
  */
 package org.exoplatform.push.dao;
 
+import org.exoplatform.commons.api.persistence.ExoTransactional;
 import org.exoplatform.commons.persistence.impl.GenericDAOJPAImpl;
 import org.exoplatform.push.domain.Device;
 
 import jakarta.persistence.NoResultException;
 import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
 public class DeviceDao extends GenericDAOJPAImpl<Device, Long> {
 
+  /**
+   * Date of a device used to know if its token is expired
+   */
+  public enum ExpirationReference {
+    /** Date of the last registration of the device */
+    REGISTRATION_DATE,
+    /** Date of the last time the device has been seen (registered or refreshed) */
+    LAST_SEEN
+  }
+
+  private static final int MAX_IN_CLAUSE_VALUES = 1000;
+
   public List<Device> findByUsername(String username) {
     TypedQuery<Device> query = getEntityManager().createNamedQuery("PushNotifsDevice.findDevicesByUsername", Device.class)
             .setParameter("username", username);
@@ -38,6 +53,20 @@ public class DeviceDao extends GenericDAOJPAImpl<Device, Long> {
     }
   }
 
+  /**
+   * Find the devices of a user, with only their token and type. The returned devices are not managed entities.
+   *
+   * @param username The username
+   * @return The devices of the user
+   */
+  @ExoTransactional
+  public List<Device> findTokensByUsername(String username) {
+    return getEntityManager().createNamedQuery("PushNotifsDevice.findDeviceTokensByUsername", Device.class)
+            .setParameter("username", username)
+            .getResultList();
+  }
+
+  @ExoTransactional
   public Device findByToken(String token) {
     TypedQuery<Device> query = getEntityManager().createNamedQuery("PushNotifsDevice.findDevicesByToken", Device.class)
             .setParameter("token", token);
@@ -49,10 +78,85 @@ public class DeviceDao extends GenericDAOJPAImpl<Device, Long> {
     }
   }
 
+  /**
+   * Delete the devices of the given tokens with bulk delete statements
+   *
+   * @param tokens The tokens of the devices to delete
+   * @return The number of deleted devices
+   */
+  @ExoTransactional
+  public int deleteByTokens(Collection<String> tokens) {
+    List<String> tokensList = new ArrayList<>(tokens);
+    int nbDeleted = 0;
+    // the number of values of an IN clause is limited by some databases (Oracle)
+    for (int i = 0; i < tokensList.size(); i += MAX_IN_CLAUSE_VALUES) {
+      Query query = getEntityManager().createNamedQuery("PushNotifsDevice.deleteDevicesByTokens");
+      query.setParameter("tokens", tokensList.subList(i, Math.min(i + MAX_IN_CLAUSE_VALUES, tokensList.size())));
+      nbDeleted += query.executeUpdate();
+    }
+    return nbDeleted;
+  }
+
   public int deleteDevicesWithTokenOlderThan(Date expirationDate) {
     Query query = getEntityManager().createNamedQuery("PushNotifsDevice.deleteDevicesWithTokenOlderThan");
     query.setParameter("expirationDate", expirationDate);
     return query.executeUpdate();
   }
 
+  /**
+   * Count the devices with a token expired since the given date
+   *
+   * @param reference The date of the devices compared to the expiration date
+   * @param expirationDate The expiration date of the tokens
+   * @return The number of devices with an expired token
+   */
+  @ExoTransactional
+  public long countExpiredDevices(ExpirationReference reference, Date expirationDate) {
+    String queryName = reference == ExpirationReference.LAST_SEEN ? "PushNotifsDevice.countDevicesNotSeenSince"
+                                                                   : "PushNotifsDevice.countDevicesWithTokenOlderThan";
+    return getEntityManager().createNamedQuery(queryName, Long.class)
+            .setParameter("expirationDate", expirationDate)
+            .getSingleResult();
+  }
+
+  /**
+   * Find the ids of the devices with a token expired since the given date, ordered by id
+   *
+   * @param reference The date of the devices compared to the expiration date
+   * @param expirationDate The expiration date of the tokens
+   * @param fromId Only the devices with an id greater than this one are returned
+   * @param limit The maximum number of ids to return
+   * @return The ids of the devices
+   */
+  @ExoTransactional
+  public List<Long> findIdsOfExpiredDevices(ExpirationReference reference, Date expirationDate, long fromId, int limit) {
+    String queryName = reference == ExpirationReference.LAST_SEEN ? "PushNotifsDevice.findIdsOfDevicesNotSeenSince"
+                                                                   : "PushNotifsDevice.findIdsOfDevicesWithTokenOlderThan";
+    return getEntityManager().createNamedQuery(queryName, Long.class)
+            .setParameter("expirationDate", expirationDate)
+            .setParameter("fromId", fromId)
+            .setMaxResults(limit)
+            .getResultList();
+  }
+
+  /**
+   * Delete the devices of the given ids range with a token expired since the given date
+   *
+   * @param reference The date of the devices compared to the expiration date
+   * @param expirationDate The expiration date of the tokens
+   * @param fromId The first id of the range (inclusive)
+   * @param toId The last id of the range (inclusive)
+   * @return The number of deleted devices
+   */
+  @ExoTransactional
+  public int deleteExpiredDevices(ExpirationReference reference, Date expirationDate, long fromId, long toId) {
+    String queryName = reference == ExpirationReference.LAST_SEEN ? "PushNotifsDevice.deleteDevicesInRangeNotSeenSince"
+                                                                   : "PushNotifsDevice.deleteDevicesInRangeWithTokenOlderThan";
+    Query query = getEntityManager().createNamedQuery(queryName);
+    query.setParameter("expirationDate", expirationDate);
+    query.setParameter("fromId", fromId);
+    query.setParameter("toId", toId);
+    return query.executeUpdate();
+  }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.dao;
+
+import org.exoplatform.commons.api.persistence.ExoTransactional;
+import org.exoplatform.commons.persistence.impl.GenericDAOJPAImpl;
+import org.exoplatform.push.domain.PushOutboxMessage;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public class PushOutboxDao extends GenericDAOJPAImpl<PushOutboxMessage, Long> {
+
+  private static final int MAX_IN_CLAUSE_VALUES = 1000;
+
+  // Lock timeout value skipping the rows already locked by another transaction (SELECT ... FOR UPDATE SKIP LOCKED)
+  private static final int SKIP_LOCKED = -2;
+
+  /**
+   * Claim the messages ready to be sent: the rows are selected with SELECT ... FOR UPDATE SKIP LOCKED, so the nodes of
+   * a cluster claim distinct messages without waiting for each other, then they are marked as locked by the given owner.
+   *
+   * @param owner The owner of the claim
+   * @param now The current date
+   * @param leaseExpirationDate The claims older than this date are expired
+   * @param limit The maximum number of messages to claim
+   * @return The claimed messages
+   */
+  @ExoTransactional
+  public List<PushOutboxMessage> claimMessages(String owner, Date now, Date leaseExpirationDate, int limit) {
+    List<PushOutboxMessage> messages = getEntityManager().createNamedQuery("PushNotifsOutboxMessage.findClaimableMessages",
+                                                                           PushOutboxMessage.class)
+            .setParameter("now", now)
+            .setParameter("leaseExpirationDate", leaseExpirationDate)
+            .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+            .setHint("jakarta.persistence.lock.timeout", SKIP_LOCKED)
+            .setMaxResults(limit)
+            .getResultList();
+    for (PushOutboxMessage message : messages) {
+      message.setLockOwner(owner);
+      message.setLockDate(now);
+    }
+    return messages;
+  }
+
+  @ExoTransactional
+  public long countMessages() {
+    return getEntityManager().createNamedQuery("PushNotifsOutboxMessage.countMessages", Long.class).getSingleResult();
+  }
+
+  /**
+   * Delete the messages of the given ids with bulk delete statements
+   *
+   * @param ids The ids of the messages
+   * @return The number of deleted messages
+   */
+  @ExoTransactional
+  public int deleteByIds(Collection<Long> ids) {
+    List<Long> idsList = new ArrayList<>(ids);
+    int nbDeleted = 0;
+    // the number of values of an IN clause is limited by some databases (Oracle)
+    for (int i = 0; i < idsList.size(); i += MAX_IN_CLAUSE_VALUES) {
+      Query query = getEntityManager().createNamedQuery("PushNotifsOutboxMessage.deleteMessagesByIds");
+      query.setParameter("ids", idsList.subList(i, Math.min(i + MAX_IN_CLAUSE_VALUES, idsList.size())));
+      nbDeleted += query.executeUpdate();
+    }
+    return nbDeleted;
+  }
+
+  /**
+   * Release the claim of the messages of the given ids and schedule their next sending attempt
+   *
+   * @param ids The ids of the messages
+   * @param nextAttemptDate The date of the next sending attempt
+   * @return The number of updated messages
+   */
+  @ExoTransactional
+  public int reschedule(Collection<Long> ids, Date nextAttemptDate) {
+    List<Long> idsList = new ArrayList<>(ids);
+    int nbUpdated = 0;
+    for (int i = 0; i < idsList.size(); i += MAX_IN_CLAUSE_VALUES) {
+      Query query = getEntityManager().createNamedQuery("PushNotifsOutboxMessage.rescheduleMessagesByIds");
+      query.setParameter("ids", idsList.subList(i, Math.min(i + MAX_IN_CLAUSE_VALUES, idsList.size())));
+      query.setParameter("nextAttemptDate", nextAttemptDate);
+      nbUpdated += query.executeUpdate();
+    }
+    return nbUpdated;
+  }
+}
@@ -19,6 +19,7 @@ package org.exoplatform.push.domain;
 import org.exoplatform.commons.api.persistence.ExoEntity;
 
 import jakarta.persistence.*;
+import java.io.Serializable;
 import java.util.Date;
 
 @Entity(name = "PushNotifsDevice")
@@ -29,17 +30,51 @@ import java.util.Date;
     name = "PushNotifsDevice.findDevicesByUsername",
     query = "SELECT d FROM PushNotifsDevice d WHERE d.username = :username"
   ),
+  @NamedQuery(
+    name = "PushNotifsDevice.findDeviceTokensByUsername",
+    query = "SELECT new org.exoplatform.push.domain.Device(d.token, d.type) FROM PushNotifsDevice d WHERE d.username = :username"
+  ),
   @NamedQuery(
     name = "PushNotifsDevice.findDevicesByToken",
     query = "SELECT d FROM PushNotifsDevice d WHERE d.token = :token"
   ),
+  @NamedQuery(
+    name = "PushNotifsDevice.deleteDevicesByTokens",
+    query = "DELETE FROM PushNotifsDevice d WHERE d.token IN (:tokens)"
+  ),
   @NamedQuery(
     name = "PushNotifsDevice.deleteDevicesWithTokenOlderThan",
     query = "DELETE FROM PushNotifsDevice d WHERE d.registrationDate < :expirationDate"
+  ),
+  @NamedQuery(
+    name = "PushNotifsDevice.countDevicesWithTokenOlderThan",
+    query = "SELECT COUNT(d.id) FROM PushNotifsDevice d WHERE d.registrationDate < :expirationDate"
+  ),
+  @NamedQuery(
+    name = "PushNotifsDevice.findIdsOfDevicesWithTokenOlderThan",
+    query = "SELECT d.id FROM PushNotifsDevice d WHERE d.registrationDate < :expirationDate AND d.id > :fromId ORDER BY d.id"
+  ),
+  @NamedQuery(
+    name = "PushNotifsDevice.deleteDevicesInRangeWithTokenOlderThan",
+    query = "DELETE FROM PushNotifsDevice d WHERE d.id BETWEEN :fromId AND :toId AND d.registrationDate < :expirationDate"
+  ),
+  @NamedQuery(
+    name = "PushNotifsDevice.countDevicesNotSeenSince",
+    query = "SELECT COUNT(d.id) FROM PushNotifsDevice d WHERE d.lastSeen < :expirationDate"
+  ),
+  @NamedQuery(
+    name = "PushNotifsDevice.findIdsOfDevicesNotSeenSince",
+    query = "SELECT d.id FROM PushNotifsDevice d WHERE d.lastSeen < :expirationDate AND d.id > :fromId ORDER BY d.id"
+  ),
+  @NamedQuery(
+    name = "PushNotifsDevice.deleteDevicesInRangeNotSeenSince",
+    query = "DELETE FROM PushNotifsDevice d WHERE d.id BETWEEN :fromId AND :toId AND d.lastSeen < :expirationDate"
   )
 
 })
-public class Device {
+public class Device implements Serializable {
+
+  private static final long serialVersionUID = 3614787398412953724L;
 
   @Id
   @SequenceGenerator(name="SEQ_MSG_DEVICES_ID", sequenceName="SEQ_MSG_DEVICES_ID", allocationSize = 1)
@@ -59,9 +94,20 @@ public class Device {
   @Column(name = "REGISTRATION_DATE")
   private Date registrationDate;
 
+  @Column(name = "LAST_SEEN")
+  private Date lastSeen;
+
   public Device() {
   }
 
+  /**
+   * Device with only its token and type, used by the projection queries
+   */
+  public Device(String token, String type) {
+    this.token = token;
+    this.type = type;
+  }
+
   public long getId() {
     return id;
   }
@@ -101,4 +147,12 @@ public class Device {
   public void setRegistrationDate(Date registrationDate) {
     this.registrationDate = registrationDate;
   }
+
+  public Date getLastSeen() {
+    return lastSeen;
+  }
+
+  public void setLastSeen(Date lastSeen) {
+    this.lastSeen = lastSeen;
+  }
 }
@@ -23,6 +23,13 @@ public class Message {
   private String title;
   private String body;
   private String url;
+  private String pluginId;
+  // Number of sending attempts already done
+  private int attempts;
+  // Id of the message in the outbox, null if the message is not stored in the outbox
+  private Long outboxId;
+  // Key of the group of messages replacing each other on the device, null if the messages are not collapsible
+  private String collapseKey;
 
   public Message(String receiver, String token, String deviceType, String title, String body, String url) {
     this.receiver = receiver;
@@ -80,4 +87,36 @@ public class Message {
   public void setUrl(String url) {
     this.url = url;
   }
-}
\ No newline at end of file
+
+  public String getPluginId() {
+    return pluginId;
+  }
+
+  public void setPluginId(String pluginId) {
+    this.pluginId = pluginId;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public Long getOutboxId() {
+    return outboxId;
+  }
+
+  public void setOutboxId(Long outboxId) {
+    this.outboxId = outboxId;
+  }
+
+  public String getCollapseKey() {
+    return collapseKey;
+  }
+
+  public void setCollapseKey(String collapseKey) {
+    this.collapseKey = collapseKey;
+  }
+}
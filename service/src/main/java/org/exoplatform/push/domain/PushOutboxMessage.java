@@ -0,0 +1,243 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.domain;
+
+import org.exoplatform.commons.api.persistence.ExoEntity;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Push message waiting in the outbox to be sent.
+ * A message is claimed by a node when its lock date is set, the claim expires after a lease timeout so the messages of a
+ * node which crashed are sent by the other nodes.
+ */
+@Entity(name = "PushNotifsOutboxMessage")
+@ExoEntity
+@Table(name = "MSG_PUSH_OUTBOX")
+@NamedQueries({
+  @NamedQuery(
+    name = "PushNotifsOutboxMessage.findClaimableMessages",
+    query = "SELECT m FROM PushNotifsOutboxMessage m WHERE m.nextAttemptDate <= :now"
+        + " AND (m.lockDate IS NULL OR m.lockDate < :leaseExpirationDate) ORDER BY m.id"
+  ),
+  @NamedQuery(
+    name = "PushNotifsOutboxMessage.countMessages",
+    query = "SELECT COUNT(m.id) FROM PushNotifsOutboxMessage m"
+  ),
+  @NamedQuery(
+    name = "PushNotifsOutboxMessage.deleteMessagesByIds",
+    query = "DELETE FROM PushNotifsOutboxMessage m WHERE m.id IN (:ids)"
+  ),
+  @NamedQuery(
+    name = "PushNotifsOutboxMessage.rescheduleMessagesByIds",
+    query = "UPDATE PushNotifsOutboxMessage m SET m.lockOwner = NULL, m.lockDate = NULL, m.attempts = m.attempts + 1,"
+        + " m.nextAttemptDate = :nextAttemptDate WHERE m.id IN (:ids)"
+  )
+})
+public class PushOutboxMessage implements Serializable {
+
+  private static final long serialVersionUID = -2316044861728373905L;
+
+  @Id
+  @SequenceGenerator(name="SEQ_MSG_PUSH_OUTBOX_ID", sequenceName="SEQ_MSG_PUSH_OUTBOX_ID", allocationSize = 1)
+  @GeneratedValue(strategy=GenerationType.AUTO, generator="SEQ_MSG_PUSH_OUTBOX_ID")
+  @Column(name = "ID")
+  private long id;
+
+  @Column(name = "RECEIVER")
+  private String receiver;
+
+  @Column(name = "TOKEN")
+  private String token;
+
+  @Column(name = "DEVICE_TYPE")
+  private String deviceType;
+
+  @Column(name = "TITLE")
+  private String title;
+
+  @Lob
+  @Column(name = "BODY")
+  private String body;
+
+  @Column(name = "URL")
+  private String url;
+
+  @Column(name = "PLUGIN_ID")
+  private String pluginId;
+
+  @Column(name = "COLLAPSE_KEY")
+  private String collapseKey;
+
+  @Column(name = "ATTEMPTS")
+  private int attempts;
+
+  @Column(name = "CREATED_DATE")
+  private Date createdDate;
+
+  @Column(name = "NEXT_ATTEMPT_DATE")
+  private Date nextAttemptDate;
+
+  @Column(name = "LOCK_OWNER")
+  private String lockOwner;
+
+  @Column(name = "LOCK_DATE")
+  private Date lockDate;
+
+  public PushOutboxMessage() {
+  }
+
+  public PushOutboxMessage(Message message, Date createdDate) {
+    this.receiver = message.getReceiver();
+    this.token = message.getToken();
+    this.deviceType = message.getDeviceType();
+    this.title = message.getTitle();
+    this.body = message.getBody();
+    this.url = message.getUrl();
+    this.pluginId = message.getPluginId();
+    this.collapseKey = message.getCollapseKey();
+    this.attempts = message.getAttempts();
+    this.createdDate = createdDate;
+    this.nextAttemptDate = createdDate;
+  }
+
+  /**
+   * @return The message to send, linked to this outbox message by its id
+   */
+  public Message toMessage() {
+    Message message = new Message(receiver, token, deviceType, title, body, url);
+    message.setPluginId(pluginId);
+    message.setCollapseKey(collapseKey);
+    message.setAttempts(attempts);
+    message.setOutboxId(id);
+    return message;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public void setId(long id) {
+    this.id = id;
+  }
+
+  public String getReceiver() {
+    return receiver;
+  }
+
+  public void setReceiver(String receiver) {
+    this.receiver = receiver;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  public String getDeviceType() {
+    return deviceType;
+  }
+
+  public void setDeviceType(String deviceType) {
+    this.deviceType = deviceType;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+
+  public String getBody() {
+    return body;
+  }
+
+  public void setBody(String body) {
+    this.body = body;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public String getPluginId() {
+    return pluginId;
+  }
+
+  public void setPluginId(String pluginId) {
+    this.pluginId = pluginId;
+  }
+
+  public String getCollapseKey() {
+    return collapseKey;
+  }
+
+  public void setCollapseKey(String collapseKey) {
+    this.collapseKey = collapseKey;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public Date getCreatedDate() {
+    return createdDate;
+  }
+
+  public void setCreatedDate(Date createdDate) {
+    this.createdDate = createdDate;
+  }
+
+  public Date getNextAttemptDate() {
+    return nextAttemptDate;
+  }
+
+  public void setNextAttemptDate(Date nextAttemptDate) {
+    this.nextAttemptDate = nextAttemptDate;
+  }
+
+  public String getLockOwner() {
+    return lockOwner;
+  }
+
+  public void setLockOwner(String lockOwner) {
+    this.lockOwner = lockOwner;
+  }
+
+  public Date getLockDate() {
+    return lockDate;
+  }
+
+  public void setLockDate(Date lockDate) {
+    this.lockDate = lockDate;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.domain;
+
+/**
+ * Result of the sending of a message
+ */
+public class SendResult {
+  private final Message message;
+  private final Exception error;
+  private final long duration;
+
+  private SendResult(Message message, Exception error, long duration) {
+    this.message = message;
+    this.error = error;
+    this.duration = duration;
+  }
+
+  public static SendResult success(Message message, long duration) {
+    return new SendResult(message, null, duration);
+  }
+
+  public static SendResult failure(Message message, Exception error, long duration) {
+    return new SendResult(message, error, duration);
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  public Message getMessage() {
+    return message;
+  }
+
+  /**
+   * @return The error raised while sending the message, or null if the message has been sent
+   */
+  public Exception getError() {
+    return error;
+  }
+
+  /**
+   * @return The sending duration, in milliseconds
+   */
+  public long getDuration() {
+    return duration;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.exception;
+
+/**
+ * Error of a message sending which can be retried later, for example when the push service is throttling the
+ * requests or is temporarily unavailable
+ */
+public class RetryableSendException extends Exception {
+
+  // Delay (in milliseconds) requested by the push service before retrying, or -1 if not given
+  private final long retryAfter;
+
+  public RetryableSendException(String message) {
+    this(message, -1);
+  }
+
+  public RetryableSendException(String message, long retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * @return The delay (in milliseconds) requested by the push service before retrying, or -1 if not given
+   */
+  public long getRetryAfter() {
+    return retryAfter;
+  }
+}
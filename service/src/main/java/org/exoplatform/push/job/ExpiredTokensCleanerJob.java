@@ -20,10 +20,12 @@ import org.exoplatform.commons.utils.CommonsUtils;
 import org.exoplatform.push.service.DeviceService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 
+@DisallowConcurrentExecution
 public class ExpiredTokensCleanerJob implements Job {
 
   private static final Log LOG = ExoLogger.getLogger(ExpiredTokensCleanerJob.class);
@@ -0,0 +1,43 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.listener;
+
+import org.exoplatform.push.service.UserLocaleCache;
+import org.exoplatform.services.organization.UserProfile;
+import org.exoplatform.services.organization.UserProfileEventListener;
+
+/**
+ * Removes the cached locale of a user when its profile, which holds its language, is saved or deleted
+ */
+public class UserLocaleCacheInvalidationListener extends UserProfileEventListener {
+
+  private UserLocaleCache userLocaleCache;
+
+  public UserLocaleCacheInvalidationListener(UserLocaleCache userLocaleCache) {
+    this.userLocaleCache = userLocaleCache;
+  }
+
+  @Override
+  public void postSave(UserProfile profile, boolean isNew) throws Exception {
+    userLocaleCache.remove(profile.getUserName());
+  }
+
+  @Override
+  public void postDelete(UserProfile profile) throws Exception {
+    userLocaleCache.remove(profile.getUserName());
+  }
+}
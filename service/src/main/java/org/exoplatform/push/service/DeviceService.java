@@ -18,6 +18,7 @@ package org.exoplatform.push.service;
 
 import org.exoplatform.push.domain.Device;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface DeviceService {
@@ -26,12 +27,36 @@ public interface DeviceService {
 
   void deleteDevice(Device device);
 
+  /**
+   * Delete the devices of the given tokens, in one statement
+   *
+   * @param tokens The tokens of the devices to delete
+   * @return The number of deleted devices
+   */
+  int deleteDevicesByTokens(Collection<String> tokens);
+
   Device getDeviceById(Long deviceId);
 
   List<Device> getDevicesByUser(String username);
 
+  /**
+   * Get the devices of a user with only their token and type loaded, to send push notifications.
+   * The returned devices are not managed entities.
+   *
+   * @param username The username
+   * @return The devices of the user
+   */
+  List<Device> getDeviceTokensByUser(String username);
+
   Device getDeviceByToken(String token);
 
   void deleteDevicesWithExpiredToken();
 
+  /**
+   * Count the devices with an expired token, which would be deleted by {@link #deleteDevicesWithExpiredToken()}
+   *
+   * @return The number of devices with an expired token
+   */
+  long countDevicesWithExpiredToken();
+
 }
@@ -18,52 +18,113 @@ package org.exoplatform.push.service;
 
 import org.exoplatform.commons.api.persistence.ExoTransactional;
 import org.exoplatform.container.xml.InitParams;
-import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.push.dao.DeviceDao;
+import org.exoplatform.push.dao.DeviceDao.ExpirationReference;
 import org.exoplatform.push.domain.Device;
 import org.exoplatform.push.util.StringUtil;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.future.FutureExoCache;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import static org.exoplatform.push.util.InitParamsUtil.getBooleanParam;
+import static org.exoplatform.push.util.InitParamsUtil.getEnumParam;
+import static org.exoplatform.push.util.InitParamsUtil.getIntParam;
+import static org.exoplatform.push.util.InitParamsUtil.getLongParam;
+
 public class DeviceServiceImpl implements DeviceService {
 
   private static final Log LOG = ExoLogger.getLogger(DeviceServiceImpl.class);
 
+  public static final String USER_DEVICES_CACHE_NAME = "pushnotifications.UserDevicesCache";
+
+  public static final String TOKEN_DEVICE_CACHE_NAME = "pushnotifications.TokenDeviceCache";
+
   private DeviceDao deviceDao;
 
-  // Token expiration time - defaults to 60 days
-  private int tokenExpirationSeconds = 5184000;
-
-  public DeviceServiceImpl(InitParams initParams, DeviceDao deviceDao) {
-    if(initParams != null) {
-      ValueParam tokenExpirationTimeParam = initParams.getValueParam("tokenExpirationTime");
-      if(tokenExpirationTimeParam != null) {
-        try {
-          tokenExpirationSeconds = Integer.parseInt(tokenExpirationTimeParam.getValue());
-        } catch(NumberFormatException e) {
-          LOG.error("Push Notifications - Token expiration time is not a valid number ("
-                  + tokenExpirationTimeParam.getValue() + "), using default value " + tokenExpirationSeconds, e);
-        }
-      }
+  // Devices (token and type only) by username, users without device are cached with an empty list
+  private ExoCache<String, ArrayList<Device>> userDevicesCache;
+
+  // Device by token
+  private ExoCache<String, Device> tokenDeviceCache;
+
+  // Loaders of the caches, so concurrent readers of a same key share a single loading
+  private FutureExoCache<String, ArrayList<Device>, Object> futureUserDevicesCache;
+
+  private FutureExoCache<String, Device, Object> futureTokenDeviceCache;
+
+  // Default token expiration time - 60 days
+  private static final long DEFAULT_TOKEN_EXPIRATION_SECONDS = 5184000;
+
+  // Token expiration time
+  private Duration tokenExpiration;
+
+  // Date of the devices compared to the expiration date
+  private ExpirationReference tokenExpirationReference;
+
+  // Only count the devices with an expired token, without deleting them
+  private boolean cleanerDryRun;
+
+  // Maximum number of expired devices deleted in a single transaction
+  private int cleanerChunkSize;
+
+  // Pause between two chunks of expired devices deletion, in milliseconds
+  private long cleanerChunkPause;
+
+  // Maximum number of chunks deleted by a single run, the next run goes on from the last deleted device
+  private int cleanerMaxChunks;
+
+  // Id of the last device checked by an expired devices deletion which has not been completed.
+  // It is only kept in memory, so it is lost on restart and not shared with the other nodes of a cluster.
+  private volatile long cleanerLastId = 0;
+
+  public DeviceServiceImpl(InitParams initParams, DeviceDao deviceDao, CacheService cacheService) {
+    long tokenExpirationSeconds = getLongParam(initParams, "tokenExpirationTime", DEFAULT_TOKEN_EXPIRATION_SECONDS);
+    if(tokenExpirationSeconds <= 0) {
+      LOG.error("Push Notifications - Token expiration time must be positive (" + tokenExpirationSeconds
+              + "), using default value " + DEFAULT_TOKEN_EXPIRATION_SECONDS);
+      tokenExpirationSeconds = DEFAULT_TOKEN_EXPIRATION_SECONDS;
     }
+    tokenExpiration = Duration.ofSeconds(tokenExpirationSeconds);
+    tokenExpirationReference = getEnumParam(initParams, "tokenExpirationReference", ExpirationReference.class, ExpirationReference.LAST_SEEN);
+    cleanerDryRun = getBooleanParam(initParams, "cleanerDryRun", false);
+
+    cleanerChunkSize = Math.max(1, getIntParam(initParams, "cleanerChunkSize", 1000));
+    cleanerChunkPause = Math.max(0, getLongParam(initParams, "cleanerChunkPause", 500));
+    cleanerMaxChunks = Math.max(1, getIntParam(initParams, "cleanerMaxChunks", 100));
 
     this.deviceDao = deviceDao;
+    this.userDevicesCache = cacheService.getCacheInstance(USER_DEVICES_CACHE_NAME);
+    this.tokenDeviceCache = cacheService.getCacheInstance(TOKEN_DEVICE_CACHE_NAME);
+    this.futureUserDevicesCache = new FutureExoCache<>((context, username) -> new ArrayList<>(deviceDao.findTokensByUsername(username)),
+                                                       userDevicesCache);
+    this.futureTokenDeviceCache = new FutureExoCache<>((context, token) -> deviceDao.findByToken(token), tokenDeviceCache);
   }
 
   @ExoTransactional
   public void saveDevice(Device device) {
+    Date now = new Date();
     if(device.getRegistrationDate() == null) {
-      device.setRegistrationDate(new Date());
+      device.setRegistrationDate(now);
     }
-    Device existingDevice = getDeviceByToken(device.getToken());
+    device.setLastSeen(now);
+    Device existingDevice = deviceDao.findByToken(device.getToken());
     if(existingDevice != null) {
       if(device.getUsername().equals(existingDevice.getUsername())) {
         existingDevice.setType(device.getType());
         existingDevice.setRegistrationDate(device.getRegistrationDate());
+        existingDevice.setLastSeen(now);
         deviceDao.update(existingDevice);
         LOG.info("Device updated : username={}, token={}, type={}", device.getUsername(), StringUtil.mask(device.getToken(), 4), device.getType());
       } else {
@@ -73,12 +134,53 @@ public class DeviceServiceImpl implements DeviceService {
       deviceDao.create(device);
       LOG.info("New device registered : username={}, token={}, type={}", device.getUsername(), StringUtil.mask(device.getToken(), 4), device.getType());
     }
+    clearCache(device);
   }
 
   @ExoTransactional
   public void deleteDevice(Device device) {
-    deviceDao.delete(device);
-    LOG.info("Device unregistered : username={}, token={}, type={}", device.getUsername(), StringUtil.mask(device.getToken(), 4), device.getType());
+    if(device == null) {
+      return;
+    }
+    // the device may come from the cache, so it is loaded again to be deleted
+    Device managedDevice = device.getId() > 0 ? deviceDao.find(device.getId()) : deviceDao.findByToken(device.getToken());
+    if(managedDevice != null) {
+      deviceDao.delete(managedDevice);
+      LOG.info("Device unregistered : username={}, token={}, type={}", device.getUsername(), StringUtil.mask(device.getToken(), 4), device.getType());
+    }
+    clearCache(device);
+  }
+
+  @ExoTransactional
+  public int deleteDevicesByTokens(Collection<String> tokens) {
+    if(tokens == null || tokens.isEmpty()) {
+      return 0;
+    }
+    int nbDeleted = deviceDao.deleteByTokens(tokens);
+    LOG.info("{} devices unregistered", nbDeleted);
+
+    tokens.forEach(tokenDeviceCache::remove);
+    // the users of the tokens are not known, so the cached devices lists containing the tokens are searched
+    try {
+      userDevicesCache.select(new CachedObjectSelector<String, ArrayList<Device>>() {
+        @Override
+        public boolean select(String username, ObjectCacheInfo<? extends ArrayList<Device>> cacheInfo) {
+          ArrayList<Device> devices = cacheInfo.get();
+          return devices != null && devices.stream().anyMatch(device -> tokens.contains(device.getToken()));
+        }
+
+        @Override
+        public void onSelect(ExoCache<? extends String, ? extends ArrayList<Device>> cache,
+                             String username,
+                             ObjectCacheInfo<? extends ArrayList<Device>> cacheInfo) {
+          cache.remove(username);
+        }
+      });
+    } catch (Exception e) {
+      LOG.warn("Error while removing deleted devices from cache, clearing the cache", e);
+      userDevicesCache.clearCache();
+    }
+    return nbDeleted;
   }
 
   public Device getDeviceById(Long deviceId) {
@@ -90,21 +192,87 @@ public class DeviceServiceImpl implements DeviceService {
     return deviceDao.findByUsername(username);
   }
 
-  @ExoTransactional
+  public List<Device> getDeviceTokensByUser(String username) {
+    return Collections.unmodifiableList(futureUserDevicesCache.get(null, username));
+  }
+
   public Device getDeviceByToken(String token) {
-    return deviceDao.findByToken(token);
+    return futureTokenDeviceCache.get(null, token);
   }
 
-  @ExoTransactional
+  /**
+   * Delete the devices with an expired token, by chunks of ids so each transaction stays short.
+   * A run deletes at most cleanerMaxChunks chunks, the next run on the same node resumes from the last checked device,
+   * a run on another node or after a restart starts over from the first device.
+   */
   public void deleteDevicesWithExpiredToken() {
-    long expirationTimeMillis = tokenExpirationSeconds * 1000;
+    Date expirationDate = getTokenExpirationDate();
+    if (cleanerDryRun) {
+      long nbExpired = deviceDao.countExpiredDevices(tokenExpirationReference, expirationDate);
+      LOG.info("Dry run - {} devices with a token expired since {} ({}) would be deleted", nbExpired, expirationDate,
+               tokenExpirationReference);
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    int nbDeleted = 0;
+    int nbChunks = 0;
+    boolean completed = false;
+    try {
+      while (nbChunks < cleanerMaxChunks) {
+        if (nbChunks > 0 && cleanerChunkPause > 0) {
+          Thread.sleep(cleanerChunkPause);
+        }
+        List<Long> ids = deviceDao.findIdsOfExpiredDevices(tokenExpirationReference, expirationDate, cleanerLastId, cleanerChunkSize);
+        if (ids.isEmpty()) {
+          completed = true;
+          break;
+        }
+        long chunkStartTime = System.currentTimeMillis();
+        long fromId = ids.get(0);
+        long toId = ids.get(ids.size() - 1);
+        int nbChunkDeleted = deviceDao.deleteExpiredDevices(tokenExpirationReference, expirationDate, fromId, toId);
+        nbDeleted += nbChunkDeleted;
+        nbChunks++;
+        cleanerLastId = toId;
+        LOG.debug("Expired devices chunk [{}-{}] : {} devices deleted in {} ms", fromId, toId, nbChunkDeleted,
+                  System.currentTimeMillis() - chunkStartTime);
+        if (ids.size() < cleanerChunkSize) {
+          completed = true;
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Expired devices deletion interrupted, it will be resumed by the next run");
+    } finally {
+      if (completed) {
+        cleanerLastId = 0;
+      }
+      if (nbDeleted > 0) {
+        userDevicesCache.clearCache();
+        tokenDeviceCache.clearCache();
+      }
+    }
 
-    Instant instant = Instant.now();
-    long currentTimeStamp = instant.toEpochMilli();
-    Instant expirationInstant = Instant.ofEpochMilli(currentTimeStamp - expirationTimeMillis);
+    if (nbDeleted > 0 || !completed) {
+      LOG.info("{} expired devices deleted in {} chunks in {} ms{}", nbDeleted, nbChunks, System.currentTimeMillis() - startTime,
+               completed ? "" : ", the next run will resume from device " + cleanerLastId);
+    } else {
+      LOG.debug("No expired device deleted");
+    }
+  }
 
-    int nbDeleted = deviceDao.deleteDevicesWithTokenOlderThan(Date.from(expirationInstant));
+  public long countDevicesWithExpiredToken() {
+    return deviceDao.countExpiredDevices(tokenExpirationReference, getTokenExpirationDate());
+  }
+
+  private Date getTokenExpirationDate() {
+    return Date.from(Instant.now().minus(tokenExpiration));
+  }
 
-    LOG.debug("{} devices deleted", nbDeleted);
+  private void clearCache(Device device) {
+    userDevicesCache.remove(device.getUsername());
+    tokenDeviceCache.remove(device.getToken());
   }
 }
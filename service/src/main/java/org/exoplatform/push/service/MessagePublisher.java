@@ -17,9 +17,36 @@
 package org.exoplatform.push.service;
 
 import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.domain.SendResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 public interface MessagePublisher {
 
   void send(Message message) throws Exception;
 
+  /**
+   * Send several messages at once.
+   * The default implementation sends the messages one by one, publishers able to send messages in bulk
+   * should override it.
+   *
+   * @param messages The messages to send
+   * @return The result of each message, in the same order as the messages
+   */
+  default List<SendResult> sendAll(Collection<Message> messages) {
+    List<SendResult> results = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      long startTime = System.currentTimeMillis();
+      try {
+        send(message);
+        results.add(SendResult.success(message, System.currentTimeMillis() - startTime));
+      } catch (Exception e) {
+        results.add(SendResult.failure(message, e, System.currentTimeMillis() - startTime));
+      }
+    }
+    return results;
+  }
+
 }
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.commons.api.notification.service.WebNotificationService;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.future.FutureExoCache;
+
+import java.io.Serializable;
+
+import static org.exoplatform.push.util.InitParamsUtil.getLongParam;
+
+/**
+ * Number of unread notifications of the users, displayed on the badge of the iOS application.
+ * The number is read from the web notifications, then incremented for each push notification sent to the user, so
+ * sending a push notification does not count the notifications of the user. The number is read again from the web
+ * notifications once the reconciliation period since its last reading is elapsed, whatever the number of increments:
+ * this is the only way the notifications read by the user are taken into account, since no event is sent when the
+ * web notifications are read.
+ * The numbers are kept by each node, the increments of a push notification do not invalidate the number on the other
+ * nodes, which count their own push notifications until their reconciliation.
+ */
+public class PushBadgeCounter {
+
+  public static final String BADGE_COUNTER_CACHE_NAME = "pushnotifications.BadgeCounterCache";
+
+  private final WebNotificationService webNotificationService;
+
+  private final ExoCache<String, BadgeCount> badgeCounters;
+
+  private final FutureExoCache<String, BadgeCount, Object> futureBadgeCounters;
+
+  // Time (in milliseconds) after which the number is read again from the web notifications
+  private final long reconciliationPeriod;
+
+  public PushBadgeCounter(InitParams initParams, WebNotificationService webNotificationService, CacheService cacheService) {
+    this.webNotificationService = webNotificationService;
+    this.badgeCounters = cacheService.getCacheInstance(BADGE_COUNTER_CACHE_NAME);
+    this.futureBadgeCounters = new FutureExoCache<>((context, username) -> loadBadgeCount(username), badgeCounters);
+    this.reconciliationPeriod = getLongParam(initParams, "reconciliationPeriod", 60000);
+  }
+
+  /**
+   * @param username The user name
+   * @return The number of unread notifications of the user
+   */
+  public int getNumberOnBadge(String username) {
+    BadgeCount badgeCount = badgeCounters.get(username);
+    if (badgeCount != null && System.currentTimeMillis() - badgeCount.loadedAt >= reconciliationPeriod) {
+      badgeCounters.remove(username);
+    }
+    return futureBadgeCounters.get(null, username).count;
+  }
+
+  private BadgeCount loadBadgeCount(String username) {
+    return new BadgeCount(webNotificationService.getNumberOnBadge(username), System.currentTimeMillis());
+  }
+
+  /**
+   * Increment the number of unread notifications of a user, if it is known.
+   * Concurrent increments for a same user may be lost, they are caught up by the reconciliation.
+   * @param username The user name
+   */
+  public void increment(String username) {
+    BadgeCount badgeCount = badgeCounters.get(username);
+    if (badgeCount != null) {
+      // the reading time is kept, so the increments do not delay the reconciliation
+      badgeCounters.put(username, new BadgeCount(badgeCount.count + 1, badgeCount.loadedAt));
+    }
+  }
+
+  static final class BadgeCount implements Serializable {
+
+    private static final long serialVersionUID = -2381746105127306412L;
+
+    private final int count;
+
+    // Time when the number has been read from the web notifications
+    private final long loadedAt;
+
+    BadgeCount(int count, long loadedAt) {
+      this.count = count;
+      this.loadedAt = loadedAt;
+    }
+  }
+}
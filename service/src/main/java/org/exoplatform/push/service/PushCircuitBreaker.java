@@ -0,0 +1,242 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker protecting the senders when the push service is down or slow.
+ * The outcomes of the last calls are kept in a sliding window. When the ratio of failed calls or of slow calls in the
+ * window reaches its threshold, the circuit opens and the calls are short-circuited for the open duration. Then a few
+ * trial calls are let through (half-open state): the circuit closes if they all succeed, or opens again otherwise.
+ */
+public class PushCircuitBreaker {
+
+  private static final Log LOG = ExoLogger.getLogger(PushCircuitBreaker.class);
+
+  public enum State {
+    /** The calls go through, their outcome is recorded */
+    CLOSED,
+    /** The calls are short-circuited */
+    OPEN,
+    /** A limited number of trial calls go through to check if the push service is back */
+    HALF_OPEN
+  }
+
+  private static final byte FAILED = 1;
+
+  private static final byte SLOW = 2;
+
+  private final String name;
+
+  private final boolean enabled;
+
+  // Minimum percentage of failed calls in the window to open the circuit
+  private final int failureRateThreshold;
+
+  // Duration (in milliseconds) above which a call is considered slow
+  private final long slowCallThreshold;
+
+  // Minimum percentage of slow calls in the window to open the circuit
+  private final int slowCallRateThreshold;
+
+  // Minimum number of calls in the window before computing the rates
+  private final int minimumCalls;
+
+  // Duration (in milliseconds) of the open state
+  private final long openDuration;
+
+  // Number of trial calls in the half-open state
+  private final int halfOpenCalls;
+
+  // Outcomes of the last calls, as a ring buffer
+  private final byte[] window;
+
+  private int windowIndex;
+
+  private int windowCount;
+
+  private int failedCount;
+
+  private int slowCount;
+
+  private int halfOpenPermits;
+
+  private int halfOpenSuccesses;
+
+  private volatile State state = State.CLOSED;
+
+  private volatile long openUntil;
+
+  private final LongAdder openedCount = new LongAdder();
+
+  private final LongAdder shortCircuitedCount = new LongAdder();
+
+  /**
+   * @param name Name of the protected service, used in the logs
+   * @param enabled false to let all the calls through
+   * @param windowSize Number of calls in the sliding window
+   * @param minimumCalls Minimum number of calls in the window before computing the rates
+   * @param failureRateThreshold Minimum percentage of failed calls in the window to open the circuit
+   * @param slowCallThreshold Duration (in milliseconds) above which a call is considered slow
+   * @param slowCallRateThreshold Minimum percentage of slow calls in the window to open the circuit
+   * @param openDuration Duration (in milliseconds) of the open state
+   * @param halfOpenCalls Number of trial calls in the half-open state
+   */
+  public PushCircuitBreaker(String name, boolean enabled, int windowSize, int minimumCalls, int failureRateThreshold,
+                            long slowCallThreshold, int slowCallRateThreshold, long openDuration, int halfOpenCalls) {
+    this.name = name;
+    this.enabled = enabled;
+    this.window = new byte[Math.max(1, windowSize)];
+    this.minimumCalls = Math.min(Math.max(1, minimumCalls), window.length);
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallThreshold = slowCallThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openDuration = Math.max(0, openDuration);
+    this.halfOpenCalls = Math.max(1, halfOpenCalls);
+  }
+
+  /**
+   * @return true if the circuit is open and the calls are short-circuited, without changing the state
+   */
+  public boolean isOpen() {
+    return state == State.OPEN && System.currentTimeMillis() < openUntil;
+  }
+
+  /**
+   * Ask the permission to call the push service. When granted, the outcome of the call must be given to
+   * {@link #onResult(boolean, long)}.
+   *
+   * @return true if the call can be done, false if it is short-circuited
+   */
+  public boolean tryAcquirePermission() {
+    if (!enabled || state == State.CLOSED) {
+      return true;
+    }
+    synchronized (this) {
+      if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+        transitionTo(State.HALF_OPEN);
+      }
+      if (state == State.CLOSED || (state == State.HALF_OPEN && halfOpenPermits < halfOpenCalls)) {
+        if (state == State.HALF_OPEN) {
+          halfOpenPermits++;
+        }
+        return true;
+      }
+    }
+    shortCircuitedCount.increment();
+    return false;
+  }
+
+  /**
+   * Record the outcome of a call
+   *
+   * @param failed true if the call failed because of the push service
+   * @param durationMs The duration of the call, in milliseconds
+   */
+  public void onResult(boolean failed, long durationMs) {
+    if (!enabled) {
+      return;
+    }
+    boolean slow = slowCallThreshold > 0 && durationMs > slowCallThreshold;
+    synchronized (this) {
+      switch (state) {
+        case HALF_OPEN:
+          if (failed || slow) {
+            transitionTo(State.OPEN);
+          } else if (++halfOpenSuccesses >= halfOpenCalls) {
+            transitionTo(State.CLOSED);
+          }
+          break;
+        case CLOSED:
+          record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+          if (windowCount >= minimumCalls
+              && (failedCount * 100 >= failureRateThreshold * windowCount
+                  || (slowCallThreshold > 0 && slowCount * 100 >= slowCallRateThreshold * windowCount))) {
+            transitionTo(State.OPEN);
+          }
+          break;
+        default:
+          // outcome of a call started before the circuit opened
+          break;
+      }
+    }
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * @return The time (in milliseconds) before the next trial calls, 0 if the circuit is not open
+   */
+  public long getRemainingOpenTime() {
+    return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+  }
+
+  public long getOpenedCount() {
+    return openedCount.sum();
+  }
+
+  public long getShortCircuitedCount() {
+    return shortCircuitedCount.sum();
+  }
+
+  private void record(byte outcome) {
+    if (windowCount == window.length) {
+      byte oldest = window[windowIndex];
+      failedCount -= oldest & FAILED;
+      slowCount -= (oldest & SLOW) >> 1;
+    } else {
+      windowCount++;
+    }
+    window[windowIndex] = outcome;
+    failedCount += outcome & FAILED;
+    slowCount += (outcome & SLOW) >> 1;
+    windowIndex = (windowIndex + 1) % window.length;
+  }
+
+  private void transitionTo(State newState) {
+    State oldState = state;
+    switch (newState) {
+      case OPEN:
+        openUntil = System.currentTimeMillis() + openDuration;
+        openedCount.increment();
+        LOG.warn("Push Notifications - Circuit breaker of {} opened ({} state, {}/{} failed calls, {}/{} slow calls), "
+            + "calls are short-circuited for {} ms", name, oldState, failedCount, windowCount, slowCount, windowCount, openDuration);
+        break;
+      case HALF_OPEN:
+        halfOpenPermits = 0;
+        halfOpenSuccesses = 0;
+        LOG.info("Push Notifications - Circuit breaker of {} half-open, trying {} calls", name, halfOpenCalls);
+        break;
+      case CLOSED:
+      default:
+        LOG.info("Push Notifications - Circuit breaker of {} closed", name);
+        break;
+    }
+    // the rates are computed again from scratch after each transition
+    windowIndex = 0;
+    windowCount = 0;
+    failedCount = 0;
+    slowCount = 0;
+    state = newState;
+  }
+}
@@ -0,0 +1,561 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.push.channel.PushChannel;
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.domain.SendResult;
+import org.exoplatform.push.exception.InvalidTokenException;
+import org.exoplatform.push.exception.RetryableSendException;
+import org.exoplatform.push.util.StringUtil;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.picocontainer.Startable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.exoplatform.push.util.InitParamsUtil.getBooleanParam;
+import static org.exoplatform.push.util.InitParamsUtil.getEnumParam;
+import static org.exoplatform.push.util.InitParamsUtil.getIntParam;
+import static org.exoplatform.push.util.InitParamsUtil.getLongParam;
+
+/**
+ * Bounded in-memory queue of push messages, delivered by a pool of workers.
+ * It decouples the delivery of the push notifications from the notification service threads,
+ * so a slow push service does not stall the other notification channels.
+ * When the queue is disabled, the messages are delivered synchronously by the caller thread.
+ */
+@Managed
+@ManagedDescription("Push notifications dispatch queue")
+@NameTemplate({ @Property(key = "service", value = "push-notifications"), @Property(key = "view", value = "dispatch-queue") })
+public class PushDispatchQueue implements Startable {
+
+  private static final Log LOG = ExoLogger.getLogger(PushDispatchQueue.class);
+
+  private static final String THREAD_NAME_PREFIX = "PushNotifications-Dispatch-";
+
+  // Time (in milliseconds) given to the workers to deliver the messages being sent when stopping
+  private static final long STOP_TIMEOUT = 5000;
+
+  /**
+   * Behavior when the queue is full
+   */
+  public enum OverflowPolicy {
+    /**
+     * Wait for a free slot in the queue, up to the configured block timeout shared by all the messages of a dispatch,
+     * then drop the message
+     */
+    BLOCK,
+    /** Drop the oldest message of the queue to make room for the new one */
+    DROP_OLDEST,
+    /** Store the message in database, to be delivered later */
+    SPILL_TO_DB
+  }
+
+  private final MessagePublisher messagePublisher;
+
+  private final DeviceService deviceService;
+
+  private final PushMetrics metrics;
+
+  private boolean enabled = true;
+
+  private int queueCapacity = 10000;
+
+  private int workers = 4;
+
+  private boolean virtualThreadsEnabled = true;
+
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+  // Maximum time (in milliseconds) to wait for free slots with the BLOCK policy, for all the messages of a dispatch
+  private long blockTimeout = 5000;
+
+  // Maximum number of messages taken from the queue at once by a worker
+  private int batchSize = 100;
+
+  private boolean retryEnabled = true;
+
+  private PushRetryScheduler retryScheduler;
+
+  private BlockingQueue<QueuedMessage> queue;
+
+  private ExecutorService workersExecutor;
+
+  private volatile boolean running;
+
+  private volatile PushMessageStore spillStore;
+
+  private ExoContainer container;
+
+  private final LongAdder enqueuedCount = new LongAdder();
+
+  private final LongAdder deliveredCount = new LongAdder();
+
+  private final LongAdder droppedCount = new LongAdder();
+
+  private final LongAdder spilledCount = new LongAdder();
+
+  private final LongAdder totalWaitTime = new LongAdder();
+
+  private final AtomicLong maxWaitTime = new AtomicLong();
+
+  public PushDispatchQueue(InitParams initParams, MessagePublisher messagePublisher, DeviceService deviceService) {
+    this(initParams, messagePublisher, deviceService, new PushMetrics());
+  }
+
+  public PushDispatchQueue(InitParams initParams, MessagePublisher messagePublisher, DeviceService deviceService, PushMetrics metrics) {
+    this.messagePublisher = messagePublisher;
+    this.deviceService = deviceService;
+    this.metrics = metrics;
+    this.enabled = getBooleanParam(initParams, "enabled", enabled);
+    this.queueCapacity = Math.max(1, getIntParam(initParams, "queueCapacity", queueCapacity));
+    this.workers = Math.max(1, getIntParam(initParams, "workers", workers));
+    this.virtualThreadsEnabled = getBooleanParam(initParams, "virtualThreadsEnabled", virtualThreadsEnabled);
+    this.overflowPolicy = getEnumParam(initParams, "overflowPolicy", OverflowPolicy.class, overflowPolicy);
+    this.blockTimeout = getLongParam(initParams, "blockTimeout", blockTimeout);
+    this.batchSize = Math.max(1, getIntParam(initParams, "batchSize", batchSize));
+    this.retryEnabled = getBooleanParam(initParams, "retryEnabled", retryEnabled);
+    this.retryScheduler = new PushRetryScheduler(Math.max(1, getIntParam(initParams, "retryMaxAttempts", 5)),
+                                                 getLongParam(initParams, "retryInitialDelay", 1000),
+                                                 getLongParam(initParams, "retryMaxDelay", 60000),
+                                                 Math.max(0, getIntParam(initParams, "retryQueueCapacity", 10000)),
+                                                 this::retry);
+    this.queue = new LinkedBlockingQueue<>(queueCapacity);
+    this.metrics.setQueueDepthGauge(queue::size);
+  }
+
+  @Override
+  public void start() {
+    container = ExoContainerContext.getCurrentContainerIfPresent();
+    if (retryEnabled) {
+      retryScheduler.start();
+    }
+    if (!enabled) {
+      LOG.info("Push Notifications - Dispatch queue disabled, push notifications are sent synchronously");
+      return;
+    }
+    running = true;
+    ThreadFactory threadFactory = createThreadFactory();
+    workersExecutor = Executors.newFixedThreadPool(workers, threadFactory);
+    for (int i = 0; i < workers; i++) {
+      workersExecutor.execute(this::processQueue);
+    }
+    LOG.info("Push Notifications - Dispatch queue started with {} workers, capacity {} and overflow policy {}",
+            workers, queueCapacity, overflowPolicy);
+  }
+
+  @Override
+  public void stop() {
+    List<Message> pendingRetries = retryScheduler.stop();
+    if (!pendingRetries.isEmpty()) {
+      stopped(pendingRetries);
+    }
+    if (!running) {
+      return;
+    }
+    running = false;
+    workersExecutor.shutdown();
+    try {
+      if (!workersExecutor.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        workersExecutor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      workersExecutor.shutdownNow();
+    }
+    List<QueuedMessage> remainingMessages = new ArrayList<>();
+    queue.drainTo(remainingMessages);
+    if (!remainingMessages.isEmpty()) {
+      stopped(toMessages(remainingMessages));
+    }
+  }
+
+  /**
+   * Queue messages to be sent by the dispatch workers.
+   * When the queue is disabled or not started, the messages are sent synchronously.
+   * @param messages The messages to send
+   */
+  public void dispatch(List<Message> messages) {
+    if (messages == null || messages.isEmpty()) {
+      return;
+    }
+    if (!running) {
+      long startTime = System.currentTimeMillis();
+      deliver(messages);
+      long duration = System.currentTimeMillis() - startTime;
+      messages.forEach(message -> metrics.recordDispatch(message.getPluginId(), duration));
+      return;
+    }
+    // a single deadline for the whole dispatch, so the caller does not wait the block timeout for each message
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+    List<Message> overflowMessages = null;
+    for (Message message : messages) {
+      if (!enqueue(new QueuedMessage(message), deadline)) {
+        if (overflowMessages == null) {
+          overflowMessages = new ArrayList<>();
+        }
+        overflowMessages.add(message);
+      }
+    }
+    if (overflowMessages != null) {
+      spill(overflowMessages);
+    }
+  }
+
+  /**
+   * Send messages synchronously. Devices with an invalid token are removed, and the messages which failed
+   * because of a transient error are sent again later, except the messages of the outbox which are retried from it.
+   * @param messages The messages to send
+   * @return The result of each message
+   */
+  public List<SendResult> deliver(List<Message> messages) {
+    if (LOG.isDebugEnabled()) {
+      messages.forEach(message -> LOG.debug("Sending push notification to user {} (token={})", message.getReceiver(),
+              StringUtil.mask(message.getToken(), 4)));
+    }
+    List<SendResult> results = messagePublisher.sendAll(messages);
+    Set<String> invalidTokens = null;
+    for (SendResult result : results) {
+      Message message = result.getMessage();
+      boolean invalidToken = result.getError() instanceof InvalidTokenException;
+      metrics.recordSendResult(result.isSuccess(), invalidToken);
+      if (result.isSuccess()) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("service={} operation={} parameters=\"user:{},token:{},type:{},pluginId:{}\" status=ok duration_ms={}",
+                  PushChannel.LOG_SERVICE_NAME, PushChannel.LOG_OPERATION_NAME, message.getReceiver(),
+                  StringUtil.mask(message.getToken(), 4), message.getDeviceType(), message.getPluginId(), result.getDuration());
+        }
+      } else {
+        Exception e = result.getError();
+        String maskedToken = StringUtil.mask(message.getToken(), 4);
+        LOG.info("service={} operation={} parameters=\"user:{},token:{},type:{},pluginId:{}\" status=ko duration_ms={} error_msg=\"{}\"",
+                PushChannel.LOG_SERVICE_NAME, PushChannel.LOG_OPERATION_NAME, message.getReceiver(), maskedToken,
+                message.getDeviceType(), message.getPluginId(), result.getDuration(), e.getMessage());
+
+        // the messages of the outbox are retried from the outbox
+        if (e instanceof RetryableSendException
+            && (message.getOutboxId() != null || retryScheduler.schedule(message, ((RetryableSendException) e).getRetryAfter()))) {
+          continue;
+        }
+        LOG.error("Cannot send push notification to user " + message.getReceiver(), e);
+        if(invalidToken) {
+          LOG.debug("Removing device of user {} (token={}) since the token is invalid", message.getReceiver(), maskedToken);
+          if (invalidTokens == null) {
+            invalidTokens = new HashSet<>();
+          }
+          invalidTokens.add(message.getToken());
+        }
+      }
+    }
+    // devices with an invalid token are deleted at once at the end of the batch
+    if (invalidTokens != null) {
+      try {
+        deviceService.deleteDevicesByTokens(invalidTokens);
+      } catch (Exception e) {
+        LOG.error("Cannot remove " + invalidTokens.size() + " devices with an invalid token", e);
+      }
+    }
+    return results;
+  }
+
+  public PushMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the store used by the SPILL_TO_DB policy
+   * @param spillStore The store of the messages which do not fit in the queue
+   */
+  public void setSpillStore(PushMessageStore spillStore) {
+    this.spillStore = spillStore;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  @Managed
+  @ManagedDescription("Is the dispatch queue running")
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages waiting in the queue")
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  @Managed
+  @ManagedDescription("Capacity of the queue")
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages added to the queue")
+  public long getEnqueuedCount() {
+    return enqueuedCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages taken from the queue by the workers")
+  public long getDeliveredCount() {
+    return deliveredCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages dropped because the queue is full")
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages stored in database because the queue is full")
+  public long getSpilledCount() {
+    return spilledCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Average time (in milliseconds) spent by the messages in the queue")
+  public double getAverageWaitTime() {
+    long delivered = deliveredCount.sum();
+    return delivered == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitTime.sum()) / 1000d / delivered;
+  }
+
+  @Managed
+  @ManagedDescription("Maximum time (in milliseconds) spent by a message in the queue")
+  public long getMaxWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages waiting for a new sending attempt")
+  public int getRetryPendingCount() {
+    return retryScheduler.getPendingCount();
+  }
+
+  @Managed
+  @ManagedDescription("Number of new sending attempts scheduled after a transient error")
+  public long getRetryScheduledCount() {
+    return retryScheduler.getScheduledCount();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages not sent after the maximum number of attempts")
+  public long getRetryExhaustedCount() {
+    return retryScheduler.getExhaustedCount();
+  }
+
+  @Managed
+  @ManagedDescription("Reset the maximum wait time")
+  public void resetMaxWaitTime() {
+    maxWaitTime.set(0);
+  }
+
+  /**
+   * @param deadline Time (System.nanoTime()) until which a free slot is waited for with the BLOCK policy
+   * @return false if the message has to be spilled to the store, true otherwise (queued or dropped)
+   */
+  private boolean enqueue(QueuedMessage queuedMessage, long deadline) {
+    boolean added = queue.offer(queuedMessage);
+    if (!added) {
+      switch (overflowPolicy) {
+        case DROP_OLDEST:
+          while (!added) {
+            if (queue.poll() != null) {
+              droppedCount.increment();
+              LOG.warn("Push Notifications - Dispatch queue full, oldest push notification dropped");
+            }
+            added = queue.offer(queuedMessage);
+          }
+          break;
+        case SPILL_TO_DB:
+          if (spillStore != null) {
+            return false;
+          }
+          // no store available, fallback to the BLOCK policy
+        case BLOCK:
+        default:
+          try {
+            added = queue.offer(queuedMessage, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+      }
+    }
+    if (added) {
+      enqueuedCount.increment();
+    } else {
+      droppedCount.increment();
+      LOG.warn("Push Notifications - Dispatch queue full, push notification to user {} dropped",
+              queuedMessage.message.getReceiver());
+    }
+    return true;
+  }
+
+  /**
+   * Send again a message which could not be sent because of a transient error
+   * @param message The message
+   */
+  private void retry(Message message) {
+    if (running) {
+      if (!enqueue(new QueuedMessage(message), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout))) {
+        spill(Collections.singletonList(message));
+      }
+    } else {
+      deliverInContainer(Collections.singletonList(message));
+    }
+  }
+
+  /**
+   * Handle the messages not sent when the queue is stopped
+   * @param messages The messages
+   */
+  private void stopped(List<Message> messages) {
+    if (spillStore != null) {
+      spill(messages);
+    } else {
+      droppedCount.add(messages.size());
+      LOG.warn("Push Notifications - {} push notifications not sent since the dispatch queue is stopped", messages.size());
+    }
+  }
+
+  private void spill(List<Message> messages) {
+    try {
+      spillStore.store(messages);
+      spilledCount.add(messages.size());
+    } catch (Exception e) {
+      droppedCount.add(messages.size());
+      LOG.error("Push Notifications - Cannot store " + messages.size() + " push notifications, they are dropped", e);
+    }
+  }
+
+  private void processQueue() {
+    List<QueuedMessage> batch = new ArrayList<>(batchSize);
+    while (running) {
+      try {
+        QueuedMessage first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        long now = System.nanoTime();
+        for (QueuedMessage queuedMessage : batch) {
+          long waitTime = now - queuedMessage.enqueueTime;
+          totalWaitTime.add(waitTime);
+          maxWaitTime.accumulateAndGet(waitTime, Math::max);
+        }
+        deliveredCount.add(batch.size());
+        deliverInContainer(toMessages(batch));
+        long end = System.nanoTime();
+        for (QueuedMessage queuedMessage : batch) {
+          metrics.recordDispatch(queuedMessage.message.getPluginId(), TimeUnit.NANOSECONDS.toMillis(end - queuedMessage.enqueueTime));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        LOG.error("Push Notifications - Error while sending queued push notifications", e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void deliverInContainer(List<Message> messages) {
+    if (container == null) {
+      deliver(messages);
+      return;
+    }
+    ExoContainerContext.setCurrentContainer(container);
+    RequestLifeCycle.begin(container);
+    try {
+      deliver(messages);
+    } finally {
+      RequestLifeCycle.end();
+    }
+  }
+
+  private ThreadFactory createThreadFactory() {
+    if (virtualThreadsEnabled) {
+      try {
+        // Thread.ofVirtual() is available starting from Java 21, it is invoked by reflection to keep the
+        // compatibility with older JVMs
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 1L);
+        ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        LOG.info("Push Notifications - Using virtual threads for the dispatch queue workers");
+        return threadFactory;
+      } catch (Exception e) {
+        LOG.debug("Virtual threads not supported by the JVM, using platform threads", e);
+      }
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static List<Message> toMessages(List<QueuedMessage> queuedMessages) {
+    if (queuedMessages.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Message> messages = new ArrayList<>(queuedMessages.size());
+    for (QueuedMessage queuedMessage : queuedMessages) {
+      messages.add(queuedMessage.message);
+    }
+    return messages;
+  }
+
+  private static class QueuedMessage {
+    private final Message message;
+
+    private final long enqueueTime;
+
+    QueuedMessage(Message message) {
+      this.message = message;
+      this.enqueueTime = System.nanoTime();
+    }
+  }
+}
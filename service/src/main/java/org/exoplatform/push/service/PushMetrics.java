@@ -0,0 +1,377 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of the push notifications sending, exposed through the management layer (JMX).
+ * Latencies are recorded in milliseconds in histograms with fixed buckets, so recording a value is lock-free.
+ */
+@Managed
+@ManagedDescription("Push notifications metrics")
+@NameTemplate({ @Property(key = "service", value = "push-notifications"), @Property(key = "view", value = "metrics") })
+public class PushMetrics {
+
+  // Upper bounds (in milliseconds) of the latency histograms buckets
+  static final long[] LATENCY_BUCKETS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+  // Upper bounds of the devices per user histogram buckets
+  static final long[] DEVICES_BUCKETS = { 0, 1, 2, 3, 4, 5, 10, 20, 50 };
+
+  private static final String UNKNOWN = "unknown";
+
+  private final ConcurrentMap<String, Histogram> dispatchLatencies = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Histogram> fcmLatencies = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Histogram> renderTimes = new ConcurrentHashMap<>();
+
+  private final Histogram devicesPerUser = new Histogram(DEVICES_BUCKETS);
+
+  private final LongAdder sentCount = new LongAdder();
+
+  private final LongAdder failedCount = new LongAdder();
+
+  private final LongAdder invalidTokenCount = new LongAdder();
+
+  private final LongAdder coalescedCount = new LongAdder();
+
+  private volatile IntSupplier queueDepthGauge = () -> 0;
+
+  private volatile PushRateLimiter rateLimiter;
+
+  private volatile PushCircuitBreaker circuitBreaker;
+
+  /**
+   * Record the time between the dispatch of a message and the end of its sending
+   * @param pluginId The notification plugin id of the message
+   * @param durationMs The duration, in milliseconds
+   */
+  public void recordDispatch(String pluginId, long durationMs) {
+    histogram(dispatchLatencies, pluginId, LATENCY_BUCKETS).record(durationMs);
+  }
+
+  /**
+   * Record the result of the sending of a message
+   * @param success true if the message has been sent
+   * @param invalidToken true if the message has not been sent because the token of the device is invalid
+   */
+  public void recordSendResult(boolean success, boolean invalidToken) {
+    if (success) {
+      sentCount.increment();
+    } else {
+      failedCount.increment();
+      if (invalidToken) {
+        invalidTokenCount.increment();
+      }
+    }
+  }
+
+  /**
+   * Record the duration of a request to Firebase Cloud Messaging
+   * @param statusCode The HTTP status code of the response, or null when there is no response
+   * @param durationMs The duration, in milliseconds
+   */
+  public void recordFCMRequest(Integer statusCode, long durationMs) {
+    histogram(fcmLatencies, statusCode == null ? "error" : String.valueOf(statusCode), LATENCY_BUCKETS).record(durationMs);
+  }
+
+  /**
+   * Record the duration of the rendering of a notification by a template builder
+   * @param pluginId The notification plugin id of the template builder
+   * @param durationMs The duration, in milliseconds
+   */
+  public void recordRender(String pluginId, long durationMs) {
+    histogram(renderTimes, pluginId, LATENCY_BUCKETS).record(durationMs);
+  }
+
+  /**
+   * Record a notification merged with the next notification of its group in a single push
+   */
+  public void recordCoalesced() {
+    coalescedCount.increment();
+  }
+
+  /**
+   * Record the number of devices of a user receiving a push notification
+   * @param nbDevices The number of devices of the user
+   */
+  public void recordDevicesPerUser(int nbDevices) {
+    devicesPerUser.record(nbDevices);
+  }
+
+  /**
+   * Set the gauge giving the number of messages waiting to be sent
+   * @param queueDepthGauge The gauge
+   */
+  public void setQueueDepthGauge(IntSupplier queueDepthGauge) {
+    this.queueDepthGauge = queueDepthGauge;
+  }
+
+  /**
+   * Set the rate limiter of the requests to the push service
+   * @param rateLimiter The rate limiter
+   */
+  public void setRateLimiter(PushRateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  /**
+   * Set the circuit breaker of the requests to the push service
+   * @param circuitBreaker The circuit breaker
+   */
+  public void setCircuitBreaker(PushCircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  public Histogram getDispatchLatency(String pluginId) {
+    return dispatchLatencies.get(pluginId == null ? UNKNOWN : pluginId);
+  }
+
+  public Histogram getFCMLatency(Integer statusCode) {
+    return fcmLatencies.get(statusCode == null ? "error" : String.valueOf(statusCode));
+  }
+
+  public Histogram getRenderTime(String pluginId) {
+    return renderTimes.get(pluginId == null ? UNKNOWN : pluginId);
+  }
+
+  public Histogram getDevicesPerUser() {
+    return devicesPerUser;
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications sent")
+  public long getSentCount() {
+    return sentCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications which could not be sent")
+  public long getFailedCount() {
+    return failedCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications not sent because the token of the device is invalid")
+  public long getInvalidTokenCount() {
+    return invalidTokenCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Ratio of the push notifications not sent because the token of the device is invalid")
+  public double getInvalidTokenRate() {
+    long total = sentCount.sum() + failedCount.sum();
+    return total == 0 ? 0 : (double) invalidTokenCount.sum() / total;
+  }
+
+  @Managed
+  @ManagedDescription("Number of notifications merged with a following notification in a single push")
+  public long getCoalescedCount() {
+    return coalescedCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications waiting to be sent")
+  public int getQueueDepth() {
+    return queueDepthGauge.getAsInt();
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications delayed by the rate limiter")
+  public long getRateLimitedCount() {
+    PushRateLimiter limiter = rateLimiter;
+    return limiter == null ? 0 : limiter.getDelayedCount();
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications rejected by the rate limiter because the wait would be too long")
+  public long getRateLimitRejectedCount() {
+    PushRateLimiter limiter = rateLimiter;
+    return limiter == null ? 0 : limiter.getRejectedCount();
+  }
+
+  @Managed
+  @ManagedDescription("State of the circuit breaker of the push service: CLOSED, OPEN or HALF_OPEN")
+  public String getCircuitBreakerState() {
+    PushCircuitBreaker breaker = circuitBreaker;
+    return breaker == null ? PushCircuitBreaker.State.CLOSED.name() : breaker.getState().name();
+  }
+
+  @Managed
+  @ManagedDescription("Number of times the circuit breaker of the push service opened")
+  public long getCircuitBreakerOpenedCount() {
+    PushCircuitBreaker breaker = circuitBreaker;
+    return breaker == null ? 0 : breaker.getOpenedCount();
+  }
+
+  @Managed
+  @ManagedDescription("Number of push notifications short-circuited while the circuit breaker was open")
+  public long getShortCircuitedCount() {
+    PushCircuitBreaker breaker = circuitBreaker;
+    return breaker == null ? 0 : breaker.getShortCircuitedCount();
+  }
+
+  @Managed
+  @ManagedDescription("Time (in milliseconds) between the dispatch and the end of the sending, by notification plugin")
+  public String getDispatchLatencies() {
+    return toString(dispatchLatencies);
+  }
+
+  @Managed
+  @ManagedDescription("Duration (in milliseconds) of the requests to Firebase Cloud Messaging, by HTTP status code")
+  public String getFCMLatencies() {
+    return toString(fcmLatencies);
+  }
+
+  @Managed
+  @ManagedDescription("Duration (in milliseconds) of the rendering of the notifications, by notification plugin")
+  public String getRenderTimes() {
+    return toString(renderTimes);
+  }
+
+  @Managed
+  @ManagedDescription("Distribution of the number of devices of the users receiving push notifications")
+  public String getDevicesPerUserDistribution() {
+    return devicesPerUser.toString();
+  }
+
+  @Managed
+  @ManagedDescription("Reset the metrics")
+  public void reset() {
+    dispatchLatencies.clear();
+    fcmLatencies.clear();
+    renderTimes.clear();
+    devicesPerUser.reset();
+    sentCount.reset();
+    failedCount.reset();
+    invalidTokenCount.reset();
+    coalescedCount.reset();
+  }
+
+  private static Histogram histogram(ConcurrentMap<String, Histogram> histograms, String key, long[] buckets) {
+    return histograms.computeIfAbsent(key == null ? UNKNOWN : key, k -> new Histogram(buckets));
+  }
+
+  private static String toString(Map<String, Histogram> histograms) {
+    StringBuilder builder = new StringBuilder();
+    new TreeMap<>(histograms).forEach((key, histogram) -> {
+      if (builder.length() > 0) {
+        builder.append('\n');
+      }
+      builder.append(key).append(": ").append(histogram);
+    });
+    return builder.toString();
+  }
+
+  /**
+   * Histogram with fixed buckets
+   */
+  public static final class Histogram {
+
+    // Upper bounds (inclusive) of the buckets, the last bucket holds the values greater than the last bound
+    private final long[] bounds;
+
+    private final LongAdder[] buckets;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public Histogram(long[] bounds) {
+      this.bounds = bounds;
+      this.buckets = new LongAdder[bounds.length + 1];
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void record(long value) {
+      int index = 0;
+      while (index < bounds.length && value > bounds[index]) {
+        index++;
+      }
+      buckets[index].increment();
+      count.increment();
+      sum.add(value);
+      max.accumulate(value);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public double getMean() {
+      long nb = count.sum();
+      return nb == 0 ? 0 : (double) sum.sum() / nb;
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 1
+     * @return The upper bound of the bucket holding the given percentile, or the maximum value when the percentile is
+     *         in the last bucket
+     */
+    public long getPercentile(double percentile) {
+      long nb = count.sum();
+      if (nb == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile * nb);
+      long cumulated = 0;
+      for (int i = 0; i < bounds.length; i++) {
+        cumulated += buckets[i].sum();
+        if (cumulated >= rank) {
+          return Math.min(bounds[i], getMax());
+        }
+      }
+      return getMax();
+    }
+
+    void reset() {
+      for (LongAdder bucket : buckets) {
+        bucket.reset();
+      }
+      count.reset();
+      sum.reset();
+      max.reset();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%.1f p50=%d p95=%d p99=%d max=%d", getCount(), getMean(), getPercentile(0.5),
+                           getPercentile(0.95), getPercentile(0.99), getMax());
+    }
+  }
+}
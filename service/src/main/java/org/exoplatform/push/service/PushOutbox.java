@@ -0,0 +1,298 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.push.dao.PushOutboxDao;
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.domain.PushOutboxMessage;
+import org.exoplatform.push.domain.SendResult;
+import org.exoplatform.push.exception.RetryableSendException;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.picocontainer.Startable;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.exoplatform.push.util.InitParamsUtil.getBooleanParam;
+import static org.exoplatform.push.util.InitParamsUtil.getIntParam;
+import static org.exoplatform.push.util.InitParamsUtil.getLongParam;
+
+/**
+ * Persistent outbox of the push messages, giving an at-least-once delivery.
+ * When enabled, the push channel appends the rendered messages to the outbox instead of sending them, and a poller of
+ * each node claims the messages ready to be sent, sends them, then deletes them in bulk. A message is deleted only once
+ * it has been sent or rejected for good, so the messages of a node which crashed are sent by the other nodes once their
+ * claim has expired. The messages which failed because of a transient error are rescheduled in the outbox.
+ * The outbox is also the store of the messages which do not fit in the dispatch queue (SPILL_TO_DB policy).
+ */
+@Managed
+@ManagedDescription("Push notifications outbox")
+@NameTemplate({ @Property(key = "service", value = "push-notifications"), @Property(key = "view", value = "outbox") })
+public class PushOutbox implements PushMessageStore, Startable {
+
+  private static final Log LOG = ExoLogger.getLogger(PushOutbox.class);
+
+  private static final String THREAD_NAME = "PushNotifications-Outbox";
+
+  private final PushOutboxDao outboxDao;
+
+  private final PushDispatchQueue dispatchQueue;
+
+  private boolean enabled = false;
+
+  // Delay (in milliseconds) between two polls of the outbox
+  private long pollInterval = 1000;
+
+  // Maximum number of messages claimed at once
+  private int batchSize = 100;
+
+  // Time (in milliseconds) after which the claim of a message expires, if it has not been sent
+  private long leaseTimeout = 300000;
+
+  // Maximum number of sending attempts of a message
+  private int maxAttempts = 10;
+
+  // Maximum delay (in milliseconds) before the next attempt of a message
+  private long retryMaxDelay = 600000;
+
+  // Identifier of this node in the claims
+  private final String owner;
+
+  private ExoContainer container;
+
+  private ScheduledExecutorService poller;
+
+  private final LongAdder storedCount = new LongAdder();
+
+  private final LongAdder sentCount = new LongAdder();
+
+  private final LongAdder rescheduledCount = new LongAdder();
+
+  private final LongAdder abandonedCount = new LongAdder();
+
+  public PushOutbox(InitParams initParams, PushOutboxDao outboxDao, PushDispatchQueue dispatchQueue) {
+    this.outboxDao = outboxDao;
+    this.dispatchQueue = dispatchQueue;
+    this.enabled = getBooleanParam(initParams, "enabled", enabled);
+    this.pollInterval = Math.max(10, getLongParam(initParams, "pollInterval", pollInterval));
+    this.batchSize = Math.max(1, getIntParam(initParams, "batchSize", batchSize));
+    this.leaseTimeout = Math.max(pollInterval, getLongParam(initParams, "leaseTimeout", leaseTimeout));
+    this.maxAttempts = Math.max(1, getIntParam(initParams, "maxAttempts", maxAttempts));
+    this.retryMaxDelay = Math.max(pollInterval, getLongParam(initParams, "retryMaxDelay", retryMaxDelay));
+    this.owner = ManagementFactory.getRuntimeMXBean().getName();
+    // the spilled messages are sent only by the poller, so the queue drops its messages when there is no poller
+    if (isPolled()) {
+      dispatchQueue.setSpillStore(this);
+    }
+  }
+
+  @Override
+  public void start() {
+    container = ExoContainerContext.getCurrentContainerIfPresent();
+    if (!isPolled()) {
+      return;
+    }
+    poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, THREAD_NAME);
+      thread.setDaemon(true);
+      return thread;
+    });
+    poller.scheduleWithFixedDelay(this::pollInContainer, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    LOG.info("Push Notifications - Outbox {}, polled every {} ms", enabled ? "enabled" : "used to spill the dispatch queue",
+             pollInterval);
+  }
+
+  @Override
+  public void stop() {
+    if (poller == null) {
+      return;
+    }
+    poller.shutdown();
+    try {
+      // the messages claimed and not sent are sent again once their claim has expired
+      poller.awaitTermination(pollInterval, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true if the outbox is polled, either because it is enabled or to spill the dispatch queue
+   */
+  private boolean isPolled() {
+    return enabled || dispatchQueue.getOverflowPolicy() == PushDispatchQueue.OverflowPolicy.SPILL_TO_DB;
+  }
+
+  /**
+   * @return true if the push channel appends the messages to the outbox
+   */
+  @Managed
+  @ManagedDescription("Are the push notifications sent through the outbox")
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Append messages to the outbox, in a single transaction
+   * @param messages The messages to send
+   */
+  @Override
+  public void store(List<Message> messages) {
+    Date now = new Date();
+    List<PushOutboxMessage> outboxMessages = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      outboxMessages.add(new PushOutboxMessage(message, now));
+    }
+    outboxDao.createAll(outboxMessages);
+    storedCount.add(messages.size());
+  }
+
+  /**
+   * Send the messages ready to be sent, batch by batch, until there is none left
+   * @return The number of processed messages
+   */
+  int poll() {
+    int nbProcessed = 0;
+    while (true) {
+      Date now = new Date();
+      List<PushOutboxMessage> claimedMessages = outboxDao.claimMessages(owner, now, new Date(now.getTime() - leaseTimeout),
+                                                                        batchSize);
+      if (claimedMessages.isEmpty()) {
+        break;
+      }
+      process(claimedMessages);
+      nbProcessed += claimedMessages.size();
+      if (claimedMessages.size() < batchSize || (poller != null && poller.isShutdown())) {
+        break;
+      }
+    }
+    return nbProcessed;
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages in the outbox")
+  public long getPendingCount() {
+    return outboxDao.countMessages();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages appended to the outbox")
+  public long getStoredCount() {
+    return storedCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages of the outbox sent")
+  public long getSentCount() {
+    return sentCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of new sending attempts scheduled after a transient error")
+  public long getRescheduledCount() {
+    return rescheduledCount.sum();
+  }
+
+  @Managed
+  @ManagedDescription("Number of messages removed from the outbox after the maximum number of attempts")
+  public long getAbandonedCount() {
+    return abandonedCount.sum();
+  }
+
+  private void process(List<PushOutboxMessage> claimedMessages) {
+    List<Message> messages = new ArrayList<>(claimedMessages.size());
+    for (PushOutboxMessage claimedMessage : claimedMessages) {
+      messages.add(claimedMessage.toMessage());
+    }
+    List<SendResult> results = dispatchQueue.deliver(messages);
+
+    List<Long> processedIds = new ArrayList<>(results.size());
+    List<Long> retriedIds = new ArrayList<>();
+    long retryDelay = 0;
+    for (SendResult result : results) {
+      Message message = result.getMessage();
+      if (result.isSuccess()) {
+        sentCount.increment();
+        processedIds.add(message.getOutboxId());
+      } else if (result.getError() instanceof RetryableSendException) {
+        int attempts = message.getAttempts() + 1;
+        if (attempts < maxAttempts) {
+          retriedIds.add(message.getOutboxId());
+          retryDelay = Math.max(retryDelay, computeRetryDelay(attempts, ((RetryableSendException) result.getError()).getRetryAfter()));
+        } else {
+          abandonedCount.increment();
+          processedIds.add(message.getOutboxId());
+          LOG.warn("Push Notifications - Push notification to user {} not sent after {} attempts", message.getReceiver(), attempts);
+        }
+      } else {
+        // rejected for good, the error has been logged when sending
+        processedIds.add(message.getOutboxId());
+      }
+    }
+    if (!processedIds.isEmpty()) {
+      outboxDao.deleteByIds(processedIds);
+    }
+    if (!retriedIds.isEmpty()) {
+      outboxDao.reschedule(retriedIds, new Date(System.currentTimeMillis() + retryDelay));
+      rescheduledCount.add(retriedIds.size());
+    }
+  }
+
+  /**
+   * @param attempts Number of attempts already done
+   * @param retryAfter Delay (in milliseconds) requested by the push service, or -1
+   * @return The delay (in milliseconds) before the next attempt, growing exponentially with the number of attempts
+   */
+  long computeRetryDelay(int attempts, long retryAfter) {
+    long backoff = pollInterval << Math.min(attempts, 20);
+    return Math.max(Math.min(backoff, retryMaxDelay), retryAfter);
+  }
+
+  private void pollInContainer() {
+    if (container != null) {
+      ExoContainerContext.setCurrentContainer(container);
+      RequestLifeCycle.begin(container);
+    }
+    try {
+      int nbProcessed = poll();
+      if (nbProcessed > 0) {
+        LOG.debug("{} push notifications of the outbox processed", nbProcessed);
+      }
+    } catch (Exception e) {
+      LOG.error("Push Notifications - Error while sending the push notifications of the outbox", e);
+    } finally {
+      if (container != null) {
+        RequestLifeCycle.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.push.exception.RetryableSendException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free token bucket limiting the rate of the requests sent to a push service.
+ * It is implemented as a generic cell rate algorithm: a single atomic value holds the time at which the bucket will be
+ * full again, and each permit pushes it forward by the emission interval. A permit is granted immediately as long as
+ * this time is not further than the burst size in the future, otherwise the caller has to wait for the returned delay.
+ * Since the permits are reserved upfront, the callers are served in the order of their requests.
+ */
+public class PushRateLimiter {
+
+  private static final CompletableFuture<Void> PERMIT_GRANTED = CompletableFuture.completedFuture(null);
+
+  // Time (in nanoseconds) between 2 permits
+  private final long emissionInterval;
+
+  // Time (in nanoseconds) covered by a full bucket
+  private final long burstTolerance;
+
+  // Maximum time (in nanoseconds) a caller accepts to wait for a permit
+  private final long maxWait;
+
+  // Theoretical arrival time (System.nanoTime() based) of the next permit once the bucket is empty
+  private final AtomicLong theoreticalArrivalTime;
+
+  private final LongAdder grantedCount = new LongAdder();
+
+  private final LongAdder delayedCount = new LongAdder();
+
+  private final LongAdder rejectedCount = new LongAdder();
+
+  /**
+   * @param permitsPerSecond Maximum sustained number of permits per second, 0 or less to disable the limit
+   * @param burst Maximum number of permits granted at once when the bucket is full
+   * @param maxWait Maximum time (in milliseconds) a caller accepts to wait for a permit
+   */
+  public PushRateLimiter(double permitsPerSecond, int burst, long maxWait) {
+    this.emissionInterval = permitsPerSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond)) : 0;
+    this.burstTolerance = emissionInterval * Math.max(1, burst);
+    this.maxWait = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWait));
+    this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+  }
+
+  public boolean isEnabled() {
+    return emissionInterval > 0;
+  }
+
+  /**
+   * Reserve permits
+   *
+   * @param permits The number of permits
+   * @return The time (in nanoseconds) to wait before using the permits, 0 if they can be used right now, or -1 if the
+   *         wait would be longer than the maximum wait, in which case nothing is reserved
+   */
+  public long reserve(int permits) {
+    if (!isEnabled()) {
+      grantedCount.add(permits);
+      return 0;
+    }
+    long cost = emissionInterval * permits;
+    while (true) {
+      long now = System.nanoTime();
+      long arrivalTime = theoreticalArrivalTime.get();
+      long newArrivalTime = Math.max(arrivalTime, now) + cost;
+      long wait = Math.max(0, newArrivalTime - burstTolerance - now);
+      if (wait > maxWait) {
+        rejectedCount.add(permits);
+        return -1;
+      }
+      if (theoreticalArrivalTime.compareAndSet(arrivalTime, newArrivalTime)) {
+        grantedCount.add(permits);
+        if (wait > 0) {
+          delayedCount.add(permits);
+        }
+        return wait;
+      }
+    }
+  }
+
+  /**
+   * Wait for a permit, blocking the caller thread
+   *
+   * @throws RetryableSendException when the permit would not be available within the maximum wait
+   * @throws InterruptedException when the thread is interrupted while waiting
+   */
+  public void acquire() throws RetryableSendException, InterruptedException {
+    long wait = reserve(1);
+    if (wait < 0) {
+      throw rateLimitExceeded();
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * Get a permit without blocking the caller thread
+   *
+   * @return A future completed when the permit can be used, or completed exceptionally with a
+   *         {@link RetryableSendException} when the permit would not be available within the maximum wait
+   */
+  public CompletableFuture<Void> acquireAsync() {
+    long wait = reserve(1);
+    if (wait == 0) {
+      return PERMIT_GRANTED;
+    } else if (wait < 0) {
+      return CompletableFuture.failedFuture(rateLimitExceeded());
+    }
+    return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+  }
+
+  public long getGrantedCount() {
+    return grantedCount.sum();
+  }
+
+  public long getDelayedCount() {
+    return delayedCount.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  private RetryableSendException rateLimitExceeded() {
+    // the caller can try again once enough of the permits already reserved have been used
+    long backlog = theoreticalArrivalTime.get() - burstTolerance - System.nanoTime() - maxWait;
+    return new RetryableSendException("Push notifications rate limit exceeded",
+                                      TimeUnit.NANOSECONDS.toMillis(Math.max(0, backlog)));
+  }
+}
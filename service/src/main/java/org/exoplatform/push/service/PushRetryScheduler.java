@@ -0,0 +1,191 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Schedules the new sending attempts of the messages which failed because of a transient error.
+ * The delay grows exponentially with the number of attempts, with a random jitter so the retries of a broadcast
+ * are spread over time, and is never shorter than the delay requested by the push service (Retry-After).
+ * The pending retries are held in the delay queue of a single timer thread, so the dispatch threads never wait.
+ */
+public class PushRetryScheduler {
+
+  private static final Log LOG = ExoLogger.getLogger(PushRetryScheduler.class);
+
+  private static final String THREAD_NAME = "PushNotifications-Retry";
+
+  private final int maxAttempts;
+
+  private final long initialDelay;
+
+  private final long maxDelay;
+
+  private final int capacity;
+
+  private final Consumer<Message> retryHandler;
+
+  // Messages waiting for their retry
+  private final Set<Message> pendingRetries = ConcurrentHashMap.newKeySet();
+
+  private final AtomicInteger pendingCount = new AtomicInteger();
+
+  private final LongAdder scheduledCount = new LongAdder();
+
+  private final LongAdder exhaustedCount = new LongAdder();
+
+  private volatile ScheduledThreadPoolExecutor executor;
+
+  /**
+   * @param maxAttempts Maximum number of sending attempts of a message, including the first one
+   * @param initialDelay Delay (in milliseconds) before the first retry, doubled for each new attempt
+   * @param maxDelay Maximum delay (in milliseconds) computed by the exponential backoff
+   * @param capacity Maximum number of pending retries
+   * @param retryHandler Handler sending the message again when its delay is elapsed
+   */
+  public PushRetryScheduler(int maxAttempts, long initialDelay, long maxDelay, int capacity, Consumer<Message> retryHandler) {
+    this.maxAttempts = maxAttempts;
+    this.initialDelay = Math.max(1, initialDelay);
+    this.maxDelay = Math.max(this.initialDelay, maxDelay);
+    this.capacity = capacity;
+    this.retryHandler = retryHandler;
+  }
+
+  public void start() {
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, THREAD_NAME);
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduledExecutor.setRemoveOnCancelPolicy(true);
+    executor = scheduledExecutor;
+  }
+
+  /**
+   * Stop the scheduler
+   * @return The messages of the retries which were still pending
+   */
+  public List<Message> stop() {
+    ScheduledThreadPoolExecutor scheduledExecutor = executor;
+    executor = null;
+    List<Message> pendingMessages = new ArrayList<>();
+    if (scheduledExecutor != null) {
+      scheduledExecutor.shutdownNow();
+      pendingMessages.addAll(pendingRetries);
+      pendingRetries.clear();
+      pendingCount.set(0);
+    }
+    return pendingMessages;
+  }
+
+  /**
+   * Schedule a new sending attempt of a message, if its retry budget is not exhausted
+   *
+   * @param message The message which could not be sent
+   * @param retryAfter Delay (in milliseconds) requested by the push service, or -1
+   * @return true if the retry has been scheduled, false if the message will not be sent again
+   */
+  public boolean schedule(Message message, long retryAfter) {
+    ScheduledThreadPoolExecutor scheduledExecutor = executor;
+    if (scheduledExecutor == null) {
+      return false;
+    }
+    int attempts = message.getAttempts() + 1;
+    message.setAttempts(attempts);
+    if (attempts >= maxAttempts) {
+      exhaustedCount.increment();
+      LOG.warn("Push Notifications - Push notification to user {} not sent after {} attempts", message.getReceiver(), attempts);
+      return false;
+    }
+    if (pendingCount.incrementAndGet() > capacity) {
+      pendingCount.decrementAndGet();
+      LOG.warn("Push Notifications - Too many push notifications waiting for a retry, push notification to user {} dropped",
+               message.getReceiver());
+      return false;
+    }
+    long delay = computeDelay(attempts, retryAfter);
+    pendingRetries.add(message);
+    try {
+      scheduledExecutor.schedule(() -> retry(message), delay, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // stopped concurrently
+      pendingRetries.remove(message);
+      pendingCount.decrementAndGet();
+      return false;
+    }
+    scheduledCount.increment();
+    LOG.debug("Push notification to user {} retried in {} ms (attempt {})", message.getReceiver(), delay, attempts + 1);
+    return true;
+  }
+
+  /**
+   * Compute the delay before the next attempt: exponential backoff with jitter between half and the full backoff,
+   * and at least the delay requested by the push service, with a jitter of 10%.
+   *
+   * @param attempts Number of attempts already done
+   * @param retryAfter Delay (in milliseconds) requested by the push service, or -1
+   * @return The delay in milliseconds
+   */
+  long computeDelay(int attempts, long retryAfter) {
+    long backoff = initialDelay << Math.min(attempts - 1, 30);
+    if (backoff <= 0 || backoff > maxDelay) {
+      backoff = maxDelay;
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long delay = backoff / 2 + random.nextLong(backoff / 2 + 1);
+    if (retryAfter > 0) {
+      delay = Math.max(delay, retryAfter + random.nextLong(retryAfter / 10 + 1));
+    }
+    return delay;
+  }
+
+  public int getPendingCount() {
+    return pendingCount.get();
+  }
+
+  public long getScheduledCount() {
+    return scheduledCount.sum();
+  }
+
+  public long getExhaustedCount() {
+    return exhaustedCount.sum();
+  }
+
+  private void retry(Message message) {
+    pendingRetries.remove(message);
+    pendingCount.decrementAndGet();
+    try {
+      retryHandler.accept(message);
+    } catch (Exception e) {
+      LOG.error("Push Notifications - Error while retrying push notification to user " + message.getReceiver(), e);
+    }
+  }
+}
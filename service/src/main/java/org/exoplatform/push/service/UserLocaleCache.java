@@ -0,0 +1,75 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exoplatform.commons.api.notification.plugin.NotificationPluginUtils;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.future.FutureExoCache;
+
+import java.util.Locale;
+
+/**
+ * Cache of the locale of the users receiving push notifications, so the language of the receiver is not read from
+ * its settings for each sent message. The entry of a user is removed when its profile is saved, see
+ * {@link org.exoplatform.push.listener.UserLocaleCacheInvalidationListener}, and expires after a while so a change of
+ * the default locale of the portal, used for the users without language, is eventually taken into account.
+ */
+public class UserLocaleCache {
+
+  public static final String USER_LOCALE_CACHE_NAME = "pushnotifications.UserLocaleCache";
+
+  private final ExoCache<String, Locale> userLocales;
+
+  private final FutureExoCache<String, Locale, Object> futureUserLocales;
+
+  public UserLocaleCache(CacheService cacheService) {
+    this.userLocales = cacheService.getCacheInstance(USER_LOCALE_CACHE_NAME);
+    this.futureUserLocales = new FutureExoCache<>((context, username) -> loadLocale(username), userLocales);
+  }
+
+  /**
+   * @param username The user name
+   * @return The locale of the user, or english when the user has no language
+   */
+  public Locale getLocale(String username) {
+    if (username == null) {
+      return Locale.ENGLISH;
+    }
+    return futureUserLocales.get(null, username);
+  }
+
+  /**
+   * Remove the cached locale of a user
+   * @param username The user name
+   */
+  public void remove(String username) {
+    if (username != null) {
+      userLocales.remove(username);
+    }
+  }
+
+  public void clear() {
+    userLocales.clearCache();
+  }
+
+  protected Locale loadLocale(String username) {
+    String language = NotificationPluginUtils.getLanguage(username);
+    return StringUtils.isNotEmpty(language) ? new Locale(language) : Locale.ENGLISH;
+  }
+}
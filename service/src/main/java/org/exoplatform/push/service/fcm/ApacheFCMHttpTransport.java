@@ -0,0 +1,106 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 transport based on Apache HttpClient.
+ * Connections are kept alive and reused when the client uses a pooling connection manager,
+ * see {@link FCMHttpTransportConfiguration#buildHttpClient()}.
+ * Requests sent at once with {@link #executeAsync(HttpPost)} are executed in parallel on several
+ * connections, up to the configured maximum of concurrent requests.
+ */
+public class ApacheFCMHttpTransport implements FCMHttpTransport {
+
+  private final CloseableHttpClient httpClient;
+
+  private final ExecutorService executor;
+
+  public ApacheFCMHttpTransport(CloseableHttpClient httpClient) {
+    this(httpClient, 1);
+  }
+
+  /**
+   * @param httpClient The HTTP client
+   * @param maxConcurrentRequests Maximum number of requests executed in parallel by
+   *          {@link #executeAsync(HttpPost)}, requests are executed synchronously when lower or equal to 1
+   */
+  public ApacheFCMHttpTransport(CloseableHttpClient httpClient, int maxConcurrentRequests) {
+    this.httpClient = httpClient;
+    if (maxConcurrentRequests > 1) {
+      AtomicInteger threadNumber = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(maxConcurrentRequests, runnable -> {
+        Thread thread = new Thread(runnable, "PushNotifications-FCMSender-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else {
+      this.executor = null;
+    }
+  }
+
+  @Override
+  public FCMHttpResponse execute(HttpPost request) throws IOException {
+    try (CloseableHttpResponse response = httpClient.execute(request)) {
+      if (response == null || response.getStatusLine() == null) {
+        return null;
+      }
+      // the entity must be fully consumed to release the connection to the pool
+      HttpEntity entity = response.getEntity();
+      byte[] content = entity != null ? EntityUtils.toByteArray(entity) : null;
+      Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+      return new FCMHttpResponse(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), content,
+                                 retryAfter != null ? retryAfter.getValue() : null);
+    }
+  }
+
+  @Override
+  public CompletableFuture<FCMHttpResponse> executeAsync(HttpPost request) {
+    if (executor == null) {
+      return FCMHttpTransport.super.executeAsync(request);
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return execute(request);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (executor != null) {
+      executor.shutdown();
+    }
+    httpClient.close();
+  }
+}
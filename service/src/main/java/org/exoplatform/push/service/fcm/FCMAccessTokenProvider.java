@@ -0,0 +1,193 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides OAuth2 access tokens for the Firebase Cloud Messaging HTTP API v1.
+ * The token is cached until it is about to expire, so that sending a message does not
+ * require a token request to the Google token endpoint.
+ * The token is refreshed in background some time before its expiration, and only one
+ * refresh can happen at a time.
+ */
+public class FCMAccessTokenProvider {
+
+  private static final Log LOG = ExoLogger.getLogger(FCMAccessTokenProvider.class);
+
+  // Default lifetime of a token if the token endpoint does not return one - Google tokens last 1 hour
+  private static final long DEFAULT_TOKEN_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  // The token is refreshed in background this long before its expiration
+  private static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  // A token which expires in less than this delay is not used anymore
+  private static final long MIN_VALIDITY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final GoogleCredential googleCredential;
+
+  private final long refreshMarginMillis;
+
+  private final Object refreshLock = new Object();
+
+  private volatile AccessToken accessToken;
+
+  private ScheduledExecutorService refreshExecutor;
+
+  private ScheduledFuture<?> scheduledRefresh;
+
+  public FCMAccessTokenProvider(GoogleCredential googleCredential) {
+    this(googleCredential, DEFAULT_REFRESH_MARGIN_MILLIS);
+  }
+
+  public FCMAccessTokenProvider(GoogleCredential googleCredential, long refreshMarginMillis) {
+    this.googleCredential = googleCredential;
+    this.refreshMarginMillis = refreshMarginMillis;
+  }
+
+  /**
+   * Get a valid access token, from the cache if possible
+   *
+   * @return The access token
+   * @throws IOException when the token cannot be refreshed
+   */
+  public String getAccessToken() throws IOException {
+    AccessToken token = accessToken;
+    if (token == null || !token.isValid(System.currentTimeMillis() + MIN_VALIDITY_MILLIS)) {
+      token = refresh(token);
+    }
+    return token.getValue();
+  }
+
+  /**
+   * Stop the background refresh of the token
+   */
+  public void stop() {
+    synchronized (refreshLock) {
+      if (refreshExecutor != null) {
+        refreshExecutor.shutdownNow();
+        refreshExecutor = null;
+      }
+      accessToken = null;
+    }
+  }
+
+  /**
+   * Refresh the token if no other thread did it since the given token has been read
+   *
+   * @param staleToken The token considered as not valid anymore by the caller
+   * @return The up-to-date token
+   * @throws IOException when the token cannot be refreshed
+   */
+  private AccessToken refresh(AccessToken staleToken) throws IOException {
+    synchronized (refreshLock) {
+      AccessToken token = accessToken;
+      if (token != null && token != staleToken && token.isValid(System.currentTimeMillis() + MIN_VALIDITY_MILLIS)) {
+        // already refreshed by another thread while waiting for the lock
+        return token;
+      }
+      long startTime = System.currentTimeMillis();
+      token = fetchAccessToken();
+      accessToken = token;
+      LOG.debug("Firebase Cloud Messaging access token refreshed in {} ms, expires in {} s",
+              System.currentTimeMillis() - startTime, (token.getExpirationTime() - System.currentTimeMillis()) / 1000);
+      scheduleRefresh(token);
+      return token;
+    }
+  }
+
+  /**
+   * Schedule the refresh of the token before its expiration, so that senders never wait for it
+   *
+   * @param token The current token
+   */
+  private void scheduleRefresh(AccessToken token) {
+    long delay = token.getExpirationTime() - refreshMarginMillis - System.currentTimeMillis();
+    if (delay <= 0) {
+      return;
+    }
+    if (refreshExecutor == null) {
+      refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PushNotifications-FCMAccessTokenRefresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    scheduledRefresh = refreshExecutor.schedule(() -> {
+      try {
+        refresh(token);
+      } catch (Exception e) {
+        // the token will be refreshed synchronously by the next sender
+        LOG.warn("Push Notifications - Error while refreshing Firebase Cloud Messaging access token in background", e);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Request a new access token to the Google token endpoint
+   *
+   * @return The new access token
+   * @throws IOException when the token cannot be retrieved
+   */
+  protected AccessToken fetchAccessToken() throws IOException {
+    if (!googleCredential.refreshToken()) {
+      throw new IOException("Cannot refresh Firebase Cloud Messaging access token");
+    }
+    Long expirationTime = googleCredential.getExpirationTimeMilliseconds();
+    if (expirationTime == null) {
+      expirationTime = System.currentTimeMillis() + DEFAULT_TOKEN_LIFETIME_MILLIS;
+    }
+    return new AccessToken(googleCredential.getAccessToken(), expirationTime);
+  }
+
+  /**
+   * An access token and its expiration time
+   */
+  protected static class AccessToken {
+    private final String value;
+
+    private final long expirationTime;
+
+    public AccessToken(String value, long expirationTime) {
+      this.value = value;
+      this.expirationTime = expirationTime;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    boolean isValid(long time) {
+      return value != null && time < expirationTime;
+    }
+  }
+}
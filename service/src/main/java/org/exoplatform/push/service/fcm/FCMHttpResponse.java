@@ -0,0 +1,59 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+/**
+ * Response returned by Firebase Cloud Messaging, fully read from the connection
+ */
+public class FCMHttpResponse {
+
+  private final int statusCode;
+
+  private final String reasonPhrase;
+
+  private final byte[] content;
+
+  // Value of the Retry-After header
+  private final String retryAfter;
+
+  public FCMHttpResponse(int statusCode, String reasonPhrase, byte[] content) {
+    this(statusCode, reasonPhrase, content, null);
+  }
+
+  public FCMHttpResponse(int statusCode, String reasonPhrase, byte[] content, String retryAfter) {
+    this.statusCode = statusCode;
+    this.reasonPhrase = reasonPhrase;
+    this.content = content;
+    this.retryAfter = retryAfter;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public String getReasonPhrase() {
+    return reasonPhrase;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  public String getRetryAfter() {
+    return retryAfter;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import org.apache.http.client.methods.HttpPost;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP transport used to send requests to Firebase Cloud Messaging
+ */
+public interface FCMHttpTransport extends Closeable {
+
+  /**
+   * Execute the request and read the whole response
+   *
+   * @param request The request to send
+   * @return The response, or null if no response has been received
+   * @throws IOException when the request cannot be sent
+   */
+  FCMHttpResponse execute(HttpPost request) throws IOException;
+
+  /**
+   * Execute the request without waiting for the response, so several requests can be in flight at the same time.
+   * The default implementation executes the request synchronously.
+   *
+   * @param request The request to send
+   * @return The future response, completed exceptionally when the request cannot be sent
+   */
+  default CompletableFuture<FCMHttpResponse> executeAsync(HttpPost request) {
+    try {
+      return CompletableFuture.completedFuture(execute(request));
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.exoplatform.push.util.InitParamsUtil.getBooleanParam;
+import static org.exoplatform.push.util.InitParamsUtil.getIntParam;
+
+/**
+ * Configuration of the HTTP transport used to send requests to Firebase Cloud Messaging
+ */
+public class FCMHttpTransportConfiguration {
+
+  private static final Log LOG = ExoLogger.getLogger(FCMHttpTransportConfiguration.class);
+
+  // Maximum number of connections in the pool
+  private int maxConnections = 50;
+
+  // Maximum number of connections per route - all the requests go to the same host
+  private int maxConnectionsPerRoute = 50;
+
+  // Timeout (in milliseconds) to establish a connection
+  private int connectTimeout = 5000;
+
+  // Timeout (in milliseconds) waiting for data
+  private int readTimeout = 10000;
+
+  // Timeout (in milliseconds) to get a connection from the pool
+  private int poolAcquireTimeout = 2000;
+
+  // Maximum time (in milliseconds) an idle connection is kept alive
+  private int keepAlive = 60000;
+
+  // Use the HTTP/2 transport, multiplexing all the requests on a single connection
+  private boolean http2Enabled = false;
+
+  public static FCMHttpTransportConfiguration fromInitParams(InitParams initParams) {
+    FCMHttpTransportConfiguration configuration = new FCMHttpTransportConfiguration();
+    configuration.maxConnections = getIntParam(initParams, "httpMaxConnections", configuration.maxConnections);
+    configuration.maxConnectionsPerRoute = getIntParam(initParams, "httpMaxConnectionsPerRoute", configuration.maxConnectionsPerRoute);
+    configuration.connectTimeout = getIntParam(initParams, "httpConnectTimeout", configuration.connectTimeout);
+    configuration.readTimeout = getIntParam(initParams, "httpReadTimeout", configuration.readTimeout);
+    configuration.poolAcquireTimeout = getIntParam(initParams, "httpPoolAcquireTimeout", configuration.poolAcquireTimeout);
+    configuration.keepAlive = getIntParam(initParams, "httpKeepAlive", configuration.keepAlive);
+    configuration.http2Enabled = getBooleanParam(initParams, "http2Enabled", configuration.http2Enabled);
+    return configuration;
+  }
+
+  /**
+   * Build the transport matching this configuration
+   *
+   * @return The HTTP transport
+   */
+  public FCMHttpTransport buildTransport() {
+    if (http2Enabled) {
+      LOG.info("Push Notifications - Using HTTP/2 transport for Firebase Cloud Messaging");
+      return new Http2FCMHttpTransport(this);
+    } else {
+      return new ApacheFCMHttpTransport(buildHttpClient(), maxConnectionsPerRoute);
+    }
+  }
+
+  /**
+   * Build an HTTP/1.1 client with a connection pool and keep-alive connections
+   *
+   * @return The HTTP client
+   */
+  public CloseableHttpClient buildHttpClient() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(readTimeout)
+            .setConnectionRequestTimeout(poolAcquireTimeout)
+            .build();
+
+    return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> {
+              // use the keep-alive duration sent by the server if lower than the configured one
+              long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+              return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+            })
+            .evictExpiredConnections()
+            .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  public int getPoolAcquireTimeout() {
+    return poolAcquireTimeout;
+  }
+
+  public void setPoolAcquireTimeout(int poolAcquireTimeout) {
+    this.poolAcquireTimeout = poolAcquireTimeout;
+  }
+
+  public int getKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(int keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  public boolean isHttp2Enabled() {
+    return http2Enabled;
+  }
+
+  public void setHttp2Enabled(boolean http2Enabled) {
+    this.http2Enabled = http2Enabled;
+  }
+}
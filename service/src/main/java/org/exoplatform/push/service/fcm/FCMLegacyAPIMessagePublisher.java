@@ -18,10 +18,11 @@ package org.exoplatform.push.service.fcm;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.push.domain.Message;
@@ -41,7 +42,7 @@ public class FCMLegacyAPIMessagePublisher implements MessagePublisher {
   private Integer fcmMessageExpirationTime = null;
 
   public FCMLegacyAPIMessagePublisher(InitParams initParams) {
-    this(initParams, HttpClientBuilder.create().build());
+    this(initParams, FCMHttpTransportConfiguration.fromInitParams(initParams).buildHttpClient());
   }
 
   public FCMLegacyAPIMessagePublisher(InitParams initParams, HttpClient httpClient) {
@@ -94,7 +95,9 @@ public class FCMLegacyAPIMessagePublisher implements MessagePublisher {
 
     post.setEntity(new ByteArrayEntity(requestBody.toString().getBytes()));
 
-    httpClient.execute(post);
+    HttpResponse response = httpClient.execute(post);
+    // the response must be consumed and closed to release the connection to the pool
+    HttpClientUtils.closeQuietly(response);
   }
 
 }
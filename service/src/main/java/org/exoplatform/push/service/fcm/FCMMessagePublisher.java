@@ -27,26 +27,28 @@ import com.google.api.client.util.SecurityUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.exoplatform.commons.api.notification.plugin.NotificationPluginUtils;
-import org.exoplatform.commons.api.notification.service.WebNotificationService;
 import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.commons.utils.PropertyManager;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.domain.SendResult;
 import org.exoplatform.push.exception.InvalidTokenException;
+import org.exoplatform.push.exception.RetryableSendException;
 import org.exoplatform.push.service.MessagePublisher;
+import org.exoplatform.push.service.PushBadgeCounter;
+import org.exoplatform.push.service.PushCircuitBreaker;
+import org.exoplatform.push.service.PushMetrics;
+import org.exoplatform.push.service.PushRateLimiter;
+import org.exoplatform.push.service.UserLocaleCache;
+import org.exoplatform.push.util.HtmlUtil;
 import org.exoplatform.push.util.StringUtil;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.resources.ResourceBundleService;
 import org.exoplatform.social.notification.plugin.SocialNotificationUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import org.picocontainer.Startable;
 
 import java.io.*;
 import java.nio.charset.Charset;
@@ -57,23 +59,44 @@ import java.security.PrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.exoplatform.push.util.InitParamsUtil.getBooleanParam;
+import static org.exoplatform.push.util.InitParamsUtil.getIntParam;
+import static org.exoplatform.push.util.InitParamsUtil.getLongParam;
 
 /**
  * Message publisher using the HTTP API v1 of Firebase Cloud Messaging
  */
-public class FCMMessagePublisher implements MessagePublisher {
+public class FCMMessagePublisher implements MessagePublisher, Startable {
 
   private static final Log LOG = ExoLogger.getLogger(FCMMessagePublisher.class);
 
   public final static String LOG_SERVICE_NAME = "firebase-cloud-messaging";
   public final static String LOG_OPERATION_NAME = "send-push-notification";
+
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  // Maximum number of requests in flight when sending several messages at once
+  private static final int MAX_CONCURRENT_REQUESTS = 100;
+
   private ResourceBundleService resourceBundleService;
 
-  private WebNotificationService webNotificationService;
+  private UserLocaleCache userLocaleCache;
 
-  private CloseableHttpClient httpClient;
+  private PushBadgeCounter badgeCounter;
+
+  // Label replacing the inline images, by locale
+  private final Map<Locale, String> inlineImageLabels = new ConcurrentHashMap<>();
+
+  private FCMHttpTransport httpTransport;
 
   private String fcmServiceAccountFilePath;
 
@@ -81,14 +104,29 @@ public class FCMMessagePublisher implements MessagePublisher {
 
   private GoogleCredential googleCredential;
 
+  private FCMAccessTokenProvider accessTokenProvider;
+
+  private FCMPayloadSerializer payloadSerializer;
+
+  private PushMetrics metrics;
+
+  // Limit of the rate of the requests sent to Firebase Cloud Messaging, shared by all the senders
+  private PushRateLimiter rateLimiter;
+
+  // Short-circuits the requests while Firebase Cloud Messaging is down or slow
+  private PushCircuitBreaker circuitBreaker;
+
   // How long (in seconds) the message should be kept in FCM storage if the device is offline
   private Integer fcmMessageExpirationTime = null;
 
-  public FCMMessagePublisher(InitParams initParams, ResourceBundleService resourceBundleService, WebNotificationService webNotificationService) {
-    this(initParams, resourceBundleService, webNotificationService, HttpClientBuilder.create().build());
+  public FCMMessagePublisher(InitParams initParams, ResourceBundleService resourceBundleService, PushMetrics metrics,
+                             UserLocaleCache userLocaleCache, PushBadgeCounter badgeCounter) {
+    this(initParams, resourceBundleService, FCMHttpTransportConfiguration.fromInitParams(initParams).buildTransport(), metrics,
+         userLocaleCache, badgeCounter);
   }
 
-  public FCMMessagePublisher(InitParams initParams, ResourceBundleService resourceBundleService, WebNotificationService webNotificationService, CloseableHttpClient httpClient) {
+  public FCMMessagePublisher(InitParams initParams, ResourceBundleService resourceBundleService, FCMHttpTransport httpTransport,
+                             PushMetrics metrics, UserLocaleCache userLocaleCache, PushBadgeCounter badgeCounter) {
     if (initParams != null) {
       // FCM configuration file
       ValueParam serviceAccountFilePathValueParam = initParams.getValueParam("serviceAccountFilePath");
@@ -107,6 +145,8 @@ public class FCMMessagePublisher implements MessagePublisher {
 
           googleCredential = getCredentialsFromStream(fcmServiceAccountConfiguration);
 
+          accessTokenProvider = new FCMAccessTokenProvider(googleCredential);
+
         } catch (FileNotFoundException e) {
           LOG.warn("Push notifications - Firebase Cloud Messaging service account config file does not exist, meaning " +
                   "Push Notifications will not work. Add the file at " + fcmServiceAccountFilePath + " to make it work.");
@@ -131,9 +171,43 @@ public class FCMMessagePublisher implements MessagePublisher {
       }
     }
 
+    this.rateLimiter = new PushRateLimiter(getIntParam(initParams, "rateLimit", 10000),
+                                           getIntParam(initParams, "rateLimitBurst", 1000),
+                                           getLongParam(initParams, "rateLimitMaxWait", 30000));
+    this.circuitBreaker = new PushCircuitBreaker(LOG_SERVICE_NAME,
+                                                 getBooleanParam(initParams, "circuitBreakerEnabled", true),
+                                                 getIntParam(initParams, "circuitBreakerWindowSize", 100),
+                                                 getIntParam(initParams, "circuitBreakerMinimumCalls", 20),
+                                                 getIntParam(initParams, "circuitBreakerFailureRateThreshold", 50),
+                                                 getLongParam(initParams, "circuitBreakerSlowCallThreshold", 5000),
+                                                 getIntParam(initParams, "circuitBreakerSlowCallRateThreshold", 80),
+                                                 getLongParam(initParams, "circuitBreakerOpenDuration", 30000),
+                                                 getIntParam(initParams, "circuitBreakerHalfOpenCalls", 5));
+    this.payloadSerializer = new FCMPayloadSerializer(fcmMessageExpirationTime);
     this.resourceBundleService = resourceBundleService;
-    this.httpClient = httpClient;
-    this.webNotificationService = webNotificationService;
+    this.httpTransport = httpTransport;
+    this.userLocaleCache = userLocaleCache;
+    this.badgeCounter = badgeCounter;
+    this.metrics = metrics;
+    this.metrics.setRateLimiter(rateLimiter);
+    this.metrics.setCircuitBreaker(circuitBreaker);
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  @Override
+  public void stop() {
+    if (accessTokenProvider != null) {
+      accessTokenProvider.stop();
+    }
+    try {
+      httpTransport.close();
+    } catch (IOException e) {
+      LOG.warn("Push notifications - Error while closing Firebase Cloud Messaging HTTP transport", e);
+    }
   }
 
   @Override
@@ -142,9 +216,153 @@ public class FCMMessagePublisher implements MessagePublisher {
       return;
     }
 
-    HttpPost post = new HttpPost("https://fcm.googleapis.com/v1/projects/"
-            + fcmServiceAccountConfiguration.getServiceAccountProjectId() + "/messages:send");
-    post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getAccessToken());
+    if (circuitBreaker.isOpen()) {
+      throw circuitOpen();
+    }
+    HttpPost post = buildRequest(message, getAccessToken());
+    rateLimiter.acquire();
+    if (!circuitBreaker.tryAcquirePermission()) {
+      throw circuitOpen();
+    }
+    long startTimeSendingMessage = System.currentTimeMillis();
+
+    FCMHttpResponse response;
+    try {
+      response = httpTransport.execute(post);
+    } catch (IOException | RuntimeException e) {
+      // the permit must always be released, or the half-open circuit would never close
+      long sendMessageExecutionTime = System.currentTimeMillis() - startTimeSendingMessage;
+      circuitBreaker.onResult(true, sendMessageExecutionTime);
+      metrics.recordFCMRequest(null, sendMessageExecutionTime);
+      throw e;
+    }
+    long sendMessageExecutionTime = System.currentTimeMillis() - startTimeSendingMessage;
+    circuitBreaker.onResult(isServiceFailure(response), sendMessageExecutionTime);
+    checkResponse(message, response, sendMessageExecutionTime);
+  }
+
+  /**
+   * Send the messages in bursts of concurrent requests: requests are multiplexed on a single connection with
+   * the HTTP/2 transport, and sent in parallel on the pooled connections with the HTTP/1.1 transport.
+   * The access token is retrieved once for all the messages.
+   */
+  @Override
+  public List<SendResult> sendAll(Collection<Message> messages) {
+    List<SendResult> results = new ArrayList<>(messages.size());
+    if (googleCredential == null) {
+      messages.forEach(message -> results.add(SendResult.success(message, 0)));
+      return results;
+    }
+
+    String accessToken;
+    try {
+      accessToken = getAccessToken();
+    } catch (Exception e) {
+      messages.forEach(message -> results.add(SendResult.failure(message, e, 0)));
+      return results;
+    }
+
+    List<Message> burst = new ArrayList<>(Math.min(messages.size(), MAX_CONCURRENT_REQUESTS));
+    for (Message message : messages) {
+      burst.add(message);
+      if (burst.size() == MAX_CONCURRENT_REQUESTS) {
+        results.addAll(sendBurst(burst, accessToken));
+        burst.clear();
+      }
+    }
+    if (!burst.isEmpty()) {
+      results.addAll(sendBurst(burst, accessToken));
+    }
+    return results;
+  }
+
+  private List<SendResult> sendBurst(List<Message> messages, String accessToken) {
+    long startTimeSendingMessages = System.currentTimeMillis();
+    List<CompletableFuture<FCMHttpResponse>> responses = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      if (circuitBreaker.isOpen()) {
+        responses.add(CompletableFuture.failedFuture(circuitOpen()));
+        continue;
+      }
+      try {
+        HttpPost request = buildRequest(message, accessToken);
+        // the worker thread is not blocked while waiting for a permit
+        responses.add(rateLimiter.acquireAsync().thenCompose(permit -> executeAsync(request)));
+      } catch (Exception e) {
+        responses.add(CompletableFuture.failedFuture(e));
+      }
+    }
+
+    List<SendResult> results = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      Message message = messages.get(i);
+      try {
+        FCMHttpResponse response = responses.get(i).get();
+        checkResponse(message, response, System.currentTimeMillis() - startTimeSendingMessages);
+        results.add(SendResult.success(message, System.currentTimeMillis() - startTimeSendingMessages));
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        Exception error = cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        if (!(error instanceof RetryableSendException)) {
+          // the request has not been sent when the rate limit is exceeded or the circuit is open
+          metrics.recordFCMRequest(null, System.currentTimeMillis() - startTimeSendingMessages);
+        }
+        results.add(SendResult.failure(message, error, System.currentTimeMillis() - startTimeSendingMessages));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        results.add(SendResult.failure(message, e, System.currentTimeMillis() - startTimeSendingMessages));
+      } catch (Exception e) {
+        results.add(SendResult.failure(message, e, System.currentTimeMillis() - startTimeSendingMessages));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Execute the request if the circuit breaker permits it, and record its outcome
+   *
+   * @param request The request
+   * @return The future response
+   */
+  private CompletableFuture<FCMHttpResponse> executeAsync(HttpPost request) {
+    if (!circuitBreaker.tryAcquirePermission()) {
+      return CompletableFuture.failedFuture(circuitOpen());
+    }
+    long startTime = System.currentTimeMillis();
+    CompletableFuture<FCMHttpResponse> response;
+    try {
+      response = httpTransport.executeAsync(request);
+    } catch (RuntimeException e) {
+      circuitBreaker.onResult(true, System.currentTimeMillis() - startTime);
+      return CompletableFuture.failedFuture(e);
+    }
+    return response.whenComplete((result, error) -> circuitBreaker.onResult(error != null || isServiceFailure(result),
+                                                                            System.currentTimeMillis() - startTime));
+  }
+
+  /**
+   * @param response The response of Firebase Cloud Messaging
+   * @return true if the response shows that Firebase Cloud Messaging is unavailable
+   */
+  private static boolean isServiceFailure(FCMHttpResponse response) {
+    return response == null || response.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+  }
+
+  private RetryableSendException circuitOpen() {
+    return new RetryableSendException("Firebase Cloud Messaging circuit breaker is open, push notification not sent",
+                                      circuitBreaker.getRemainingOpenTime());
+  }
+
+  /**
+   * Build the request sending the message to Firebase Cloud Messaging
+   *
+   * @param message The message to send
+   * @param accessToken The OAuth access token
+   * @return The HTTP request
+   */
+  protected HttpPost buildRequest(Message message, String accessToken) {
+    HttpPost post = new HttpPost(getSendEndpoint());
+    post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
     post.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
 
     String messageBody = processBody(message);
@@ -152,121 +370,116 @@ public class FCMMessagePublisher implements MessagePublisher {
       message.setUrl(CommonsUtils.getCurrentDomain());
     }
 
-    StringBuilder requestBody = new StringBuilder()
-            .append("{")
-            .append("  \"validate_only\": false,")
-            .append("  \"message\": {");
     if (StringUtils.isNotBlank(message.getDeviceType()) && message.getDeviceType().equals("android")) {
-      requestBody.append("    \"data\": {")
-              .append("      \"title\": \"").append(message.getTitle().replaceAll("\"", "\\\\\"")).append("\",")
-              .append("      \"body\": \"").append(messageBody).append("\",")
-              .append("      \"url\": \"").append(message.getUrl()).append("\"")
-              .append("    },");
-      if (fcmMessageExpirationTime != null) {
-        requestBody
-                .append("    \"android\": {")
-                .append("      \"ttl\": \"").append(fcmMessageExpirationTime).append("s\"")
-                .append("    },");
-      }
+      post.setEntity(payloadSerializer.serializeDataMessage(message.getToken(), message.getTitle(), messageBody, message.getUrl(),
+                                                            message.getCollapseKey()));
     } else {
-      requestBody.append("    \"data\": {")
-              .append("      \"url\": \"").append(message.getUrl()).append("\"")
-              .append("    },")
-              .append("    \"notification\": {")
-              .append("      \"title\": \"").append(message.getTitle().replaceAll("\\<[^>]*>", "").replaceAll("\"", "\\\\\"")).append("\",")
-              .append("      \"body\": \"").append((Jsoup.parse(convertHtml(messageBody)).wholeText()).trim()).append("\"")
-              .append("    },");
-      String expirationHeader = "";
-      if (fcmMessageExpirationTime != null) {
-        Instant expirationInstant = Instant.now().minus(fcmMessageExpirationTime, ChronoUnit.SECONDS);
-        expirationHeader = "      \"headers\": {" +
-                "        \"apns-expiration\": \"" + expirationInstant.getEpochSecond() + "\"" +
-                "      },";
-      }
-      requestBody.append("    \"apns\": {")
-              .append(expirationHeader)
-              .append("      \"payload\": {")
-              .append("        \"aps\": {")
-              .append("          \"badge\": ").append(webNotificationService.getNumberOnBadge(message.getReceiver()))
-              .append("        }")
-              .append("      }")
-              .append("    },");
+      String title = HtmlUtil.stripTags(message.getTitle());
+      String body = HtmlUtil.toPlainText(messageBody);
+      post.setEntity(payloadSerializer.serializeNotificationMessage(message.getToken(), title, body, message.getUrl(),
+                                                                    badgeCounter.getNumberOnBadge(message.getReceiver()),
+                                                                    message.getCollapseKey()));
     }
-    requestBody.append("    \"token\":\"").append(message.getToken()).append("\"")
-            .append("  }")
-            .append("}");
 
-    post.setEntity(new ByteArrayEntity(requestBody.toString().getBytes()));
+    return post;
+  }
 
-    long startTimeSendingMessage = System.currentTimeMillis();
+  /**
+   * @return The URL of the Firebase Cloud Messaging endpoint sending the messages
+   */
+  protected String getSendEndpoint() {
+    return "https://fcm.googleapis.com/v1/projects/" + fcmServiceAccountConfiguration.getServiceAccountProjectId() + "/messages:send";
+  }
 
-    try (CloseableHttpResponse response = httpClient.execute(post)) {
-      long sendMessageExecutionTime = System.currentTimeMillis() - startTimeSendingMessage;
-      if (response == null || response.getStatusLine() == null) {
-        String errorMessage = "Error sending Push Notification, HTTP response or HTTP response code is null";
-        LOG.info("remote_service={} operation={} parameters=\"user:{},token:{},type:{}\" status=ko duration_ms={} error_msg=\"{}\"",
-                LOG_SERVICE_NAME, LOG_OPERATION_NAME, message.getReceiver(), StringUtil.mask(message.getToken(), 4),
-                message.getDeviceType(), sendMessageExecutionTime, errorMessage);
-        throw new Exception(errorMessage);
-      } else if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        String errorMessage = "Error sending Push Notification, response is " + response.getStatusLine().getStatusCode()
-                + " - " + response.getStatusLine().getReasonPhrase();
-        LOG.info("remote_service={} operation={} parameters=\"user:{},token:{},type:{}\" status=ko status_code={} duration_ms={} error_msg=\"{}\"",
-                LOG_SERVICE_NAME, LOG_OPERATION_NAME, message.getReceiver(), StringUtil.mask(message.getToken(), 4),
-                message.getDeviceType(), response.getStatusLine().getStatusCode(), sendMessageExecutionTime, errorMessage);
-
-        // check if the token is invalid to throw a specific exception
-        if (isTokenInvalid(response)) {
-          throw new InvalidTokenException(errorMessage);
-        }
-        // otherwise throw a general exception
-        throw new Exception(errorMessage);
-      } else {
-        LOG.info("remote_service={} operation={} parameters=\"user:{},token:{},type:{}\" status=ok duration_ms={}",
-                LOG_SERVICE_NAME, LOG_OPERATION_NAME, message.getReceiver(), StringUtil.mask(message.getToken(), 4),
-                message.getDeviceType(), sendMessageExecutionTime);
-        LOG.info("Message sent to Firebase : username={}, token={}, type={}",
-                message.getReceiver(), StringUtil.mask(message.getToken(), 4), message.getDeviceType());
+  /**
+   * Check the response of Firebase Cloud Messaging
+   *
+   * @param message The sent message
+   * @param response The HTTP response
+   * @param sendMessageExecutionTime The sending duration, in milliseconds
+   * @throws Exception when the message has not been sent
+   */
+  private void checkResponse(Message message, FCMHttpResponse response, long sendMessageExecutionTime) throws Exception {
+    metrics.recordFCMRequest(response == null ? null : response.getStatusCode(), sendMessageExecutionTime);
+    if (response == null) {
+      String errorMessage = "Error sending Push Notification, HTTP response or HTTP response code is null";
+      LOG.info("remote_service={} operation={} parameters=\"user:{},token:{},type:{}\" status=ko duration_ms={} error_msg=\"{}\"",
+              LOG_SERVICE_NAME, LOG_OPERATION_NAME, message.getReceiver(), StringUtil.mask(message.getToken(), 4),
+              message.getDeviceType(), sendMessageExecutionTime, errorMessage);
+      throw new Exception(errorMessage);
+    } else if (response.getStatusCode() != HttpStatus.SC_OK) {
+      String errorMessage = "Error sending Push Notification, response is " + response.getStatusCode()
+              + " - " + response.getReasonPhrase();
+      LOG.info("remote_service={} operation={} parameters=\"user:{},token:{},type:{}\" status=ko status_code={} duration_ms={} error_msg=\"{}\"",
+              LOG_SERVICE_NAME, LOG_OPERATION_NAME, message.getReceiver(), StringUtil.mask(message.getToken(), 4),
+              message.getDeviceType(), response.getStatusCode(), sendMessageExecutionTime, errorMessage);
+
+      // check if the token is invalid to throw a specific exception
+      if (isTokenInvalid(response)) {
+        throw new InvalidTokenException(errorMessage);
+      }
+      // throttling or temporary unavailability, the message can be sent again later
+      if (response.getStatusCode() == HTTP_TOO_MANY_REQUESTS || response.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+        throw new RetryableSendException(errorMessage, parseRetryAfter(response.getRetryAfter()));
       }
+      // otherwise throw a general exception
+      throw new Exception(errorMessage);
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug("remote_service={} operation={} parameters=\"user:{},token:{},type:{}\" status=ok duration_ms={}",
+              LOG_SERVICE_NAME, LOG_OPERATION_NAME, message.getReceiver(), StringUtil.mask(message.getToken(), 4),
+              message.getDeviceType(), sendMessageExecutionTime);
     }
   }
+
   /**
-   *Conserve line breaks of br and p elements in a html document 
+   * Parse the value of a Retry-After header, given either as a number of seconds or as an HTTP date
+   *
+   * @param retryAfter The value of the header
+   * @return The delay in milliseconds, or -1 if the value is not set or not valid
    */
-  protected String convertHtml(String html) {
-	if(html==null)
-	    return html;
-	Document document = Jsoup.parse(html);
-	document.outputSettings(new Document.OutputSettings().prettyPrint(false));
-	document.select("br").append("\\n");
-	document.select("p").prepend("\\n\\n");
-	return document.html();
+  static long parseRetryAfter(String retryAfter) {
+    if (StringUtils.isBlank(retryAfter)) {
+      return -1;
+    }
+    String value = retryAfter.trim();
+    try {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+    } catch (NumberFormatException e) {
+      try {
+        Instant retryDate = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        return Math.max(0, retryDate.toEpochMilli() - System.currentTimeMillis());
+      } catch (DateTimeParseException e1) {
+        LOG.debug("Invalid Retry-After header value {}", value);
+        return -1;
+      }
+    }
   }
 
   /**
    * Process the notification message body:
    * * replace images by a text "inline image"
-   * * escape double quotes
    *
    * @param message The raw message body
    * @return The transformed message body
    */
   protected String processBody(Message message) {
-    String language = NotificationPluginUtils.getLanguage(message.getReceiver());
-    Locale locale;
-    if (StringUtils.isNotEmpty(language)) {
-      locale = new Locale(language);
-    } else {
-      locale = Locale.ENGLISH;
+    String messageBody = message.getBody();
+    if (messageBody == null || !messageBody.contains("<img")) {
+      return messageBody;
     }
+    return SocialNotificationUtils.processImageTitle(messageBody, getInlineImageLabel(userLocaleCache.getLocale(message.getReceiver())));
+  }
 
-    ResourceBundle resourceBundle = resourceBundleService.getResourceBundle("locale.portlet.notification.PushNotifications", locale);
-
-    String messageBody = message.getBody();
-    messageBody = SocialNotificationUtils.processImageTitle(messageBody, resourceBundle.getString("Notification.push.label.InlineImage"));
-    messageBody = messageBody.replaceAll("\"", "\\\\\"");
+  private String getInlineImageLabel(Locale locale) {
+    if (PropertyManager.isDevelopping()) {
+      return loadInlineImageLabel(locale);
+    }
+    return inlineImageLabels.computeIfAbsent(locale, this::loadInlineImageLabel);
+  }
 
-    return messageBody;
+  private String loadInlineImageLabel(Locale locale) {
+    ResourceBundle resourceBundle = resourceBundleService.getResourceBundle("locale.portlet.notification.PushNotifications", locale);
+    return resourceBundle.getString("Notification.push.label.InlineImage");
   }
 
   /**
@@ -276,11 +489,11 @@ public class FCMMessagePublisher implements MessagePublisher {
    * @return true if the token is invalid
    * @throws IOException
    */
-  private boolean isTokenInvalid(CloseableHttpResponse response) throws IOException {
-    if (response.getStatusLine().getStatusCode() == HttpStatus.SC_BAD_REQUEST) {
+  protected boolean isTokenInvalid(FCMHttpResponse response) throws IOException {
+    if (response.getStatusCode() == HttpStatus.SC_BAD_REQUEST && response.getContent() != null) {
       JacksonFactory jsonFactory = new JacksonFactory();
       JsonObjectParser parser = new JsonObjectParser(jsonFactory);
-      FcmResponse responseContent = parser.parseAndClose(response.getEntity().getContent(), Charset.forName("UTF-8"), FcmResponse.class);
+      FcmResponse responseContent = parser.parseAndClose(new ByteArrayInputStream(response.getContent()), Charset.forName("UTF-8"), FcmResponse.class);
       FcmError error = responseContent.getError();
       if (error != null) {
         String errorStatus = error.getStatus();
@@ -420,13 +633,13 @@ public class FCMMessagePublisher implements MessagePublisher {
   }
 
   /**
-   * Retrieve the access token
+   * Retrieve the access token.
+   * The token is cached and refreshed in background before its expiration.
    *
    * @return The access token
    * @throws IOException
    */
   protected String getAccessToken() throws IOException {
-    googleCredential.refreshToken();
-    return googleCredential.getAccessToken();
+    return accessTokenProvider.getAccessToken();
   }
 }
@@ -0,0 +1,189 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.exoplatform.push.service.fcm.FCMPayloadWriter.estimateSize;
+import static org.exoplatform.push.service.fcm.FCMPayloadWriter.fragment;
+
+/**
+ * Serializer of the payloads of the HTTP API v1 of Firebase Cloud Messaging
+ */
+public class FCMPayloadSerializer {
+
+  private static final byte[] MESSAGE_START        = fragment("{\"validate_only\":false,\"message\":{");
+
+  private static final byte[] DATA_TITLE           = fragment("\"data\":{\"title\":");
+
+  private static final byte[] DATA_URL             = fragment("\"data\":{\"url\":");
+
+  private static final byte[] NOTIFICATION_TITLE   = fragment("\"notification\":{\"title\":");
+
+  private static final byte[] BODY                 = fragment(",\"body\":");
+
+  private static final byte[] URL                  = fragment(",\"url\":");
+
+  private static final byte[] OBJECT_END           = fragment("},");
+
+  private static final byte[] ANDROID_START        = fragment("\"android\":{");
+
+  private static final byte[] ANDROID_COLLAPSE_KEY = fragment("\"collapse_key\":");
+
+  private static final byte[] ANDROID_TTL          = fragment("\"ttl\":\"");
+
+  private static final byte[] ANDROID_TTL_END      = fragment("s\"");
+
+  private static final byte[] APNS_START           = fragment("\"apns\":{");
+
+  private static final byte[] APNS_HEADERS         = fragment("\"headers\":{");
+
+  private static final byte[] APNS_EXPIRATION      = fragment("\"apns-expiration\":\"");
+
+  private static final byte[] APNS_EXPIRATION_END  = fragment("\"");
+
+  private static final byte[] APNS_COLLAPSE_ID     = fragment("\"apns-collapse-id\":");
+
+  private static final byte[] SEPARATOR            = fragment(",");
+
+  private static final byte[] APNS_BADGE           = fragment("\"payload\":{\"aps\":{\"badge\":");
+
+  private static final byte[] APNS_END             = fragment("}}},");
+
+  private static final byte[] TOKEN                = fragment("\"token\":");
+
+  private static final byte[] MESSAGE_END          = fragment("}}");
+
+  // size of the constant fragments of a payload, with some margin for the numbers
+  private static final int    FRAGMENTS_SIZE       = 256;
+
+  // How long (in seconds) the message should be kept in FCM storage if the device is offline
+  private final Integer messageExpirationTime;
+
+  public FCMPayloadSerializer(Integer messageExpirationTime) {
+    this.messageExpirationTime = messageExpirationTime;
+  }
+
+  /**
+   * Serialize a data message, handled by the application (used for Android devices)
+   *
+   * @param token The device token
+   * @param title The title of the notification
+   * @param body The body of the notification
+   * @param url The URL to open
+   * @return The JSON entity
+   */
+  public ByteArrayEntity serializeDataMessage(String token, String title, String body, String url) {
+    return serializeDataMessage(token, title, body, url, null);
+  }
+
+  /**
+   * Serialize a data message, handled by the application (used for Android devices)
+   *
+   * @param token The device token
+   * @param title The title of the notification
+   * @param body The body of the notification
+   * @param url The URL to open
+   * @param collapseKey The key of the group of messages replacing each other on the device, or null
+   * @return The JSON entity
+   */
+  public ByteArrayEntity serializeDataMessage(String token, String title, String body, String url, String collapseKey) {
+    FCMPayloadWriter writer = new FCMPayloadWriter(FRAGMENTS_SIZE + estimateSize(token) + estimateSize(title)
+        + estimateSize(body) + estimateSize(url) + estimateSize(collapseKey));
+    writer.writeFragment(MESSAGE_START)
+          .writeFragment(DATA_TITLE).writeString(title)
+          .writeFragment(BODY).writeString(body)
+          .writeFragment(URL).writeString(url)
+          .writeFragment(OBJECT_END);
+    if (messageExpirationTime != null || collapseKey != null) {
+      writer.writeFragment(ANDROID_START);
+      if (collapseKey != null) {
+        writer.writeFragment(ANDROID_COLLAPSE_KEY).writeString(collapseKey);
+      }
+      if (messageExpirationTime != null) {
+        if (collapseKey != null) {
+          writer.writeFragment(SEPARATOR);
+        }
+        writer.writeFragment(ANDROID_TTL).writeNumber(messageExpirationTime).writeFragment(ANDROID_TTL_END);
+      }
+      writer.writeFragment(OBJECT_END);
+    }
+    writer.writeFragment(TOKEN).writeString(token)
+          .writeFragment(MESSAGE_END);
+    return writer.toEntity();
+  }
+
+  /**
+   * Serialize a notification message, displayed by the system (used for iOS devices)
+   *
+   * @param token The device token
+   * @param title The title of the notification, as plain text
+   * @param body The body of the notification, as plain text
+   * @param url The URL to open
+   * @param badge The number displayed on the application badge
+   * @return The JSON entity
+   */
+  public ByteArrayEntity serializeNotificationMessage(String token, String title, String body, String url, int badge) {
+    return serializeNotificationMessage(token, title, body, url, badge, null);
+  }
+
+  /**
+   * Serialize a notification message, displayed by the system (used for iOS devices)
+   *
+   * @param token The device token
+   * @param title The title of the notification, as plain text
+   * @param body The body of the notification, as plain text
+   * @param url The URL to open
+   * @param badge The number displayed on the application badge
+   * @param collapseKey The key of the group of messages replacing each other on the device, or null
+   * @return The JSON entity
+   */
+  public ByteArrayEntity serializeNotificationMessage(String token, String title, String body, String url, int badge,
+                                                      String collapseKey) {
+    FCMPayloadWriter writer = new FCMPayloadWriter(FRAGMENTS_SIZE + estimateSize(token) + estimateSize(title)
+        + estimateSize(body) + estimateSize(url) + estimateSize(collapseKey));
+    writer.writeFragment(MESSAGE_START)
+          .writeFragment(DATA_URL).writeString(url)
+          .writeFragment(OBJECT_END)
+          .writeFragment(NOTIFICATION_TITLE).writeString(title)
+          .writeFragment(BODY).writeString(body)
+          .writeFragment(OBJECT_END)
+          .writeFragment(APNS_START);
+    if (messageExpirationTime != null || collapseKey != null) {
+      writer.writeFragment(APNS_HEADERS);
+      if (messageExpirationTime != null) {
+        Instant expirationInstant = Instant.now().minus(messageExpirationTime, ChronoUnit.SECONDS);
+        writer.writeFragment(APNS_EXPIRATION).writeNumber(expirationInstant.getEpochSecond()).writeFragment(APNS_EXPIRATION_END);
+      }
+      if (collapseKey != null) {
+        if (messageExpirationTime != null) {
+          writer.writeFragment(SEPARATOR);
+        }
+        writer.writeFragment(APNS_COLLAPSE_ID).writeString(collapseKey);
+      }
+      writer.writeFragment(OBJECT_END);
+    }
+    writer.writeFragment(APNS_BADGE).writeNumber(badge)
+          .writeFragment(APNS_END)
+          .writeFragment(TOKEN).writeString(token)
+          .writeFragment(MESSAGE_END);
+    return writer.toEntity();
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writer of JSON payloads, encoding the content in UTF-8 directly into a byte buffer.
+ * Constant parts of the payloads are written as precomputed fragments, see {@link #fragment(String)}.
+ * The buffer is handed to the HTTP entity without copy, so a writer must not be reused once
+ * {@link #toEntity()} has been called.
+ */
+public class FCMPayloadWriter {
+
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] NULL = fragment("null");
+
+  private byte[] buffer;
+
+  private int count;
+
+  /**
+   * @param estimatedSize The expected size of the payload, in bytes. The buffer grows if needed.
+   */
+  public FCMPayloadWriter(int estimatedSize) {
+    this.buffer = new byte[Math.max(estimatedSize, 16)];
+  }
+
+  /**
+   * Encode a constant part of a payload, to be written with {@link #writeFragment(byte[])}
+   *
+   * @param value The JSON content, written as is
+   * @return The UTF-8 bytes of the fragment
+   */
+  public static byte[] fragment(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Estimate the size of a string value once written in a payload, assuming there are few characters to escape
+   *
+   * @param value The string value
+   * @return The estimated size, in bytes
+   */
+  public static int estimateSize(String value) {
+    return value == null ? 4 : value.length() + (value.length() >> 3) + 2;
+  }
+
+  public FCMPayloadWriter writeFragment(byte[] fragment) {
+    ensureCapacity(fragment.length);
+    System.arraycopy(fragment, 0, buffer, count, fragment.length);
+    count += fragment.length;
+    return this;
+  }
+
+  public FCMPayloadWriter writeNumber(long value) {
+    String number = Long.toString(value);
+    ensureCapacity(number.length());
+    for (int i = 0; i < number.length(); i++) {
+      buffer[count++] = (byte) number.charAt(i);
+    }
+    return this;
+  }
+
+  /**
+   * Write a string value, surrounded by double quotes and escaped as required by the JSON specification.
+   * U+2028 and U+2029 are escaped as well since they are not valid in JavaScript strings.
+   *
+   * @param value The string value
+   * @return This writer
+   */
+  public FCMPayloadWriter writeString(String value) {
+    if (value == null) {
+      return writeFragment(NULL);
+    }
+    int length = value.length();
+    // worst case, each character takes 6 bytes (escaped control characters, UTF-16 surrogate pairs take 4 bytes for 2 characters)
+    ensureCapacity(length + 2);
+    buffer[count++] = '"';
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+        if (count == buffer.length) {
+          ensureCapacity(length - i + 1);
+        }
+        buffer[count++] = (byte) c;
+      } else {
+        ensureCapacity((length - i) + 6);
+        i = writeSpecialChar(value, i, c);
+      }
+    }
+    ensureCapacity(1);
+    buffer[count++] = '"';
+    return this;
+  }
+
+  /**
+   * @return The number of bytes written
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return A copy of the written bytes
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, count);
+  }
+
+  /**
+   * @return A JSON entity backed by the buffer of this writer, without copy
+   */
+  public ByteArrayEntity toEntity() {
+    return new ByteArrayEntity(buffer, 0, count, ContentType.APPLICATION_JSON);
+  }
+
+  @Override
+  public String toString() {
+    return new String(buffer, 0, count, StandardCharsets.UTF_8);
+  }
+
+  private int writeSpecialChar(String value, int index, char c) {
+    switch (c) {
+      case '"':
+        buffer[count++] = '\\';
+        buffer[count++] = '"';
+        break;
+      case '\\':
+        buffer[count++] = '\\';
+        buffer[count++] = '\\';
+        break;
+      case '\n':
+        buffer[count++] = '\\';
+        buffer[count++] = 'n';
+        break;
+      case '\r':
+        buffer[count++] = '\\';
+        buffer[count++] = 'r';
+        break;
+      case '\t':
+        buffer[count++] = '\\';
+        buffer[count++] = 't';
+        break;
+      case '\b':
+        buffer[count++] = '\\';
+        buffer[count++] = 'b';
+        break;
+      case '\f':
+        buffer[count++] = '\\';
+        buffer[count++] = 'f';
+        break;
+      case '\u2028':
+      case '\u2029':
+        writeUnicodeEscape(c);
+        break;
+      default:
+        if (c < 0x20) {
+          writeUnicodeEscape(c);
+        } else if (c < 0x800) {
+          buffer[count++] = (byte) (0xc0 | (c >> 6));
+          buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(index + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+          buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+          buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+          return index + 1;
+        } else if (Character.isSurrogate(c)) {
+          // unpaired surrogate, not encodable in UTF-8
+          buffer[count++] = '?';
+        } else {
+          buffer[count++] = (byte) (0xe0 | (c >> 12));
+          buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buffer[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+    return index;
+  }
+
+  private void writeUnicodeEscape(char c) {
+    buffer[count++] = '\\';
+    buffer[count++] = 'u';
+    buffer[count++] = HEX_DIGITS[(c >> 12) & 0xf];
+    buffer[count++] = HEX_DIGITS[(c >> 8) & 0xf];
+    buffer[count++] = HEX_DIGITS[(c >> 4) & 0xf];
+    buffer[count++] = HEX_DIGITS[c & 0xf];
+  }
+
+  private void ensureCapacity(int additionalBytes) {
+    if (count + additionalBytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + additionalBytes));
+    }
+  }
+}
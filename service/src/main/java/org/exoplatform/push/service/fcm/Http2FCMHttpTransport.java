@@ -0,0 +1,98 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpPost;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP/2 transport based on the JDK HTTP client.
+ * All the requests are multiplexed on a single connection to Firebase Cloud Messaging,
+ * including the requests sent at once with {@link #executeAsync(HttpPost)}.
+ */
+public class Http2FCMHttpTransport implements FCMHttpTransport {
+
+  private final HttpClient httpClient;
+
+  private final Duration requestTimeout;
+
+  public Http2FCMHttpTransport(FCMHttpTransportConfiguration configuration) {
+    this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(configuration.getConnectTimeout()))
+            .build();
+    this.requestTimeout = Duration.ofMillis(configuration.getReadTimeout());
+  }
+
+  @Override
+  public FCMHttpResponse execute(HttpPost request) throws IOException {
+    try {
+      HttpResponse<byte[]> response = httpClient.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofByteArray());
+      return toFCMHttpResponse(response);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sending request to " + request.getURI());
+    }
+  }
+
+  @Override
+  public CompletableFuture<FCMHttpResponse> executeAsync(HttpPost request) {
+    return httpClient.sendAsync(toHttpRequest(request), HttpResponse.BodyHandlers.ofByteArray())
+                     .thenApply(Http2FCMHttpTransport::toFCMHttpResponse);
+  }
+
+  private static FCMHttpResponse toFCMHttpResponse(HttpResponse<byte[]> response) {
+    return new FCMHttpResponse(response.statusCode(), "", response.body(),
+                               response.headers().firstValue(HttpHeaders.RETRY_AFTER).orElse(null));
+  }
+
+  protected HttpRequest toHttpRequest(HttpPost request) {
+    HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(request.getURI()).timeout(requestTimeout);
+    for (Header header : request.getAllHeaders()) {
+      requestBuilder.header(header.getName(), header.getValue());
+    }
+    HttpEntity entity = request.getEntity();
+    if (entity != null) {
+      requestBuilder.POST(HttpRequest.BodyPublishers.ofInputStream(() -> {
+        try {
+          return entity.getContent();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }));
+    } else {
+      requestBuilder.POST(HttpRequest.BodyPublishers.noBody());
+    }
+    return requestBuilder.build();
+  }
+
+  @Override
+  public void close() {
+    // connections of the JDK HTTP client are released when the client is garbage collected
+  }
+}
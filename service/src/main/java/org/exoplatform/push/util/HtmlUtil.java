@@ -0,0 +1,306 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.util;
+
+import org.jsoup.parser.Parser;
+
+/**
+ * Conversion of notification HTML contents to plain text
+ */
+public class HtmlUtil {
+
+  // <br> gives a line break in the text of the document, plus the one added for push notifications
+  private static final String BR_TEXT = "\n\n";
+
+  // blank lines are added before each paragraph
+  private static final String P_TEXT  = "\n\n";
+
+  private HtmlUtil() {
+  }
+
+  /**
+   * Remove all the tags of an HTML content, the content is not parsed.
+   * Same as html.replaceAll("\\<[^>]*>", "") without regular expression.
+   *
+   * @param html The HTML content
+   * @return The content without tags
+   */
+  public static String stripTags(String html) {
+    if (html == null) {
+      return null;
+    }
+    int tagStart = html.indexOf('<');
+    if (tagStart < 0) {
+      return html;
+    }
+    StringBuilder text = new StringBuilder(html.length());
+    int textStart = 0;
+    while (tagStart >= 0) {
+      int tagEnd = html.indexOf('>', tagStart + 1);
+      if (tagEnd < 0) {
+        break;
+      }
+      text.append(html, textStart, tagStart);
+      textStart = tagEnd + 1;
+      tagStart = html.indexOf('<', textStart);
+    }
+    return text.append(html, textStart, html.length()).toString();
+  }
+
+  /**
+   * Convert an HTML content to plain text, in a single pass.
+   * The text is the same than the whole text of the parsed document, with line breaks kept for br and p elements,
+   * trimmed: tags, comments, scripts and styles are removed, entities are decoded and whitespaces are kept as is.
+   *
+   * @param html The HTML content
+   * @return The plain text
+   */
+  public static String toPlainText(String html) {
+    if (html == null) {
+      return "";
+    }
+    int length = html.length();
+    StringBuilder text = new StringBuilder(length);
+    boolean paragraphOpen = false;
+    int textStart = 0;
+    int i = 0;
+    while (i < length) {
+      if (html.charAt(i) != '<' || i + 1 == length) {
+        i++;
+        continue;
+      }
+      char next = html.charAt(i + 1);
+      boolean endTag = next == '/';
+      if (isAsciiLetter(next) || (endTag && i + 2 < length && isAsciiLetter(html.charAt(i + 2)))) {
+        appendText(text, html, textStart, i);
+        int nameStart = endTag ? i + 2 : i + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < length && !isTagNameEnd(html.charAt(nameEnd))) {
+          nameEnd++;
+        }
+        String tagName = html.substring(nameStart, nameEnd).toLowerCase();
+        int tagEnd = findTagEnd(html, nameEnd);
+        if (tagEnd < 0) {
+          // unclosed tag at the end of the content, dropped
+          return trim(text);
+        }
+        i = tagEnd + 1;
+        textStart = i;
+        if (endTag) {
+          if (tagName.equals("br")) {
+            text.append(BR_TEXT);
+          } else if (tagName.equals("p")) {
+            if (!paragraphOpen) {
+              // an empty paragraph is created for a closing tag without opening tag
+              text.append(P_TEXT);
+            }
+            paragraphOpen = false;
+          }
+        } else if (tagName.equals("br")) {
+          text.append(BR_TEXT);
+        } else if (tagName.equals("p")) {
+          text.append(P_TEXT);
+          paragraphOpen = true;
+        } else if (closesParagraph(tagName)) {
+          paragraphOpen = false;
+        } else if (tagName.equals("script") || tagName.equals("style")) {
+          i = skipRawContent(html, tagName, i, text, false, false);
+          textStart = i;
+        } else if (tagName.equals("textarea") || tagName.equals("title")) {
+          i = skipRawContent(html, tagName, i, text, true, true);
+          textStart = i;
+        } else if (tagName.equals("xmp") || tagName.equals("iframe") || tagName.equals("noembed") || tagName.equals("noframes")) {
+          i = skipRawContent(html, tagName, i, text, true, false);
+          textStart = i;
+        } else if (tagName.equals("plaintext")) {
+          text.append(html, i, length);
+          return trim(text);
+        }
+      } else if (next == '!' || next == '?' || endTag) {
+        appendText(text, html, textStart, i);
+        int commentEnd;
+        if (html.startsWith("<!--", i)) {
+          commentEnd = findCommentEnd(html, i + 4);
+        } else {
+          // bogus comment, closed by the first >
+          int closingBracket = html.indexOf('>', i + 2);
+          commentEnd = closingBracket < 0 ? length : closingBracket + 1;
+        }
+        i = commentEnd;
+        textStart = i;
+      } else {
+        // not a tag, kept as text
+        i++;
+      }
+    }
+    appendText(text, html, textStart, length);
+    return trim(text);
+  }
+
+  private static void appendText(StringBuilder text, String html, int start, int end) {
+    if (start >= end) {
+      return;
+    }
+    int ampersand = html.indexOf('&', start);
+    if (ampersand < 0 || ampersand >= end) {
+      text.append(html, start, end);
+    } else {
+      text.append(html, start, ampersand);
+      text.append(Parser.unescapeEntities(html.substring(ampersand, end), false));
+    }
+  }
+
+  /**
+   * @return The index of the closing bracket of the tag, skipping quoted attribute values, or -1 if the tag is not closed
+   */
+  private static int findTagEnd(String html, int from) {
+    int length = html.length();
+    int i = from;
+    while (i < length) {
+      char c = html.charAt(i);
+      if (c == '>') {
+        return i;
+      } else if (c == '=') {
+        i++;
+        while (i < length && isWhitespace(html.charAt(i))) {
+          i++;
+        }
+        if (i < length && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+          int closingQuote = html.indexOf(html.charAt(i), i + 1);
+          if (closingQuote < 0) {
+            return -1;
+          }
+          i = closingQuote + 1;
+        }
+      } else {
+        i++;
+      }
+    }
+    return -1;
+  }
+
+  private static int findCommentEnd(String html, int from) {
+    if (html.startsWith(">", from)) {
+      return from + 1;
+    } else if (html.startsWith("->", from)) {
+      return from + 2;
+    }
+    int commentEnd = html.indexOf("-->", from);
+    return commentEnd < 0 ? html.length() : commentEnd + 3;
+  }
+
+  /**
+   * Skip the content of an element which is not parsed as HTML (script, style, textarea...)
+   *
+   * @return The index following the closing tag of the element
+   */
+  private static int skipRawContent(String html, String tagName, int from, StringBuilder text, boolean keepText, boolean decodeEntities) {
+    int length = html.length();
+    int contentEnd = from;
+    while (true) {
+      contentEnd = html.indexOf("</", contentEnd);
+      if (contentEnd < 0) {
+        contentEnd = length;
+        break;
+      }
+      int nameEnd = contentEnd + 2 + tagName.length();
+      if (html.regionMatches(true, contentEnd + 2, tagName, 0, tagName.length())
+          && (nameEnd == length || isTagNameEnd(html.charAt(nameEnd)))) {
+        break;
+      }
+      contentEnd += 2;
+    }
+    if (keepText) {
+      if (decodeEntities) {
+        appendText(text, html, from, contentEnd);
+      } else {
+        text.append(html, from, contentEnd);
+      }
+    }
+    if (contentEnd == length) {
+      return length;
+    }
+    int tagEnd = findTagEnd(html, contentEnd + 2 + tagName.length());
+    return tagEnd < 0 ? length : tagEnd + 1;
+  }
+
+  private static boolean closesParagraph(String tagName) {
+    switch (tagName) {
+      case "address":
+      case "article":
+      case "aside":
+      case "blockquote":
+      case "center":
+      case "details":
+      case "dialog":
+      case "dir":
+      case "div":
+      case "dl":
+      case "fieldset":
+      case "figcaption":
+      case "figure":
+      case "footer":
+      case "form":
+      case "h1":
+      case "h2":
+      case "h3":
+      case "h4":
+      case "h5":
+      case "h6":
+      case "header":
+      case "hgroup":
+      case "hr":
+      case "listing":
+      case "main":
+      case "menu":
+      case "nav":
+      case "ol":
+      case "pre":
+      case "section":
+      case "summary":
+      case "table":
+      case "ul":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static String trim(StringBuilder text) {
+    int start = 0;
+    int end = text.length();
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return text.substring(start, end);
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isTagNameEnd(char c) {
+    return isWhitespace(c) || c == '/' || c == '>';
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.util;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Helpers to read optional value params, falling back to a default value when
+ * the param is missing, empty or invalid
+ */
+public class InitParamsUtil {
+
+  private static final Log LOG = ExoLogger.getLogger(InitParamsUtil.class);
+
+  private InitParamsUtil() {
+  }
+
+  public static String getStringParam(InitParams initParams, String name, String defaultValue) {
+    if (initParams == null) {
+      return defaultValue;
+    }
+    ValueParam valueParam = initParams.getValueParam(name);
+    if (valueParam == null || StringUtils.isBlank(valueParam.getValue())) {
+      return defaultValue;
+    }
+    return valueParam.getValue().trim();
+  }
+
+  public static int getIntParam(InitParams initParams, String name, int defaultValue) {
+    String value = getStringParam(initParams, name, null);
+    if (value != null) {
+      try {
+        return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        LOG.error("Push Notifications - Parameter " + name + " is not a valid number (" + value
+                + "), using default value " + defaultValue, e);
+      }
+    }
+    return defaultValue;
+  }
+
+  public static long getLongParam(InitParams initParams, String name, long defaultValue) {
+    String value = getStringParam(initParams, name, null);
+    if (value != null) {
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        LOG.error("Push Notifications - Parameter " + name + " is not a valid number (" + value
+                + "), using default value " + defaultValue, e);
+      }
+    }
+    return defaultValue;
+  }
+
+  public static boolean getBooleanParam(InitParams initParams, String name, boolean defaultValue) {
+    String value = getStringParam(initParams, name, null);
+    return value != null ? Boolean.parseBoolean(value) : defaultValue;
+  }
+
+  public static <E extends Enum<E>> E getEnumParam(InitParams initParams, String name, Class<E> enumClass, E defaultValue) {
+    String value = getStringParam(initParams, name, null);
+    if (value != null) {
+      try {
+        return Enum.valueOf(enumClass, value.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        LOG.error("Push Notifications - Parameter " + name + " is not a valid value (" + value
+                + "), using default value " + defaultValue, e);
+      }
+    }
+    return defaultValue;
+  }
+}
@@ -17,6 +17,9 @@
 package org.exoplatform.push.channel;
 
 import org.exoplatform.commons.api.notification.NotificationContext;
+import org.exoplatform.commons.api.notification.channel.template.AbstractTemplateBuilder;
+import org.exoplatform.commons.api.notification.channel.template.TemplateProvider;
+import org.exoplatform.commons.api.notification.model.MessageInfo;
 import org.exoplatform.commons.api.notification.model.NotificationInfo;
 import org.exoplatform.commons.api.notification.model.PluginKey;
 import org.exoplatform.portal.branding.BrandingService;
@@ -25,12 +28,16 @@ import org.exoplatform.push.domain.Message;
 import org.exoplatform.push.exception.InvalidTokenException;
 import org.exoplatform.push.service.DeviceService;
 import org.exoplatform.push.service.MessagePublisher;
+import org.exoplatform.push.service.PushBadgeCounter;
+import org.exoplatform.push.service.PushDispatchQueue;
+import org.exoplatform.push.service.PushOutbox;
 import org.exoplatform.push.service.fcm.FCMLegacyAPIMessagePublisher;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -43,13 +50,14 @@ public class PushChannelTest {
   public void shouldSendNoNotifWhenDevicesNull() throws Exception {
     // Given
     MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
     DeviceService deviceService = mock(DeviceService.class);
     BrandingService brandingService = mock(BrandingService.class);
     NotificationContext ctx = mock(NotificationContext.class);
     NotificationInfo notificationInfo = mock(NotificationInfo.class);
     when(notificationInfo.getKey()).thenReturn(new PluginKey("pluginId"));
     when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
-    when(deviceService.getDevicesByUser(anyString())).thenReturn(null);
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(null);
 
     PushChannel pushChannel = new PushChannel(messagePublisher, deviceService, brandingService);
 
@@ -64,13 +72,14 @@ public class PushChannelTest {
   public void shouldSendNoNotifWhenNoDevice() throws Exception {
     // Given
     MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
     DeviceService deviceService = mock(DeviceService.class);
     NotificationContext ctx = mock(NotificationContext.class);
     BrandingService brandingService = mock(BrandingService.class);
     NotificationInfo notificationInfo = mock(NotificationInfo.class);
     when(notificationInfo.getKey()).thenReturn(new PluginKey("pluginId"));
     when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
-    when(deviceService.getDevicesByUser(anyString())).thenReturn(new ArrayList<>());
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(new ArrayList<>());
 
     PushChannel pushChannel = new PushChannel(messagePublisher, deviceService, brandingService);
 
@@ -85,13 +94,14 @@ public class PushChannelTest {
   public void shouldSendNotifWhenDevicesExist() throws Exception {
     // Given
     MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
     DeviceService deviceService = mock(DeviceService.class);
     NotificationContext ctx = mock(NotificationContext.class);
     BrandingService brandingService = mock(BrandingService.class);
     NotificationInfo notificationInfo = mock(NotificationInfo.class);
     when(notificationInfo.getKey()).thenReturn(new PluginKey("pluginId"));
     when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
-    when(deviceService.getDevicesByUser(anyString())).thenReturn(Arrays.asList(new Device(), new Device()));
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(Arrays.asList(new Device(), new Device()));
 
     PushChannel pushChannel = new PushChannel(messagePublisher, deviceService, brandingService);
 
@@ -107,10 +117,168 @@ public class PushChannelTest {
     assertEquals(2, messages.size());
   }
 
+  @Test
+  public void shouldBuildMessageOnceForAllDevicesOfUser() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    NotificationContext ctx = mock(NotificationContext.class);
+    BrandingService brandingService = mock(BrandingService.class);
+    NotificationInfo notificationInfo = mock(NotificationInfo.class);
+    PluginKey pluginKey = new PluginKey("pluginId");
+    when(notificationInfo.getKey()).thenReturn(pluginKey);
+    when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
+    Device androidDevice = new Device();
+    androidDevice.setToken("token1");
+    androidDevice.setType("android");
+    Device iosDevice = new Device();
+    iosDevice.setToken("token2");
+    iosDevice.setType("ios");
+    Device otherIosDevice = new Device();
+    otherIosDevice.setToken("token3");
+    otherIosDevice.setType("ios");
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(Arrays.asList(androidDevice, iosDevice, otherIosDevice));
+    AbstractTemplateBuilder builder = mock(AbstractTemplateBuilder.class);
+    when(builder.buildMessage(ctx)).thenReturn(new MessageInfo().body("My Notification Body").subject("http://notification.url/target").end());
+    TemplateProvider templateProvider = mock(TemplateProvider.class);
+    when(templateProvider.getTemplateBuilder()).thenReturn(Collections.singletonMap(pluginKey, builder));
+
+    PushChannel pushChannel = new PushChannel(messagePublisher, deviceService, brandingService);
+    pushChannel.registerTemplateProvider(templateProvider);
+
+    ArgumentCaptor<Message> messageArgs = ArgumentCaptor.forClass(Message.class);
+
+    // When
+    pushChannel.dispatch(ctx, "john");
+
+    // Then
+    verify(builder, times(1)).buildMessage(ctx);
+    verify(messagePublisher, times(3)).send(messageArgs.capture());
+    List<Message> messages = messageArgs.getAllValues();
+    assertEquals("token1", messages.get(0).getToken());
+    assertEquals("android", messages.get(0).getDeviceType());
+    assertEquals("token2", messages.get(1).getToken());
+    assertEquals("token3", messages.get(2).getToken());
+    messages.forEach(message -> {
+      assertEquals("john", message.getReceiver());
+      assertEquals("My Notification Body", message.getBody());
+      assertEquals("http://notification.url/target", message.getUrl());
+    });
+  }
+
+  @Test
+  public void shouldIncrementBadgeCounterOncePerNotification() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    NotificationContext ctx = mock(NotificationContext.class);
+    BrandingService brandingService = mock(BrandingService.class);
+    PushBadgeCounter badgeCounter = mock(PushBadgeCounter.class);
+    NotificationInfo notificationInfo = mock(NotificationInfo.class);
+    PluginKey pluginKey = new PluginKey("pluginId");
+    when(notificationInfo.getKey()).thenReturn(pluginKey);
+    when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
+    Device iosDevice = new Device();
+    iosDevice.setToken("token1");
+    iosDevice.setType("ios");
+    Device otherIosDevice = new Device();
+    otherIosDevice.setToken("token2");
+    otherIosDevice.setType("ios");
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(Arrays.asList(iosDevice, otherIosDevice));
+    AbstractTemplateBuilder builder = mock(AbstractTemplateBuilder.class);
+    when(builder.buildMessage(ctx)).thenReturn(new MessageInfo().body("My Notification Body").subject("http://notification.url/target").end());
+    TemplateProvider templateProvider = mock(TemplateProvider.class);
+    when(templateProvider.getTemplateBuilder()).thenReturn(Collections.singletonMap(pluginKey, builder));
+
+    PushChannel pushChannel = new PushChannel(deviceService, brandingService, new PushDispatchQueue(null, messagePublisher, deviceService),
+                                              null, null, badgeCounter);
+    pushChannel.registerTemplateProvider(templateProvider);
+
+    // When
+    pushChannel.dispatch(ctx, "john");
+
+    // Then
+    verify(messagePublisher, times(2)).send(any());
+    verify(badgeCounter, times(1)).increment("john");
+  }
+
+  @Test
+  public void shouldNotIncrementBadgeCounterWhenNoMessageIsBuilt() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    NotificationContext ctx = mock(NotificationContext.class);
+    BrandingService brandingService = mock(BrandingService.class);
+    PushBadgeCounter badgeCounter = mock(PushBadgeCounter.class);
+    NotificationInfo notificationInfo = mock(NotificationInfo.class);
+    PluginKey pluginKey = new PluginKey("pluginId");
+    when(notificationInfo.getKey()).thenReturn(pluginKey);
+    when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
+    Device iosDevice = new Device();
+    iosDevice.setToken("token1");
+    iosDevice.setType("ios");
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(Collections.singletonList(iosDevice));
+    AbstractTemplateBuilder builder = mock(AbstractTemplateBuilder.class);
+    when(builder.buildMessage(ctx)).thenReturn(null);
+    TemplateProvider templateProvider = mock(TemplateProvider.class);
+    when(templateProvider.getTemplateBuilder()).thenReturn(Collections.singletonMap(pluginKey, builder));
+
+    PushChannel pushChannel = new PushChannel(deviceService, brandingService, new PushDispatchQueue(null, messagePublisher, deviceService),
+                                              null, null, badgeCounter);
+    pushChannel.registerTemplateProvider(templateProvider);
+
+    // When
+    pushChannel.dispatch(ctx, "john");
+
+    // Then
+    verify(messagePublisher, never()).send(any());
+    verify(badgeCounter, never()).increment(anyString());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldAppendMessagesToOutboxWhenEnabled() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    NotificationContext ctx = mock(NotificationContext.class);
+    BrandingService brandingService = mock(BrandingService.class);
+    NotificationInfo notificationInfo = mock(NotificationInfo.class);
+    PluginKey pluginKey = new PluginKey("pluginId");
+    when(notificationInfo.getKey()).thenReturn(pluginKey);
+    when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(Arrays.asList(new Device("token1", "android"),
+                                                                                    new Device("token2", "ios")));
+    AbstractTemplateBuilder builder = mock(AbstractTemplateBuilder.class);
+    when(builder.buildMessage(ctx)).thenReturn(new MessageInfo().body("My Notification Body").end());
+    TemplateProvider templateProvider = mock(TemplateProvider.class);
+    when(templateProvider.getTemplateBuilder()).thenReturn(Collections.singletonMap(pluginKey, builder));
+    PushOutbox outbox = mock(PushOutbox.class);
+    when(outbox.isEnabled()).thenReturn(true);
+
+    PushChannel pushChannel = new PushChannel(deviceService, brandingService, new PushDispatchQueue(null, messagePublisher, deviceService),
+                                              outbox, null, null);
+    pushChannel.registerTemplateProvider(templateProvider);
+
+    // When
+    pushChannel.dispatch(ctx, "john");
+
+    // Then
+    ArgumentCaptor<List> storedMessages = ArgumentCaptor.forClass(List.class);
+    verify(outbox, times(1)).store(storedMessages.capture());
+    assertEquals(2, storedMessages.getValue().size());
+    verify(messagePublisher, never()).send(any());
+  }
+
   @Test
   public void shouldDeleteDeviceWhenTokenIsInvalid() throws Exception {
     // Given
     MessagePublisher messagePublisher = mock(FCMLegacyAPIMessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
     DeviceService deviceService = mock(DeviceService.class);
     NotificationContext ctx = mock(NotificationContext.class);
     BrandingService brandingService = mock(BrandingService.class);
@@ -120,7 +288,7 @@ public class PushChannelTest {
     when(ctx.getNotificationInfo()).thenReturn(notificationInfo);
     Device device = new Device();
     device.setToken("token1");
-    when(deviceService.getDevicesByUser(anyString())).thenReturn(Arrays.asList(device));
+    when(deviceService.getDeviceTokensByUser(anyString())).thenReturn(Arrays.asList(device));
 
     PushChannel pushChannel = new PushChannel(messagePublisher, deviceService, brandingService);
 
@@ -134,9 +302,7 @@ public class PushChannelTest {
     assertNotNull(messages);
     assertEquals(1, messages.size());
 
-    ArgumentCaptor<String> tokenArgs = ArgumentCaptor.forClass(String.class);
-    verify(deviceService, times(1)).getDeviceByToken(tokenArgs.capture());
-    String token = tokenArgs.getValue();
-    assertEquals("token1", token);
+    verify(deviceService, times(1)).deleteDevicesByTokens(Collections.singleton("token1"));
+    verify(deviceService, never()).deleteDevice(any());
   }
 }
@@ -0,0 +1,123 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.push.service.PushMetrics;
+
+public class PushCoalescerTest {
+
+  private PushCoalescer coalescer;
+
+  @After
+  public void tearDown() {
+    if (coalescer != null) {
+      coalescer.stop();
+    }
+  }
+
+  @Test
+  public void shouldParseWindows() {
+    // When
+    Map<String, Long> windows = PushCoalescer.parseWindows(" LikePlugin:60000, LikeCommentPlugin:1000,invalid,OtherPlugin:abc,NoPlugin:0");
+
+    // Then
+    assertEquals(2, windows.size());
+    assertEquals(Long.valueOf(60000), windows.get("LikePlugin"));
+    assertEquals(Long.valueOf(1000), windows.get("LikeCommentPlugin"));
+    assertTrue(PushCoalescer.parseWindows(null).isEmpty());
+    assertTrue(PushCoalescer.parseWindows("").isEmpty());
+  }
+
+  @Test
+  public void shouldSendOnlyLastNotificationOfWindow() throws Exception {
+    // Given
+    PushMetrics metrics = new PushMetrics();
+    coalescer = new PushCoalescer(buildInitParams("LikePlugin:200"), metrics);
+    coalescer.start();
+    CopyOnWriteArrayList<String> sent = new CopyOnWriteArrayList<>();
+
+    // When
+    assertTrue(coalescer.coalesce("LikePlugin", "john|LikePlugin-1", () -> sent.add("like1")));
+    assertTrue(coalescer.coalesce("LikePlugin", "john|LikePlugin-1", () -> sent.add("like2")));
+    assertTrue(coalescer.coalesce("LikePlugin", "john|LikePlugin-1", () -> sent.add("like3")));
+    assertTrue(coalescer.coalesce("LikePlugin", "mary|LikePlugin-1", () -> sent.add("like4")));
+
+    // Then
+    assertEquals(2, coalescer.getPendingCount());
+    long timeout = System.currentTimeMillis() + 5000;
+    while (sent.size() < 2 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, sent.size());
+    assertTrue(sent.contains("like3"));
+    assertTrue(sent.contains("like4"));
+    assertEquals(0, coalescer.getPendingCount());
+    assertEquals(2, metrics.getCoalescedCount());
+  }
+
+  @Test
+  public void shouldNotCoalesceNotificationsOfOtherPlugins() {
+    // Given
+    coalescer = new PushCoalescer(buildInitParams("LikePlugin:60000"), new PushMetrics());
+    coalescer.start();
+
+    // When
+    boolean coalesced = coalescer.coalesce("PostActivityPlugin", "john|PostActivityPlugin-1", () -> {
+    });
+
+    // Then
+    assertFalse(coalescer.isCoalesced("PostActivityPlugin"));
+    assertFalse(coalesced);
+    assertEquals(0, coalescer.getPendingCount());
+  }
+
+  @Test
+  public void shouldSendPendingNotificationsOnStop() {
+    // Given
+    coalescer = new PushCoalescer(buildInitParams("LikePlugin:60000"), new PushMetrics());
+    coalescer.start();
+    CopyOnWriteArrayList<String> sent = new CopyOnWriteArrayList<>();
+    coalescer.coalesce("LikePlugin", "john|LikePlugin-1", () -> sent.add("like1"));
+
+    // When
+    coalescer.stop();
+
+    // Then
+    assertEquals(1, sent.size());
+    assertEquals(0, coalescer.getPendingCount());
+    assertFalse(coalescer.coalesce("LikePlugin", "john|LikePlugin-1", () -> sent.add("like2")));
+  }
+
+  private InitParams buildInitParams(String windows) {
+    InitParams initParams = new InitParams();
+    ValueParam valueParam = new ValueParam();
+    valueParam.setName("windows");
+    valueParam.setValue(windows);
+    initParams.addParameter(valueParam);
+    return initParams;
+  }
+}
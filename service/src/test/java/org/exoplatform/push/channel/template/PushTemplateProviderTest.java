@@ -18,10 +18,22 @@
  */
 package org.exoplatform.push.channel.template;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 
+import org.exoplatform.commons.api.notification.annotation.TemplateConfig;
+import org.exoplatform.commons.api.notification.annotation.TemplateConfigs;
 import org.exoplatform.commons.api.notification.model.PluginKey;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.social.notification.plugin.ActivityCommentPlugin;
@@ -55,4 +67,27 @@ public class PushTemplateProviderTest {
     assertNotNull(pushTemplateProvider.getTemplateBuilder().get(PluginKey.key(SpaceInvitationPlugin.ID)));
   }
 
+  @Test
+  public void shouldDeclareAllVariablesReadByTemplates() throws Exception {
+    Pattern variablePattern = Pattern.compile("\\b[A-Z][A-Z0-9_]+\\b");
+    TemplateConfig[] templateConfigs = PushTemplateProvider.class.getAnnotation(TemplateConfigs.class).templates();
+    assertEquals(templateConfigs.length, PushTemplateProvider.TEMPLATE_VARIABLES.size());
+    for (TemplateConfig templateConfig : templateConfigs) {
+      Set<String> declaredVariables = PushTemplateProvider.TEMPLATE_VARIABLES.get(templateConfig.pluginId());
+      assertNotNull("No variable declared for plugin " + templateConfig.pluginId(), declaredVariables);
+
+      File templateFile = new File("../war/src/main/webapp/WEB-INF", templateConfig.template().replace("war:/", ""));
+      assertTrue("Template " + templateFile + " not found", templateFile.exists());
+      String template = new String(Files.readAllBytes(templateFile.toPath()), StandardCharsets.UTF_8);
+      // remove the license header and the string literals (resource bundle keys, constants)
+      template = template.replaceAll("(?s)<!--.*?-->", "").replaceAll("\"[^\"]*\"", "");
+      Set<String> readVariables = new TreeSet<>();
+      Matcher matcher = variablePattern.matcher(template);
+      while (matcher.find()) {
+        readVariables.add(matcher.group());
+      }
+      assertEquals("Variables read by the template of plugin " + templateConfig.pluginId(), new TreeSet<>(declaredVariables), readVariables);
+    }
+  }
+
 }
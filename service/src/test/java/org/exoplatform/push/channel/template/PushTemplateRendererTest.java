@@ -0,0 +1,110 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel.template;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.commons.api.notification.model.ChannelKey;
+import org.exoplatform.commons.api.notification.model.PluginConfig;
+import org.exoplatform.commons.api.notification.service.setting.PluginSettingService;
+import org.exoplatform.commons.api.notification.service.template.TemplateContext;
+import org.exoplatform.container.configuration.ConfigurationManager;
+import org.exoplatform.services.resources.ResourceBundleService;
+
+public class PushTemplateRendererTest {
+
+  private static final String TEMPLATE_PATH = "war:/push-notifications/templates/LikePlugin.gtmpl";
+
+  private ConfigurationManager configurationManager;
+
+  private PushTemplateRenderer templateRenderer;
+
+  @Before
+  public void setup() throws Exception {
+    configurationManager = mock(ConfigurationManager.class);
+    when(configurationManager.getInputStream(TEMPLATE_PATH)).thenAnswer(invocation -> new ByteArrayInputStream(
+        "<%=_ctx.appRes(\"Notification.message.LikePlugin\", USER, \"\" + COUNT)%>\n$ACTIVITY".getBytes(StandardCharsets.UTF_8)));
+    PluginConfig pluginConfig = new PluginConfig();
+    pluginConfig.setBundlePath("locale.notification.template.Notification");
+    PluginSettingService pluginSettingService = mock(PluginSettingService.class);
+    when(pluginSettingService.getPluginConfig("LikePlugin")).thenReturn(pluginConfig);
+    ResourceBundleService resourceBundleService = mock(ResourceBundleService.class);
+    when(resourceBundleService.getResourceBundle(eq("locale.notification.template.Notification"), any(Locale.class))).thenReturn(new ResourceBundle() {
+      @Override
+      protected Object handleGetObject(String key) {
+        return "Notification.message.LikePlugin".equals(key) ? "{0} and {1} others like your activity" : null;
+      }
+
+      @Override
+      public Enumeration<String> getKeys() {
+        return Collections.enumeration(Collections.singleton("Notification.message.LikePlugin"));
+      }
+    });
+    templateRenderer = new PushTemplateRenderer(null, configurationManager, resourceBundleService, pluginSettingService);
+    templateRenderer.registerTemplate("LikePlugin", TEMPLATE_PATH);
+    templateRenderer.start();
+  }
+
+  @Test
+  public void shouldRenderTemplateCompiledOnce() throws Exception {
+    // When
+    String body1 = templateRenderer.render(buildTemplateContext("John Smith", 2, "My activity"));
+    String body2 = templateRenderer.render(buildTemplateContext("Mary Williams", 5, "Another activity"));
+
+    // Then
+    assertEquals("John Smith and 2 others like your activity\nMy activity", body1);
+    assertEquals("Mary Williams and 5 others like your activity\nAnother activity", body2);
+    assertEquals(1, templateRenderer.getCompiledTemplatesCount());
+    verify(configurationManager, times(1)).getInputStream(TEMPLATE_PATH);
+  }
+
+  @Test
+  public void shouldCompileTemplateAgainWhenCacheIsCleared() throws Exception {
+    // When
+    templateRenderer.render(buildTemplateContext("John Smith", 2, "My activity"));
+    templateRenderer.clearCache();
+    templateRenderer.render(buildTemplateContext("John Smith", 2, "My activity"));
+
+    // Then
+    verify(configurationManager, times(2)).getInputStream(TEMPLATE_PATH);
+  }
+
+  @Test
+  public void shouldReturnKeyWhenResourceIsMissing() {
+    PushTemplateRenderer.TemplateResources templateResources = new PushTemplateRenderer.TemplateResources(null);
+    assertEquals("Notification.missing", templateResources.appRes("Notification.missing", "John"));
+  }
+
+  private TemplateContext buildTemplateContext(String user, int count, String activity) {
+    TemplateContext templateContext = TemplateContext.newChannelInstance(ChannelKey.key("PUSH_CHANNEL"), "LikePlugin", "en");
+    templateContext.put("USER", user);
+    templateContext.put("COUNT", count);
+    templateContext.put("ACTIVITY", activity);
+    return templateContext;
+  }
+}
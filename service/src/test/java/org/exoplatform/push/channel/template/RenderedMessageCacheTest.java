@@ -0,0 +1,78 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel.template;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.commons.api.notification.model.MessageInfo;
+import org.exoplatform.commons.api.notification.model.NotificationInfo;
+import org.exoplatform.commons.api.notification.model.PluginKey;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+
+public class RenderedMessageCacheTest {
+
+  private RenderedMessageCache renderedMessageCache;
+
+  @Before
+  public void setup() {
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(RenderedMessageCache.RENDERED_MESSAGE_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    renderedMessageCache = new RenderedMessageCache(cacheService);
+  }
+
+  @Test
+  public void shouldShareRenderedMessageBetweenReceiversWithSameLanguage() {
+    // Given
+    NotificationInfo notification = buildNotification("notif1", "john");
+    renderedMessageCache.put(notification, "en", new MessageInfo().body("John posted an activity").subject("http://url").end());
+
+    // When
+    MessageInfo messageForMary = renderedMessageCache.get(buildNotification("notif1", "mary"), "en");
+    MessageInfo messageInFrench = renderedMessageCache.get(buildNotification("notif1", "mary"), "fr");
+    MessageInfo messageOfOtherNotification = renderedMessageCache.get(buildNotification("notif2", "mary"), "en");
+
+    // Then
+    assertNotNull(messageForMary);
+    assertEquals("John posted an activity", messageForMary.getBody());
+    assertEquals("http://url", messageForMary.getSubject());
+    assertNull(messageInFrench);
+    assertNull(messageOfOtherNotification);
+  }
+
+  @Test
+  public void shouldNotCacheNotificationWithoutId() {
+    // Given
+    NotificationInfo notification = buildNotification(null, "john");
+
+    // When
+    renderedMessageCache.put(notification, "en", new MessageInfo().body("body").subject("http://url").end());
+
+    // Then
+    assertNull(renderedMessageCache.get(notification, "en"));
+  }
+
+  private NotificationInfo buildNotification(String id, String receiver) {
+    NotificationInfo notification = NotificationInfo.instance().key(PluginKey.key("PostActivitySpaceStreamPlugin")).to(receiver);
+    notification.setId(id);
+    return notification;
+  }
+}
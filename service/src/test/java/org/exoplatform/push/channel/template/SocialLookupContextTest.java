@@ -0,0 +1,78 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.channel.template;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+
+import org.exoplatform.social.core.activity.model.ExoSocialActivity;
+import org.exoplatform.social.core.activity.model.ExoSocialActivityImpl;
+import org.exoplatform.social.core.identity.model.Identity;
+import org.exoplatform.social.core.identity.provider.OrganizationIdentityProvider;
+import org.exoplatform.social.core.manager.ActivityManager;
+import org.exoplatform.social.core.manager.IdentityManager;
+import org.exoplatform.social.core.space.spi.SpaceService;
+
+public class SocialLookupContextTest {
+
+  @Test
+  public void shouldLoadActivitiesOnce() {
+    // Given
+    ActivityManager activityManager = mock(ActivityManager.class);
+    ExoSocialActivity activity = new ExoSocialActivityImpl();
+    activity.setId("1");
+    when(activityManager.getActivity("1")).thenReturn(activity);
+    when(activityManager.getActivityTitle(activity)).thenReturn("title");
+    SocialLookupContext lookupContext = new SocialLookupContext(activityManager, mock(IdentityManager.class), mock(SpaceService.class));
+
+    // When
+    for (int i = 0; i < 3; i++) {
+      assertSame(activity, lookupContext.getActivity("1"));
+      assertEquals("title", lookupContext.getActivityTitle(activity));
+      assertNull(lookupContext.getActivity("2"));
+    }
+
+    // Then
+    verify(activityManager, times(1)).getActivity("1");
+    verify(activityManager, times(1)).getActivity("2");
+    verify(activityManager, times(1)).getActivityTitle(activity);
+  }
+
+  @Test
+  public void shouldShareIdentitiesLoadedByIdAndByRemoteId() {
+    // Given
+    IdentityManager identityManager = mock(IdentityManager.class);
+    Identity identity = new Identity("10");
+    identity.setProviderId(OrganizationIdentityProvider.NAME);
+    identity.setRemoteId("john");
+    when(identityManager.getOrCreateIdentity(OrganizationIdentityProvider.NAME, "john", true)).thenReturn(identity);
+    SocialLookupContext lookupContext = new SocialLookupContext(mock(ActivityManager.class), identityManager, mock(SpaceService.class));
+
+    // When
+    Identity identityByRemoteId = lookupContext.getIdentity(OrganizationIdentityProvider.NAME, "john");
+    Identity identityById = lookupContext.getIdentityById("10");
+    lookupContext.getIdentity(OrganizationIdentityProvider.NAME, "john");
+
+    // Then
+    assertSame(identity, identityByRemoteId);
+    assertSame(identity, identityById);
+    verify(identityManager, times(1)).getOrCreateIdentity(OrganizationIdentityProvider.NAME, "john", true);
+    verify(identityManager, never()).getIdentity(anyString(), anyBoolean());
+  }
+}
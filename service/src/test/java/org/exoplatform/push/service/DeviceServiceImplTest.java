@@ -0,0 +1,267 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.exoplatform.push.util.InitParamsTestUtil.addValueParam;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.push.dao.DeviceDao;
+import org.exoplatform.push.dao.DeviceDao.ExpirationReference;
+import org.exoplatform.push.domain.Device;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+
+public class DeviceServiceImplTest {
+
+  private DeviceDao deviceDao;
+
+  private DeviceServiceImpl deviceService;
+
+  @Before
+  public void setup() {
+    deviceDao = mock(DeviceDao.class);
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(DeviceServiceImpl.USER_DEVICES_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    when(cacheService.getCacheInstance(DeviceServiceImpl.TOKEN_DEVICE_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    deviceService = new DeviceServiceImpl(null, deviceDao, cacheService);
+  }
+
+  @Test
+  public void shouldGetDevicesOfUserFromCache() {
+    // Given
+    when(deviceDao.findTokensByUsername("john")).thenReturn(Arrays.asList(new Device("token1", "android"), new Device("token2", "ios")));
+
+    // When
+    List<Device> devices = deviceService.getDeviceTokensByUser("john");
+    List<Device> cachedDevices = deviceService.getDeviceTokensByUser("john");
+
+    // Then
+    verify(deviceDao, times(1)).findTokensByUsername("john");
+    assertEquals(2, devices.size());
+    assertEquals(2, cachedDevices.size());
+    assertEquals("token1", cachedDevices.get(0).getToken());
+  }
+
+  @Test
+  public void shouldCacheUsersWithoutDevice() {
+    // Given
+    when(deviceDao.findTokensByUsername("john")).thenReturn(Collections.emptyList());
+
+    // When
+    deviceService.getDeviceTokensByUser("john");
+    List<Device> devices = deviceService.getDeviceTokensByUser("john");
+
+    // Then
+    verify(deviceDao, times(1)).findTokensByUsername("john");
+    assertTrue(devices.isEmpty());
+  }
+
+  @Test
+  public void shouldInvalidateCacheWhenDeviceIsSaved() {
+    // Given
+    when(deviceDao.findTokensByUsername("john")).thenReturn(Collections.emptyList());
+    deviceService.getDeviceTokensByUser("john");
+    Device device = new Device("token1", "android");
+    device.setUsername("john");
+
+    // When
+    deviceService.saveDevice(device);
+    deviceService.getDeviceTokensByUser("john");
+
+    // Then
+    verify(deviceDao, times(1)).create(device);
+    verify(deviceDao, times(2)).findTokensByUsername("john");
+  }
+
+  @Test
+  public void shouldInvalidateCacheWhenDeviceIsDeleted() {
+    // Given
+    Device device = new Device("token1", "android");
+    device.setId(1L);
+    device.setUsername("john");
+    when(deviceDao.findByToken("token1")).thenReturn(device);
+    when(deviceDao.find(1L)).thenReturn(device);
+    assertSame(device, deviceService.getDeviceByToken("token1"));
+    assertSame(device, deviceService.getDeviceByToken("token1"));
+    verify(deviceDao, times(1)).findByToken("token1");
+
+    // When
+    deviceService.deleteDevice(device);
+    when(deviceDao.findByToken("token1")).thenReturn(null);
+
+    // Then
+    verify(deviceDao, times(1)).delete(device);
+    assertNull(deviceService.getDeviceByToken("token1"));
+    verify(deviceDao, times(2)).findByToken("token1");
+  }
+
+  @Test
+  public void shouldDeleteDevicesByTokensAndInvalidateCache() {
+    // Given
+    Device device = new Device("token1", "android");
+    device.setUsername("john");
+    when(deviceDao.findTokensByUsername("john")).thenReturn(Arrays.asList(new Device("token1", "android"), new Device("token2", "ios")));
+    when(deviceDao.findTokensByUsername("mary")).thenReturn(Collections.singletonList(new Device("token3", "android")));
+    when(deviceDao.findByToken("token1")).thenReturn(device);
+    when(deviceDao.deleteByTokens(any())).thenReturn(1);
+    deviceService.getDeviceTokensByUser("john");
+    deviceService.getDeviceTokensByUser("mary");
+    deviceService.getDeviceByToken("token1");
+
+    // When
+    int nbDeleted = deviceService.deleteDevicesByTokens(Collections.singleton("token1"));
+    deviceService.getDeviceTokensByUser("john");
+    deviceService.getDeviceTokensByUser("mary");
+    deviceService.getDeviceByToken("token1");
+
+    // Then
+    assertEquals(1, nbDeleted);
+    verify(deviceDao, times(1)).deleteByTokens(Collections.singleton("token1"));
+    verify(deviceDao, never()).delete(any());
+    verify(deviceDao, times(2)).findTokensByUsername("john");
+    verify(deviceDao, times(1)).findTokensByUsername("mary");
+    verify(deviceDao, times(2)).findByToken("token1");
+  }
+
+  @Test
+  public void shouldNotDeleteDevicesWhenNoToken() {
+    // When
+    int nbDeleted = deviceService.deleteDevicesByTokens(Collections.emptyList());
+
+    // Then
+    assertEquals(0, nbDeleted);
+    verify(deviceDao, never()).deleteByTokens(any());
+  }
+
+  @Test
+  public void shouldClearCacheWhenExpiredDevicesAreDeleted() {
+    // Given
+    when(deviceDao.findTokensByUsername("john")).thenReturn(Collections.singletonList(new Device("token1", "android")));
+    when(deviceDao.findIdsOfExpiredDevices(any(), any(), eq(0L), anyInt())).thenReturn(Collections.singletonList(1L));
+    when(deviceDao.deleteExpiredDevices(any(), any(), eq(1L), eq(1L))).thenReturn(1);
+    deviceService.getDeviceTokensByUser("john");
+
+    // When
+    deviceService.deleteDevicesWithExpiredToken();
+    deviceService.getDeviceTokensByUser("john");
+
+    // Then
+    verify(deviceDao, times(2)).findTokensByUsername("john");
+  }
+
+  @Test
+  public void shouldDeleteExpiredDevicesByChunksAndResumeOnNextRun() {
+    // Given
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "cleanerChunkSize", "2");
+    addValueParam(initParams, "cleanerChunkPause", "0");
+    addValueParam(initParams, "cleanerMaxChunks", "2");
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(anyString())).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    deviceService = new DeviceServiceImpl(initParams, deviceDao, cacheService);
+    when(deviceDao.findIdsOfExpiredDevices(any(), any(), eq(0L), eq(2))).thenReturn(Arrays.asList(1L, 3L));
+    when(deviceDao.findIdsOfExpiredDevices(any(), any(), eq(3L), eq(2))).thenReturn(Arrays.asList(4L, 7L));
+    when(deviceDao.findIdsOfExpiredDevices(any(), any(), eq(7L), eq(2))).thenReturn(Collections.singletonList(9L));
+    when(deviceDao.deleteExpiredDevices(any(), any(), anyLong(), anyLong())).thenReturn(2, 2, 1);
+
+    // When
+    deviceService.deleteDevicesWithExpiredToken();
+
+    // Then
+    verify(deviceDao, times(1)).deleteExpiredDevices(any(), any(), eq(1L), eq(3L));
+    verify(deviceDao, times(1)).deleteExpiredDevices(any(), any(), eq(4L), eq(7L));
+    verify(deviceDao, never()).findIdsOfExpiredDevices(any(), any(), eq(7L), anyInt());
+
+    // When
+    deviceService.deleteDevicesWithExpiredToken();
+
+    // Then
+    verify(deviceDao, times(1)).deleteExpiredDevices(any(), any(), eq(9L), eq(9L));
+    verify(deviceDao, times(3)).deleteExpiredDevices(any(), any(), anyLong(), anyLong());
+
+    // When
+    deviceService.deleteDevicesWithExpiredToken();
+
+    // Then
+    verify(deviceDao, times(2)).findIdsOfExpiredDevices(any(), any(), eq(0L), eq(2));
+  }
+
+  @Test
+  public void shouldComputeTokenExpirationDateWithoutOverflow() {
+    // Given
+    when(deviceDao.countExpiredDevices(any(), any())).thenReturn(3L);
+
+    // When
+    long nbExpired = deviceService.countDevicesWithExpiredToken();
+
+    // Then
+    assertEquals(3, nbExpired);
+    ArgumentCaptor<Date> expirationDateArgs = ArgumentCaptor.forClass(Date.class);
+    verify(deviceDao).countExpiredDevices(eq(ExpirationReference.LAST_SEEN), expirationDateArgs.capture());
+    long expirationAgeInDays = TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis() - expirationDateArgs.getValue().getTime());
+    assertEquals(60, expirationAgeInDays);
+  }
+
+  @Test
+  public void shouldOnlyCountExpiredDevicesInDryRun() {
+    // Given
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "tokenExpirationReference", "REGISTRATION_DATE");
+    addValueParam(initParams, "cleanerDryRun", "true");
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(anyString())).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    deviceService = new DeviceServiceImpl(initParams, deviceDao, cacheService);
+
+    // When
+    deviceService.deleteDevicesWithExpiredToken();
+
+    // Then
+    verify(deviceDao, times(1)).countExpiredDevices(eq(ExpirationReference.REGISTRATION_DATE), any());
+    verify(deviceDao, never()).findIdsOfExpiredDevices(any(), any(), anyLong(), anyInt());
+    verify(deviceDao, never()).deleteExpiredDevices(any(), any(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void shouldRefreshLastSeenWhenDeviceIsSaved() {
+    // Given
+    Device existingDevice = new Device("token1", "android");
+    existingDevice.setUsername("john");
+    existingDevice.setLastSeen(new Date(0));
+    when(deviceDao.findByToken("token1")).thenReturn(existingDevice);
+    Device device = new Device("token1", "android");
+    device.setUsername("john");
+
+    // When
+    deviceService.saveDevice(device);
+
+    // Then
+    verify(deviceDao, times(1)).update(existingDevice);
+    assertTrue(existingDevice.getLastSeen().getTime() > 0);
+  }
+}
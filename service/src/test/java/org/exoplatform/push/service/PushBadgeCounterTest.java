@@ -0,0 +1,99 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.commons.api.notification.service.WebNotificationService;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+
+public class PushBadgeCounterTest {
+
+  private WebNotificationService webNotificationService;
+
+  private CacheService cacheService;
+
+  private PushBadgeCounter badgeCounter;
+
+  @Before
+  public void setup() {
+    webNotificationService = mock(WebNotificationService.class);
+    cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(PushBadgeCounter.BADGE_COUNTER_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    badgeCounter = new PushBadgeCounter(null, webNotificationService, cacheService);
+  }
+
+  @Test
+  public void shouldCountNotificationsOnlyOnce() {
+    // Given
+    when(webNotificationService.getNumberOnBadge("john")).thenReturn(3);
+
+    // When
+    int firstCount = badgeCounter.getNumberOnBadge("john");
+    int secondCount = badgeCounter.getNumberOnBadge("john");
+
+    // Then
+    assertEquals(3, firstCount);
+    assertEquals(3, secondCount);
+    verify(webNotificationService, times(1)).getNumberOnBadge("john");
+  }
+
+  @Test
+  public void shouldIncrementKnownCounterOnly() {
+    // Given
+    when(webNotificationService.getNumberOnBadge("john")).thenReturn(3);
+    when(webNotificationService.getNumberOnBadge("mary")).thenReturn(1);
+    badgeCounter.getNumberOnBadge("john");
+
+    // When
+    badgeCounter.increment("john");
+    badgeCounter.increment("john");
+    badgeCounter.increment("mary");
+
+    // Then
+    assertEquals(5, badgeCounter.getNumberOnBadge("john"));
+    assertEquals(1, badgeCounter.getNumberOnBadge("mary"));
+  }
+
+  @Test
+  public void shouldCountNotificationsAgainWhenReconciliationPeriodIsElapsed() {
+    // Given
+    InitParams initParams = new InitParams();
+    ValueParam reconciliationPeriodParam = new ValueParam();
+    reconciliationPeriodParam.setName("reconciliationPeriod");
+    reconciliationPeriodParam.setValue("0");
+    initParams.addParameter(reconciliationPeriodParam);
+    badgeCounter = new PushBadgeCounter(initParams, webNotificationService, cacheService);
+    when(webNotificationService.getNumberOnBadge("john")).thenReturn(3, 0);
+    badgeCounter.getNumberOnBadge("john");
+
+    // When
+    badgeCounter.increment("john");
+    int count = badgeCounter.getNumberOnBadge("john");
+
+    // Then
+    assertEquals(0, count);
+    verify(webNotificationService, times(2)).getNumberOnBadge("john");
+  }
+}
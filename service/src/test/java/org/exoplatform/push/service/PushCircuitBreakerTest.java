@@ -0,0 +1,141 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import org.exoplatform.push.service.PushCircuitBreaker.State;
+
+public class PushCircuitBreakerTest {
+
+  @Test
+  public void shouldOpenWhenFailureRateIsReached() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", true, 10, 4, 50, 1000, 80, 60000, 2);
+
+    // When
+    recordCalls(circuitBreaker, 2, false, 10);
+    recordCalls(circuitBreaker, 1, true, 10);
+    assertEquals(State.CLOSED, circuitBreaker.getState());
+    recordCalls(circuitBreaker, 1, true, 10);
+
+    // Then
+    assertEquals(State.OPEN, circuitBreaker.getState());
+    assertTrue(circuitBreaker.isOpen());
+    assertFalse(circuitBreaker.tryAcquirePermission());
+    assertTrue(circuitBreaker.getRemainingOpenTime() > 0);
+    assertEquals(1, circuitBreaker.getOpenedCount());
+    assertEquals(1, circuitBreaker.getShortCircuitedCount());
+  }
+
+  @Test
+  public void shouldOpenWhenSlowCallRateIsReached() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", true, 10, 5, 50, 1000, 80, 60000, 2);
+
+    // When
+    recordCalls(circuitBreaker, 4, false, 2000);
+    recordCalls(circuitBreaker, 1, false, 10);
+
+    // Then
+    assertEquals(State.OPEN, circuitBreaker.getState());
+  }
+
+  @Test
+  public void shouldNotOpenBeforeMinimumCalls() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", true, 10, 5, 50, 1000, 80, 60000, 2);
+
+    // When
+    recordCalls(circuitBreaker, 4, true, 10);
+
+    // Then
+    assertEquals(State.CLOSED, circuitBreaker.getState());
+    assertTrue(circuitBreaker.tryAcquirePermission());
+  }
+
+  @Test
+  public void shouldOnlyKeepLastCallsInWindow() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", true, 4, 4, 50, 1000, 80, 60000, 2);
+
+    // When
+    recordCalls(circuitBreaker, 1, true, 10);
+    recordCalls(circuitBreaker, 5, false, 10);
+    recordCalls(circuitBreaker, 1, true, 10);
+
+    // Then
+    assertEquals(State.CLOSED, circuitBreaker.getState());
+  }
+
+  @Test
+  public void shouldCloseWhenTrialCallsSucceed() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", true, 10, 1, 50, 1000, 80, 0, 2);
+    recordCalls(circuitBreaker, 1, true, 10);
+    assertEquals(State.OPEN, circuitBreaker.getState());
+
+    // When
+    assertTrue(circuitBreaker.tryAcquirePermission());
+    assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+    assertTrue(circuitBreaker.tryAcquirePermission());
+    assertFalse(circuitBreaker.tryAcquirePermission());
+    circuitBreaker.onResult(false, 10);
+    circuitBreaker.onResult(false, 10);
+
+    // Then
+    assertEquals(State.CLOSED, circuitBreaker.getState());
+    assertTrue(circuitBreaker.tryAcquirePermission());
+  }
+
+  @Test
+  public void shouldOpenAgainWhenTrialCallFails() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", true, 10, 1, 50, 1000, 80, 0, 2);
+    recordCalls(circuitBreaker, 1, true, 10);
+
+    // When
+    assertTrue(circuitBreaker.tryAcquirePermission());
+    circuitBreaker.onResult(true, 10);
+
+    // Then
+    assertEquals(State.OPEN, circuitBreaker.getState());
+    assertEquals(2, circuitBreaker.getOpenedCount());
+  }
+
+  @Test
+  public void shouldLetAllCallsThroughWhenDisabled() {
+    // Given
+    PushCircuitBreaker circuitBreaker = new PushCircuitBreaker("test", false, 10, 1, 50, 1000, 80, 60000, 2);
+
+    // When
+    recordCalls(circuitBreaker, 10, true, 10);
+
+    // Then
+    assertEquals(State.CLOSED, circuitBreaker.getState());
+    assertTrue(circuitBreaker.tryAcquirePermission());
+  }
+
+  private void recordCalls(PushCircuitBreaker circuitBreaker, int nbCalls, boolean failed, long duration) {
+    for (int i = 0; i < nbCalls; i++) {
+      assertTrue(circuitBreaker.tryAcquirePermission());
+      circuitBreaker.onResult(failed, duration);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.exoplatform.push.util.InitParamsTestUtil.addValueParam;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.exception.InvalidTokenException;
+import org.exoplatform.push.exception.RetryableSendException;
+
+public class PushDispatchQueueTest {
+
+  private PushDispatchQueue dispatchQueue;
+
+  @After
+  public void tearDown() {
+    if (dispatchQueue != null) {
+      dispatchQueue.stop();
+    }
+  }
+
+  @Test
+  public void shouldDeliverSynchronouslyWhenQueueNotStarted() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    dispatchQueue = new PushDispatchQueue(null, messagePublisher, deviceService);
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+
+    // When
+    dispatchQueue.dispatch(Collections.singletonList(message));
+
+    // Then
+    verify(messagePublisher, times(1)).send(message);
+    assertEquals(0, dispatchQueue.getEnqueuedCount());
+  }
+
+  @Test
+  public void shouldDeliverQueuedMessagesFromWorkers() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "workers", "2");
+    dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, deviceService);
+    dispatchQueue.start();
+    Message message1 = new Message("john", "token1", "android", "title", "body", "url");
+    Message message2 = new Message("john", "token2", "ios", "title", "body", "url");
+
+    // When
+    dispatchQueue.dispatch(Arrays.asList(message1, message2));
+
+    // Then
+    verify(messagePublisher, timeout(5000).times(1)).send(message1);
+    verify(messagePublisher, timeout(5000).times(1)).send(message2);
+    assertEquals(2, dispatchQueue.getEnqueuedCount());
+  }
+
+  @Test
+  public void shouldDeleteDeviceWhenTokenIsInvalid() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    doThrow(new InvalidTokenException("Invalid token")).when(messagePublisher).send(argThat(message -> !"token2".equals(message.getToken())));
+    dispatchQueue = new PushDispatchQueue(new InitParams(), messagePublisher, deviceService);
+
+    // When
+    dispatchQueue.dispatch(Arrays.asList(new Message("john", "token1", "android", "title", "body", "url"),
+                                         new Message("john", "token2", "android", "title", "body", "url"),
+                                         new Message("mary", "token3", "ios", "title", "body", "url")));
+
+    // Then
+    verify(deviceService, times(1)).deleteDevicesByTokens(new HashSet<>(Arrays.asList("token1", "token3")));
+    verify(deviceService, never()).deleteDevice(any());
+    assertEquals(1, dispatchQueue.getMetrics().getSentCount());
+    assertEquals(2, dispatchQueue.getMetrics().getInvalidTokenCount());
+    assertEquals(3, dispatchQueue.getMetrics().getDispatchLatency(null).getCount());
+  }
+
+  @Test
+  public void shouldDropOldestMessageWhenQueueIsFull() throws Exception {
+    // Given
+    CountDownLatch sendingStarted = new CountDownLatch(1);
+    CountDownLatch releaseSending = new CountDownLatch(1);
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    Message message1 = new Message("john", "token1", "android", "title", "body", "url");
+    Message message2 = new Message("john", "token2", "android", "title", "body", "url");
+    Message message3 = new Message("john", "token3", "android", "title", "body", "url");
+    Message message4 = new Message("john", "token4", "android", "title", "body", "url");
+    doAnswer(invocation -> {
+      sendingStarted.countDown();
+      releaseSending.await(5, TimeUnit.SECONDS);
+      return null;
+    }).when(messagePublisher).send(message1);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "workers", "1");
+    addValueParam(initParams, "queueCapacity", "2");
+    addValueParam(initParams, "overflowPolicy", "DROP_OLDEST");
+    dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, mock(DeviceService.class));
+    dispatchQueue.start();
+
+    // When
+    dispatchQueue.dispatch(Collections.singletonList(message1));
+    assertTrue(sendingStarted.await(5, TimeUnit.SECONDS));
+    dispatchQueue.dispatch(Arrays.asList(message2, message3, message4));
+    releaseSending.countDown();
+
+    // Then
+    verify(messagePublisher, timeout(5000).times(1)).send(message4);
+    verify(messagePublisher, times(1)).send(message3);
+    verify(messagePublisher, never()).send(message2);
+    assertEquals(1, dispatchQueue.getDroppedCount());
+  }
+
+  @Test
+  public void shouldWaitBlockTimeoutOnceForAllMessagesOfDispatch() throws Exception {
+    // Given
+    CountDownLatch sendingStarted = new CountDownLatch(1);
+    CountDownLatch releaseSending = new CountDownLatch(1);
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    Message message1 = new Message("john", "token1", "android", "title", "body", "url");
+    doAnswer(invocation -> {
+      sendingStarted.countDown();
+      releaseSending.await(5, TimeUnit.SECONDS);
+      return null;
+    }).when(messagePublisher).send(message1);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "workers", "1");
+    addValueParam(initParams, "queueCapacity", "1");
+    addValueParam(initParams, "overflowPolicy", "BLOCK");
+    addValueParam(initParams, "blockTimeout", "500");
+    dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, mock(DeviceService.class));
+    dispatchQueue.start();
+    dispatchQueue.dispatch(Collections.singletonList(message1));
+    assertTrue(sendingStarted.await(5, TimeUnit.SECONDS));
+
+    // When
+    long start = System.currentTimeMillis();
+    dispatchQueue.dispatch(Arrays.asList(new Message("john", "token2", "android", "title", "body", "url"),
+                                         new Message("john", "token3", "ios", "title", "body", "url"),
+                                         new Message("john", "token4", "ios", "title", "body", "url")));
+    long duration = System.currentTimeMillis() - start;
+    releaseSending.countDown();
+
+    // Then
+    assertTrue("Dispatch blocked " + duration + " ms", duration < 1000);
+    assertEquals(2, dispatchQueue.getDroppedCount());
+  }
+
+  @Test
+  public void shouldSpillMessagesToStoreWhenQueueIsFull() throws Exception {
+    // Given
+    CountDownLatch sendingStarted = new CountDownLatch(1);
+    CountDownLatch releaseSending = new CountDownLatch(1);
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    PushMessageStore spillStore = mock(PushMessageStore.class);
+    Message message1 = new Message("john", "token1", "android", "title", "body", "url");
+    Message message2 = new Message("john", "token2", "android", "title", "body", "url");
+    Message message3 = new Message("john", "token3", "android", "title", "body", "url");
+    doAnswer(invocation -> {
+      sendingStarted.countDown();
+      releaseSending.await(5, TimeUnit.SECONDS);
+      return null;
+    }).when(messagePublisher).send(message1);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "workers", "1");
+    addValueParam(initParams, "queueCapacity", "1");
+    addValueParam(initParams, "overflowPolicy", "SPILL_TO_DB");
+    dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, mock(DeviceService.class));
+    dispatchQueue.setSpillStore(spillStore);
+    dispatchQueue.start();
+
+    // When
+    dispatchQueue.dispatch(Collections.singletonList(message1));
+    assertTrue(sendingStarted.await(5, TimeUnit.SECONDS));
+    dispatchQueue.dispatch(Arrays.asList(message2, message3));
+    releaseSending.countDown();
+
+    // Then
+    verify(spillStore, times(1)).store(Collections.singletonList(message3));
+    verify(messagePublisher, timeout(5000).times(1)).send(message2);
+    assertEquals(1, dispatchQueue.getSpilledCount());
+  }
+
+  @Test
+  public void shouldRetryMessageWhenSendingFailsTemporarily() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    DeviceService deviceService = mock(DeviceService.class);
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+    doThrow(new RetryableSendException("Service unavailable")).doNothing().when(messagePublisher).send(message);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "workers", "1");
+    addValueParam(initParams, "retryInitialDelay", "10");
+    dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, deviceService);
+    dispatchQueue.start();
+
+    // When
+    dispatchQueue.dispatch(Collections.singletonList(message));
+
+    // Then
+    verify(messagePublisher, timeout(5000).times(2)).send(message);
+    assertEquals(1, dispatchQueue.getRetryScheduledCount());
+    verify(deviceService, never()).deleteDevicesByTokens(any());
+  }
+
+  @Test
+  public void shouldNotRetryMessageWhenRetryIsDisabled() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+    doThrow(new RetryableSendException("Service unavailable")).when(messagePublisher).send(message);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "retryEnabled", "false");
+    dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, mock(DeviceService.class));
+
+    // When
+    dispatchQueue.dispatch(Collections.singletonList(message));
+
+    // Then
+    verify(messagePublisher, times(1)).send(message);
+    assertEquals(0, dispatchQueue.getRetryScheduledCount());
+    assertEquals(1, dispatchQueue.getMetrics().getFailedCount());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PushMetricsTest {
+
+  @Test
+  public void shouldComputePercentilesFromBuckets() {
+    // Given
+    PushMetrics.Histogram histogram = new PushMetrics.Histogram(PushMetrics.LATENCY_BUCKETS);
+
+    // When
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    // Then
+    assertEquals(100, histogram.getCount());
+    assertEquals(50.5, histogram.getMean(), 0.001);
+    assertEquals(100, histogram.getMax());
+    assertEquals(50, histogram.getPercentile(0.5));
+    assertEquals(100, histogram.getPercentile(0.95));
+    assertEquals(1, histogram.getPercentile(0.01));
+  }
+
+  @Test
+  public void shouldUseMaxForValuesGreaterThanLastBucket() {
+    // Given
+    PushMetrics.Histogram histogram = new PushMetrics.Histogram(PushMetrics.DEVICES_BUCKETS);
+
+    // When
+    histogram.record(1);
+    histogram.record(120);
+
+    // Then
+    assertEquals(1, histogram.getPercentile(0.5));
+    assertEquals(120, histogram.getPercentile(0.99));
+  }
+
+  @Test
+  public void shouldRecordMetricsByKey() {
+    // Given
+    PushMetrics metrics = new PushMetrics();
+
+    // When
+    metrics.recordDispatch("LikePlugin", 12);
+    metrics.recordDispatch("LikePlugin", 30);
+    metrics.recordDispatch(null, 5);
+    metrics.recordFCMRequest(200, 40);
+    metrics.recordFCMRequest(404, 20);
+    metrics.recordFCMRequest(null, 1000);
+    metrics.recordSendResult(true, false);
+    metrics.recordSendResult(true, false);
+    metrics.recordSendResult(false, false);
+    metrics.recordSendResult(false, true);
+    metrics.setQueueDepthGauge(() -> 7);
+
+    // Then
+    assertEquals(2, metrics.getDispatchLatency("LikePlugin").getCount());
+    assertEquals(30, metrics.getDispatchLatency("LikePlugin").getMax());
+    assertEquals(1, metrics.getDispatchLatency(null).getCount());
+    assertEquals(1, metrics.getFCMLatency(404).getCount());
+    assertEquals(1000, metrics.getFCMLatency(null).getMax());
+    assertNull(metrics.getFCMLatency(500));
+    assertEquals(2, metrics.getSentCount());
+    assertEquals(2, metrics.getFailedCount());
+    assertEquals(1, metrics.getInvalidTokenCount());
+    assertEquals(0.25, metrics.getInvalidTokenRate(), 0.001);
+    assertEquals(7, metrics.getQueueDepth());
+    assertTrue(metrics.getFCMLatencies().startsWith("200: count=1"));
+
+    // When
+    metrics.reset();
+
+    // Then
+    assertEquals(0, metrics.getSentCount());
+    assertNull(metrics.getDispatchLatency("LikePlugin"));
+    assertEquals("", metrics.getDispatchLatencies());
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.exoplatform.push.util.InitParamsTestUtil.addValueParam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.push.dao.PushOutboxDao;
+import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.domain.PushOutboxMessage;
+import org.exoplatform.push.domain.SendResult;
+import org.exoplatform.push.exception.InvalidTokenException;
+import org.exoplatform.push.exception.RetryableSendException;
+
+public class PushOutboxTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldAppendMessagesInOneBatch() {
+    // Given
+    PushOutboxDao outboxDao = mock(PushOutboxDao.class);
+    PushDispatchQueue dispatchQueue = mock(PushDispatchQueue.class);
+    PushOutbox outbox = new PushOutbox(null, outboxDao, dispatchQueue);
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+    message.setPluginId("pluginId");
+
+    // When
+    outbox.store(Arrays.asList(message, new Message("john", "token2", "ios", "title", "body", "url")));
+
+    // Then
+    ArgumentCaptor<List> outboxMessages = ArgumentCaptor.forClass(List.class);
+    verify(outboxDao, times(1)).createAll(outboxMessages.capture());
+    assertEquals(2, outboxMessages.getValue().size());
+    PushOutboxMessage outboxMessage = (PushOutboxMessage) outboxMessages.getValue().get(0);
+    assertEquals("token1", outboxMessage.getToken());
+    assertEquals("pluginId", outboxMessage.getPluginId());
+    assertNotNull(outboxMessage.getNextAttemptDate());
+    assertEquals(2, outbox.getStoredCount());
+  }
+
+  @Test
+  public void shouldBeSpillStoreOfDispatchQueueWhenPolled() {
+    // Given
+    PushDispatchQueue dispatchQueue = mock(PushDispatchQueue.class);
+    PushDispatchQueue spillingDispatchQueue = mock(PushDispatchQueue.class);
+    when(spillingDispatchQueue.getOverflowPolicy()).thenReturn(PushDispatchQueue.OverflowPolicy.SPILL_TO_DB);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "enabled", "true");
+
+    // When
+    PushOutbox disabledOutbox = new PushOutbox(null, mock(PushOutboxDao.class), dispatchQueue);
+    PushOutbox enabledOutbox = new PushOutbox(initParams, mock(PushOutboxDao.class), dispatchQueue);
+    PushOutbox spillOutbox = new PushOutbox(null, mock(PushOutboxDao.class), spillingDispatchQueue);
+
+    // Then
+    verify(dispatchQueue, never()).setSpillStore(disabledOutbox);
+    verify(dispatchQueue, times(1)).setSpillStore(enabledOutbox);
+    verify(spillingDispatchQueue, times(1)).setSpillStore(spillOutbox);
+  }
+
+  @Test
+  public void shouldNotStorePendingMessagesOfStoppedQueueWhenDisabled() throws Exception {
+    // Given
+    MessagePublisher messagePublisher = mock(MessagePublisher.class);
+    when(messagePublisher.sendAll(any())).thenCallRealMethod();
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+    doThrow(new RetryableSendException("Service unavailable")).when(messagePublisher).send(message);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "enabled", "false");
+    addValueParam(initParams, "retryInitialDelay", "60000");
+    PushDispatchQueue dispatchQueue = new PushDispatchQueue(initParams, messagePublisher, mock(DeviceService.class));
+    PushOutboxDao outboxDao = mock(PushOutboxDao.class);
+    new PushOutbox(null, outboxDao, dispatchQueue);
+    dispatchQueue.start();
+    dispatchQueue.dispatch(Collections.singletonList(message));
+
+    // When
+    dispatchQueue.stop();
+
+    // Then
+    assertEquals(1, dispatchQueue.getRetryScheduledCount());
+    verify(outboxDao, never()).createAll(any());
+    assertEquals(1, dispatchQueue.getDroppedCount());
+    assertEquals(0, dispatchQueue.getSpilledCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldDeleteProcessedMessagesAndRescheduleRetryableOnes() {
+    // Given
+    PushOutboxDao outboxDao = mock(PushOutboxDao.class);
+    PushDispatchQueue dispatchQueue = mock(PushDispatchQueue.class);
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "batchSize", "10");
+    addValueParam(initParams, "maxAttempts", "3");
+    PushOutbox outbox = new PushOutbox(initParams, outboxDao, dispatchQueue);
+    PushOutboxMessage sentMessage = outboxMessage(1, "token1", 0);
+    PushOutboxMessage invalidTokenMessage = outboxMessage(2, "token2", 0);
+    PushOutboxMessage retriedMessage = outboxMessage(3, "token3", 0);
+    PushOutboxMessage exhaustedMessage = outboxMessage(4, "token4", 2);
+    when(outboxDao.claimMessages(anyString(), any(Date.class), any(Date.class), eq(10)))
+        .thenReturn(Arrays.asList(sentMessage, invalidTokenMessage, retriedMessage, exhaustedMessage))
+        .thenReturn(Collections.emptyList());
+    when(dispatchQueue.deliver(any())).thenAnswer(invocation -> {
+      List<SendResult> results = new ArrayList<>();
+      for (Message message : (List<Message>) invocation.getArguments()[0]) {
+        switch (message.getToken()) {
+          case "token1":
+            results.add(SendResult.success(message, 0));
+            break;
+          case "token2":
+            results.add(SendResult.failure(message, new InvalidTokenException("Invalid token"), 0));
+            break;
+          default:
+            results.add(SendResult.failure(message, new RetryableSendException("Service unavailable", 60000), 0));
+        }
+      }
+      return results;
+    });
+
+    // When
+    long start = System.currentTimeMillis();
+    int nbProcessed = outbox.poll();
+
+    // Then
+    assertEquals(4, nbProcessed);
+    ArgumentCaptor<Collection> deletedIds = ArgumentCaptor.forClass(Collection.class);
+    verify(outboxDao, times(1)).deleteByIds(deletedIds.capture());
+    assertEquals(Arrays.asList(1L, 2L, 4L), new ArrayList<>(deletedIds.getValue()));
+    ArgumentCaptor<Date> nextAttemptDate = ArgumentCaptor.forClass(Date.class);
+    verify(outboxDao, times(1)).reschedule(eq(Collections.singletonList(3L)), nextAttemptDate.capture());
+    assertTrue(nextAttemptDate.getValue().getTime() >= start + 60000);
+    assertEquals(1, outbox.getSentCount());
+    assertEquals(1, outbox.getRescheduledCount());
+    assertEquals(1, outbox.getAbandonedCount());
+  }
+
+  @Test
+  public void shouldStopPollingWhenOutboxIsEmpty() {
+    // Given
+    PushOutboxDao outboxDao = mock(PushOutboxDao.class);
+    PushDispatchQueue dispatchQueue = mock(PushDispatchQueue.class);
+    PushOutbox outbox = new PushOutbox(null, outboxDao, dispatchQueue);
+    when(outboxDao.claimMessages(anyString(), any(Date.class), any(Date.class), anyInt())).thenReturn(Collections.emptyList());
+
+    // When
+    int nbProcessed = outbox.poll();
+
+    // Then
+    assertEquals(0, nbProcessed);
+    verify(dispatchQueue, never()).deliver(any());
+    verify(outboxDao, never()).deleteByIds(any());
+  }
+
+  @Test
+  public void shouldComputeExponentialRetryDelay() {
+    // Given
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "pollInterval", "1000");
+    addValueParam(initParams, "retryMaxDelay", "10000");
+    PushOutbox outbox = new PushOutbox(initParams, mock(PushOutboxDao.class), mock(PushDispatchQueue.class));
+
+    // Then
+    assertEquals(2000, outbox.computeRetryDelay(1, -1));
+    assertEquals(8000, outbox.computeRetryDelay(3, -1));
+    assertEquals(10000, outbox.computeRetryDelay(10, -1));
+    assertEquals(30000, outbox.computeRetryDelay(1, 30000));
+  }
+
+  private PushOutboxMessage outboxMessage(long id, String token, int attempts) {
+    Message message = new Message("john", token, "android", "title", "body", "url");
+    message.setAttempts(attempts);
+    PushOutboxMessage outboxMessage = new PushOutboxMessage(message, new Date());
+    outboxMessage.setId(id);
+    return outboxMessage;
+  }
+}
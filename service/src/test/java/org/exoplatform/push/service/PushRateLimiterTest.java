@@ -0,0 +1,112 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.exoplatform.push.exception.RetryableSendException;
+
+public class PushRateLimiterTest {
+
+  @Test
+  public void shouldGrantBurstImmediately() {
+    // Given
+    PushRateLimiter rateLimiter = new PushRateLimiter(10, 5, 10000);
+
+    // When
+    for (int i = 0; i < 5; i++) {
+      assertEquals(0, rateLimiter.reserve(1));
+    }
+    long wait = rateLimiter.reserve(1);
+
+    // Then
+    assertTrue(wait > 0 && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(6, rateLimiter.getGrantedCount());
+    assertEquals(1, rateLimiter.getDelayedCount());
+  }
+
+  @Test
+  public void shouldSpreadPermitsAtConfiguredRate() {
+    // Given
+    PushRateLimiter rateLimiter = new PushRateLimiter(10, 1, 10000);
+    rateLimiter.reserve(1);
+
+    // When
+    long wait1 = rateLimiter.reserve(1);
+    long wait2 = rateLimiter.reserve(1);
+
+    // Then
+    assertTrue(wait2 - wait1 > TimeUnit.MILLISECONDS.toNanos(90));
+    assertTrue(wait2 <= TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  @Test
+  public void shouldRejectWhenWaitIsTooLong() throws Exception {
+    // Given
+    PushRateLimiter rateLimiter = new PushRateLimiter(1, 1, 500);
+    rateLimiter.reserve(1);
+
+    // When
+    CompletableFuture<Void> permit = rateLimiter.acquireAsync();
+
+    // Then
+    try {
+      permit.get();
+      fail("The permit should have been rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RetryableSendException);
+      assertTrue(((RetryableSendException) e.getCause()).getRetryAfter() >= 0);
+    }
+    assertEquals(1, rateLimiter.getRejectedCount());
+    assertEquals(1, rateLimiter.getGrantedCount());
+  }
+
+  @Test
+  public void shouldCompleteAsyncPermitAfterWait() throws Exception {
+    // Given
+    PushRateLimiter rateLimiter = new PushRateLimiter(20, 1, 10000);
+    rateLimiter.reserve(1);
+    long start = System.nanoTime();
+
+    // When
+    rateLimiter.acquireAsync().get(5, TimeUnit.SECONDS);
+
+    // Then
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+  }
+
+  @Test
+  public void shouldNotLimitWhenDisabled() {
+    // Given
+    PushRateLimiter rateLimiter = new PushRateLimiter(0, 1, 0);
+
+    // When
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, rateLimiter.reserve(1));
+    }
+
+    // Then
+    assertFalse(rateLimiter.isEnabled());
+    assertEquals(0, rateLimiter.getDelayedCount());
+  }
+}
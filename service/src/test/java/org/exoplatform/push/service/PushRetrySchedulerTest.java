@@ -0,0 +1,149 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.exoplatform.push.domain.Message;
+
+public class PushRetrySchedulerTest {
+
+  private PushRetryScheduler retryScheduler;
+
+  @After
+  public void tearDown() {
+    if (retryScheduler != null) {
+      retryScheduler.stop();
+    }
+  }
+
+  @Test
+  public void shouldComputeJitteredExponentialDelay() {
+    // Given
+    retryScheduler = new PushRetryScheduler(5, 1000, 60000, 100, message -> {});
+
+    for (int i = 0; i < 100; i++) {
+      // When
+      long firstDelay = retryScheduler.computeDelay(1, -1);
+      long thirdDelay = retryScheduler.computeDelay(3, -1);
+      long cappedDelay = retryScheduler.computeDelay(20, -1);
+
+      // Then
+      assertTrue(firstDelay >= 500 && firstDelay <= 1000);
+      assertTrue(thirdDelay >= 2000 && thirdDelay <= 4000);
+      assertTrue(cappedDelay >= 30000 && cappedDelay <= 60000);
+    }
+  }
+
+  @Test
+  public void shouldHonorRetryAfterDelay() {
+    // Given
+    retryScheduler = new PushRetryScheduler(5, 1000, 60000, 100, message -> {});
+
+    for (int i = 0; i < 100; i++) {
+      // When
+      long delay = retryScheduler.computeDelay(1, 120000);
+
+      // Then
+      assertTrue(delay >= 120000 && delay <= 132000);
+    }
+  }
+
+  @Test
+  public void shouldSendMessageAgainAfterDelay() throws Exception {
+    // Given
+    CountDownLatch retried = new CountDownLatch(1);
+    List<Message> retriedMessages = new CopyOnWriteArrayList<>();
+    retryScheduler = new PushRetryScheduler(5, 10, 100, 100, message -> {
+      retriedMessages.add(message);
+      retried.countDown();
+    });
+    retryScheduler.start();
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+
+    // When
+    boolean scheduled = retryScheduler.schedule(message, -1);
+
+    // Then
+    assertTrue(scheduled);
+    assertTrue(retried.await(5, TimeUnit.SECONDS));
+    assertEquals(1, retriedMessages.size());
+    assertEquals(1, message.getAttempts());
+    assertEquals(0, retryScheduler.getPendingCount());
+    assertEquals(1, retryScheduler.getScheduledCount());
+  }
+
+  @Test
+  public void shouldNotScheduleWhenAttemptsAreExhausted() {
+    // Given
+    retryScheduler = new PushRetryScheduler(3, 60000, 60000, 100, message -> {});
+    retryScheduler.start();
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+    message.setAttempts(2);
+
+    // When
+    boolean scheduled = retryScheduler.schedule(message, -1);
+
+    // Then
+    assertFalse(scheduled);
+    assertEquals(1, retryScheduler.getExhaustedCount());
+    assertEquals(0, retryScheduler.getPendingCount());
+  }
+
+  @Test
+  public void shouldNotScheduleWhenCapacityIsReached() {
+    // Given
+    retryScheduler = new PushRetryScheduler(5, 60000, 60000, 1, message -> {});
+    retryScheduler.start();
+    Message message1 = new Message("john", "token1", "android", "title", "body", "url");
+    Message message2 = new Message("john", "token2", "android", "title", "body", "url");
+
+    // When
+    boolean scheduled1 = retryScheduler.schedule(message1, -1);
+    boolean scheduled2 = retryScheduler.schedule(message2, -1);
+
+    // Then
+    assertTrue(scheduled1);
+    assertFalse(scheduled2);
+    assertEquals(1, retryScheduler.getPendingCount());
+  }
+
+  @Test
+  public void shouldReturnPendingMessagesWhenStopped() {
+    // Given
+    retryScheduler = new PushRetryScheduler(5, 60000, 60000, 100, message -> {});
+    retryScheduler.start();
+    Message message = new Message("john", "token1", "android", "title", "body", "url");
+    retryScheduler.schedule(message, -1);
+
+    // When
+    List<Message> pendingMessages = retryScheduler.stop();
+
+    // Then
+    assertEquals(1, pendingMessages.size());
+    assertSame(message, pendingMessages.get(0));
+    assertFalse(retryScheduler.schedule(message, -1));
+  }
+}
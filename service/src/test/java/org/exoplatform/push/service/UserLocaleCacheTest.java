@@ -0,0 +1,82 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.exoplatform.push.listener.UserLocaleCacheInvalidationListener;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.organization.UserProfile;
+
+public class UserLocaleCacheTest {
+
+  private AtomicInteger loadCount = new AtomicInteger();
+
+  private UserLocaleCache userLocaleCache;
+
+  @Before
+  public void setup() {
+    CacheService cacheService = mock(CacheService.class);
+    when(cacheService.getCacheInstance(UserLocaleCache.USER_LOCALE_CACHE_NAME)).thenReturn(new ConcurrentFIFOExoCache<>(100));
+    userLocaleCache = new UserLocaleCache(cacheService) {
+      @Override
+      protected Locale loadLocale(String username) {
+        loadCount.incrementAndGet();
+        return "john".equals(username) ? Locale.FRENCH : Locale.ENGLISH;
+      }
+    };
+  }
+
+  @Test
+  public void shouldLoadLocaleOnlyOncePerUser() {
+    // When
+    Locale johnLocale = userLocaleCache.getLocale("john");
+    userLocaleCache.getLocale("john");
+    Locale maryLocale = userLocaleCache.getLocale("mary");
+
+    // Then
+    assertEquals(Locale.FRENCH, johnLocale);
+    assertEquals(Locale.ENGLISH, maryLocale);
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  public void shouldLoadLocaleAgainWhenUserProfileIsSaved() throws Exception {
+    // Given
+    UserLocaleCacheInvalidationListener listener = new UserLocaleCacheInvalidationListener(userLocaleCache);
+    UserProfile profile = mock(UserProfile.class);
+    when(profile.getUserName()).thenReturn("john");
+    userLocaleCache.getLocale("john");
+    userLocaleCache.getLocale("mary");
+
+    // When
+    listener.postSave(profile, false);
+    userLocaleCache.getLocale("john");
+    userLocaleCache.getLocale("mary");
+
+    // Then
+    assertEquals(3, loadCount.get());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FCMAccessTokenProviderTest {
+
+  @Test
+  public void shouldReuseTokenWhileValid() throws Exception {
+    // Given
+    CountingAccessTokenProvider accessTokenProvider = new CountingAccessTokenProvider(TimeUnit.HOURS.toMillis(1));
+
+    // When
+    String token1 = accessTokenProvider.getAccessToken();
+    String token2 = accessTokenProvider.getAccessToken();
+    String token3 = accessTokenProvider.getAccessToken();
+
+    // Then
+    assertEquals("token-1", token1);
+    assertEquals("token-1", token2);
+    assertEquals("token-1", token3);
+    assertEquals(1, accessTokenProvider.getFetchCount());
+    accessTokenProvider.stop();
+  }
+
+  @Test
+  public void shouldRefreshTokenWhenExpired() throws Exception {
+    // Given
+    CountingAccessTokenProvider accessTokenProvider = new CountingAccessTokenProvider(TimeUnit.SECONDS.toMillis(10));
+
+    // When
+    String token1 = accessTokenProvider.getAccessToken();
+    String token2 = accessTokenProvider.getAccessToken();
+
+    // Then
+    assertEquals("token-1", token1);
+    assertEquals("token-2", token2);
+    assertEquals(2, accessTokenProvider.getFetchCount());
+    accessTokenProvider.stop();
+  }
+
+  @Test
+  public void shouldRefreshTokenOnlyOnceWhenConcurrentCalls() throws Exception {
+    // Given
+    CountingAccessTokenProvider accessTokenProvider = new CountingAccessTokenProvider(TimeUnit.HOURS.toMillis(1));
+    int nbThreads = 20;
+    ExecutorService executorService = Executors.newFixedThreadPool(nbThreads);
+    CountDownLatch startLatch = new CountDownLatch(1);
+    List<Future<String>> tokens = new ArrayList<>();
+
+    // When
+    for (int i = 0; i < nbThreads; i++) {
+      tokens.add(executorService.submit(() -> {
+        startLatch.await();
+        return accessTokenProvider.getAccessToken();
+      }));
+    }
+    startLatch.countDown();
+
+    // Then
+    for (Future<String> token : tokens) {
+      assertEquals("token-1", token.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(1, accessTokenProvider.getFetchCount());
+    executorService.shutdownNow();
+    accessTokenProvider.stop();
+  }
+
+  @Test
+  public void shouldRefreshTokenInBackgroundBeforeExpiration() throws Exception {
+    // Given
+    CountingAccessTokenProvider accessTokenProvider = new CountingAccessTokenProvider(TimeUnit.HOURS.toMillis(1),
+                                                                                      TimeUnit.HOURS.toMillis(1) - 200);
+
+    // When
+    String token1 = accessTokenProvider.getAccessToken();
+    long timeout = System.currentTimeMillis() + 10000;
+    while (accessTokenProvider.getFetchCount() < 2 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(50);
+    }
+    String token2 = accessTokenProvider.getAccessToken();
+
+    // Then
+    assertEquals("token-1", token1);
+    assertNotEquals(token1, token2);
+    assertTrue(accessTokenProvider.getFetchCount() >= 2);
+    accessTokenProvider.stop();
+  }
+
+  private static class CountingAccessTokenProvider extends FCMAccessTokenProvider {
+
+    private final AtomicInteger fetchCount = new AtomicInteger();
+
+    private final long tokenLifetime;
+
+    CountingAccessTokenProvider(long tokenLifetime) {
+      super(null);
+      this.tokenLifetime = tokenLifetime;
+    }
+
+    CountingAccessTokenProvider(long tokenLifetime, long refreshMargin) {
+      super(null, refreshMargin);
+      this.tokenLifetime = tokenLifetime;
+    }
+
+    @Override
+    protected AccessToken fetchAccessToken() throws IOException {
+      try {
+        // simulate the latency of the token endpoint
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new AccessToken("token-" + fetchCount.incrementAndGet(), System.currentTimeMillis() + tokenLifetime);
+    }
+
+    int getFetchCount() {
+      return fetchCount.get();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import static org.junit.Assert.*;
+import static org.exoplatform.push.util.InitParamsTestUtil.addValueParam;
+
+import org.junit.Test;
+
+import org.exoplatform.container.xml.InitParams;
+
+public class FCMHttpTransportConfigurationTest {
+
+  @Test
+  public void shouldUseDefaultValuesWhenNoInitParams() throws Exception {
+    // When
+    FCMHttpTransportConfiguration configuration = FCMHttpTransportConfiguration.fromInitParams(null);
+
+    // Then
+    assertEquals(50, configuration.getMaxConnections());
+    assertEquals(50, configuration.getMaxConnectionsPerRoute());
+    assertEquals(5000, configuration.getConnectTimeout());
+    assertEquals(10000, configuration.getReadTimeout());
+    assertEquals(2000, configuration.getPoolAcquireTimeout());
+    assertEquals(60000, configuration.getKeepAlive());
+    assertFalse(configuration.isHttp2Enabled());
+    try (FCMHttpTransport transport = configuration.buildTransport()) {
+      assertTrue(transport instanceof ApacheFCMHttpTransport);
+    }
+  }
+
+  @Test
+  public void shouldReadValuesFromInitParams() throws Exception {
+    // Given
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "httpMaxConnections", "100");
+    addValueParam(initParams, "httpMaxConnectionsPerRoute", "80");
+    addValueParam(initParams, "httpConnectTimeout", "1000");
+    addValueParam(initParams, "httpReadTimeout", "3000");
+    addValueParam(initParams, "httpPoolAcquireTimeout", "500");
+    addValueParam(initParams, "httpKeepAlive", "30000");
+    addValueParam(initParams, "http2Enabled", "true");
+
+    // When
+    FCMHttpTransportConfiguration configuration = FCMHttpTransportConfiguration.fromInitParams(initParams);
+
+    // Then
+    assertEquals(100, configuration.getMaxConnections());
+    assertEquals(80, configuration.getMaxConnectionsPerRoute());
+    assertEquals(1000, configuration.getConnectTimeout());
+    assertEquals(3000, configuration.getReadTimeout());
+    assertEquals(500, configuration.getPoolAcquireTimeout());
+    assertEquals(30000, configuration.getKeepAlive());
+    assertTrue(configuration.isHttp2Enabled());
+    try (FCMHttpTransport transport = configuration.buildTransport()) {
+      assertTrue(transport instanceof Http2FCMHttpTransport);
+    }
+  }
+
+  @Test
+  public void shouldUseDefaultValueWhenInvalidNumber() throws Exception {
+    // Given
+    InitParams initParams = new InitParams();
+    addValueParam(initParams, "httpReadTimeout", "abc");
+
+    // When
+    FCMHttpTransportConfiguration configuration = FCMHttpTransportConfiguration.fromInitParams(initParams);
+
+    // Then
+    assertEquals(10000, configuration.getReadTimeout());
+  }
+}
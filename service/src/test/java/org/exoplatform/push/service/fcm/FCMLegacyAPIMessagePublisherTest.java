@@ -17,7 +17,9 @@
 package org.exoplatform.push.service.fcm;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
@@ -119,4 +121,28 @@ public class FCMLegacyAPIMessagePublisherTest {
     assertEquals("My Notification Body", jsonMessage.getJSONObject("notification").getString("body"));
     assertEquals("30", jsonMessage.getString("time_to_live"));
   }
+
+  @Test
+  public void shouldReleaseConnectionWhenMessageIsSent() throws Exception {
+    // Given
+    HttpClient httpClient = mock(HttpClient.class);
+    CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+    HttpEntity httpEntity = mock(HttpEntity.class);
+    when(httpEntity.isStreaming()).thenReturn(true);
+    when(httpResponse.getEntity()).thenReturn(httpEntity);
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    InitParams initParams = new InitParams();
+    ValueParam serverKeyParam = new ValueParam();
+    serverKeyParam.setName("serverKey");
+    serverKeyParam.setValue("fakeServerKey");
+    initParams.addParameter(serverKeyParam);
+    FCMLegacyAPIMessagePublisher messagePublisher = new FCMLegacyAPIMessagePublisher(initParams, httpClient);
+
+    // When
+    messagePublisher.send(new Message("john", "token1", "android", "My Notification Title", "My Notification Body", ""));
+
+    // Then
+    verify(httpEntity, times(1)).getContent();
+    verify(httpResponse, times(1)).close();
+  }
 }
\ No newline at end of file
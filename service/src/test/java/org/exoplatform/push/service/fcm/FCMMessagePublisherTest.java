@@ -21,18 +21,23 @@ import static org.mockito.Mockito.*;
 
 import java.io.IOException;
 import java.security.PrivateKey;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicStatusLine;
-import org.exoplatform.commons.api.notification.service.WebNotificationService;
 import org.exoplatform.services.resources.ResourceBundleService;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -43,7 +48,12 @@ import org.mockito.ArgumentCaptor;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.push.domain.Message;
+import org.exoplatform.push.domain.SendResult;
 import org.exoplatform.push.exception.InvalidTokenException;
+import org.exoplatform.push.exception.RetryableSendException;
+import org.exoplatform.push.service.PushBadgeCounter;
+import org.exoplatform.push.service.PushMetrics;
+import org.exoplatform.push.service.UserLocaleCache;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -60,7 +70,10 @@ public class FCMMessagePublisherTest {
   private CloseableHttpResponse httpResponse;
 
   @Mock
-  private WebNotificationService webNotificationService;
+  private UserLocaleCache userLocaleCache;
+
+  @Mock
+  private PushBadgeCounter badgeCounter;
 
   @Before
   public void setup() {
@@ -76,13 +89,15 @@ public class FCMMessagePublisherTest {
       }
     };
     when(resourceBundleService.getResourceBundle(eq("locale.portlet.notification.PushNotifications"), any(Locale.class))).thenReturn(resourceBundle);
-    when(webNotificationService.getNumberOnBadge(anyString())).thenReturn(5);
+    when(userLocaleCache.getLocale(anyString())).thenReturn(Locale.ENGLISH);
+    when(badgeCounter.getNumberOnBadge(anyString())).thenReturn(5);
   }
 
   @Test
   public void shouldNotSendMessageWhenInitParamsAreNull() throws Exception {
     // Given
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(null, resourceBundleService, webNotificationService, httpClient);
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(null, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter);
 
     // When
     messagePublisher.send(new Message("", "", "", "", "", ""));
@@ -95,7 +110,8 @@ public class FCMMessagePublisherTest {
   public void shouldNotSendMessageWhenNoConfigFilePathParam() throws Exception {
     // Given
     InitParams initParams = new InitParams();
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient);
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter);
 
     // When
     messagePublisher.send(new Message("", "", "", "", "", ""));
@@ -112,7 +128,8 @@ public class FCMMessagePublisherTest {
     serverKeyParam.setName("serviceAccountFilePath");
     serverKeyParam.setValue("fake.json");
     initParams.addParameter(serverKeyParam);
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient);
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter);
 
     // When
     messagePublisher.send(new Message("", "", "", "", "", ""));
@@ -132,7 +149,8 @@ public class FCMMessagePublisherTest {
     serverKeyParam.setName("serviceAccountFilePath");
     serverKeyParam.setValue(this.getClass().getResource("/fcm-test.json").getPath());
     initParams.addParameter(serverKeyParam);
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -202,7 +220,8 @@ public class FCMMessagePublisherTest {
     serverKeyParam.setName("serviceAccountFilePath");
     serverKeyParam.setValue(this.getClass().getResource("/fcm-test.json").getPath());
     initParams.addParameter(serverKeyParam);
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -278,7 +297,8 @@ public class FCMMessagePublisherTest {
     serverKeyParam.setName("serviceAccountFilePath");
     serverKeyParam.setValue(this.getClass().getResource("/fcm-test.json").getPath());
     initParams.addParameter(serverKeyParam);
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -349,7 +369,8 @@ public class FCMMessagePublisherTest {
     serverKeyParam.setName("serviceAccountFilePath");
     serverKeyParam.setValue(this.getClass().getResource("/fcm-test.json").getPath());
     initParams.addParameter(serverKeyParam);
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -380,7 +401,8 @@ public class FCMMessagePublisherTest {
             new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_OK, ""));
     when(httpClient.execute(any())).thenReturn(httpResponse);
     InitParams initParams = buildInitParams();
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -446,7 +468,8 @@ public class FCMMessagePublisherTest {
     when(httpResponse.getEntity()).thenReturn(httpEntity);
     when(httpClient.execute(any())).thenReturn(httpResponse);
     InitParams initParams = buildInitParams();
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -468,6 +491,57 @@ public class FCMMessagePublisherTest {
     }
   }
 
+  @Test
+  public void shouldSendAllMessagesWithOneAccessTokenAndReturnResultOfEachMessage() throws Exception {
+    // Given
+    CloseableHttpResponse invalidTokenHttpResponse = mock(CloseableHttpResponse.class);
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_OK, ""));
+    when(invalidTokenHttpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_BAD_REQUEST, ""));
+    String invalidTokenResponse = "{\n" +
+            "  \"error\": {\n" +
+            "    \"code\": 400,\n" +
+            "    \"message\": \"Request contains an invalid argument.\",\n" +
+            "    \"status\": \"UNREGISTERED\"\n" +
+            "  }\n" +
+            "}";
+    when(invalidTokenHttpResponse.getEntity()).thenReturn(new ByteArrayEntity(invalidTokenResponse.getBytes()));
+    when(httpClient.execute(any())).thenReturn(httpResponse, invalidTokenHttpResponse, httpResponse);
+    InitParams initParams = buildInitParams();
+    AtomicInteger accessTokenRequests = new AtomicInteger();
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
+      @Override
+      protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
+        return mock(PrivateKey.class);
+      }
+      @Override
+      protected String getAccessToken() throws IOException {
+        accessTokenRequests.incrementAndGet();
+        return "fakeAccessToken";
+      }
+    };
+    Message message1 = new Message("john", "token1", "android", "Title", "Body", "http://notification.url/target");
+    Message message2 = new Message("john", "token2", "ios", "Title", "Body", "http://notification.url/target");
+    Message message3 = new Message("mary", "token3", "android", "Title", "Body", "http://notification.url/target");
+
+    // When
+    List<SendResult> results = messagePublisher.sendAll(Arrays.asList(message1, message2, message3));
+
+    // Then
+    assertEquals(1, accessTokenRequests.get());
+    verify(httpClient, times(3)).execute(any());
+    assertEquals(3, results.size());
+    assertSame(message1, results.get(0).getMessage());
+    assertTrue(results.get(0).isSuccess());
+    assertSame(message2, results.get(1).getMessage());
+    assertFalse(results.get(1).isSuccess());
+    assertTrue(results.get(1).getError() instanceof InvalidTokenException);
+    assertSame(message3, results.get(2).getMessage());
+    assertTrue(results.get(2).isSuccess());
+  }
+
   @Test(expected = InvalidTokenException.class)
   public void shouldThrowInvalidTokenExceptionWhenResponseUnregistered() throws Exception {
     // Given
@@ -484,7 +558,8 @@ public class FCMMessagePublisherTest {
     when(httpResponse.getEntity()).thenReturn(httpEntity);
     when(httpClient.execute(any())).thenReturn(httpResponse);
     InitParams initParams = buildInitParams();
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -533,7 +608,8 @@ public class FCMMessagePublisherTest {
     when(httpResponse.getEntity()).thenReturn(httpEntity);
     when(httpClient.execute(any())).thenReturn(httpResponse);
     InitParams initParams = buildInitParams();
-    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, webNotificationService, httpClient) {
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
       @Override
       protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
         return mock(PrivateKey.class);
@@ -550,6 +626,245 @@ public class FCMMessagePublisherTest {
     // Then should return an InvalidTokenException
   }
 
+  @Test
+  public void shouldThrowRetryableSendExceptionWhenResponseTooManyRequests() throws Exception {
+    // Given
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), 429, ""));
+    when(httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER)).thenReturn(new BasicHeader(HttpHeaders.RETRY_AFTER, "120"));
+    String quotaExceededResponse = "{\n" +
+            "  \"error\": {\n" +
+            "    \"code\": 429,\n" +
+            "    \"status\": \"RESOURCE_EXHAUSTED\"\n" +
+            "  }\n" +
+            "}";
+    when(httpResponse.getEntity()).thenReturn(new ByteArrayEntity(quotaExceededResponse.getBytes()));
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    FCMMessagePublisher messagePublisher = buildMessagePublisher();
+
+    // When
+    try {
+      messagePublisher.send(new Message("", "", "", "", "", ""));
+      fail("A RetryableSendException should have been thrown");
+    } catch (RetryableSendException e) {
+      // Then
+      assertEquals(120000, e.getRetryAfter());
+    }
+  }
+
+  @Test
+  public void shouldThrowRetryableSendExceptionWhenServiceUnavailable() throws Exception {
+    // Given
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_SERVICE_UNAVAILABLE, ""));
+    when(httpResponse.getEntity()).thenReturn(new ByteArrayEntity("{}".getBytes()));
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    FCMMessagePublisher messagePublisher = buildMessagePublisher();
+
+    // When
+    try {
+      messagePublisher.send(new Message("", "", "", "", "", ""));
+      fail("A RetryableSendException should have been thrown");
+    } catch (RetryableSendException e) {
+      // Then
+      assertEquals(-1, e.getRetryAfter());
+    }
+  }
+
+  @Test
+  public void shouldShortCircuitRequestsWhenCircuitBreakerIsOpen() throws Exception {
+    // Given
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_SERVICE_UNAVAILABLE, ""));
+    when(httpResponse.getEntity()).thenReturn(new ByteArrayEntity("{}".getBytes()));
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    InitParams initParams = buildInitParams();
+    ValueParam minimumCallsParam = new ValueParam();
+    minimumCallsParam.setName("circuitBreakerMinimumCalls");
+    minimumCallsParam.setValue("1");
+    initParams.addParameter(minimumCallsParam);
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
+      @Override
+      protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
+        return mock(PrivateKey.class);
+      }
+      @Override
+      protected String getAccessToken() throws IOException {
+        return "fakeAccessToken";
+      }
+    };
+    try {
+      messagePublisher.send(new Message("", "", "", "", "", ""));
+      fail("A RetryableSendException should have been thrown");
+    } catch (RetryableSendException e) {
+      // circuit opened by the failure
+    }
+
+    // When
+    List<SendResult> results = messagePublisher.sendAll(Arrays.asList(new Message("", "", "", "", "", ""),
+                                                                      new Message("", "", "", "", "", "")));
+
+    // Then
+    verify(httpClient, times(1)).execute(any());
+    assertEquals(2, results.size());
+    assertTrue(results.get(0).getError() instanceof RetryableSendException);
+    assertTrue(((RetryableSendException) results.get(1).getError()).getRetryAfter() > 0);
+  }
+
+  @Test
+  public void shouldReleaseHalfOpenPermitWhenTransportThrowsRuntimeException() throws Exception {
+    // Given
+    CloseableHttpResponse okResponse = mock(CloseableHttpResponse.class);
+    when(okResponse.getStatusLine()).thenReturn(new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_OK, ""));
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_SERVICE_UNAVAILABLE, ""));
+    when(httpResponse.getEntity()).thenReturn(new ByteArrayEntity("{}".getBytes()));
+    when(httpClient.execute(any())).thenReturn(httpResponse)
+                                   .thenThrow(new IllegalStateException("Connection pool shut down"))
+                                   .thenReturn(okResponse);
+    InitParams initParams = buildInitParams();
+    for (String[] param : new String[][] { { "circuitBreakerMinimumCalls", "1" }, { "circuitBreakerOpenDuration", "0" },
+        { "circuitBreakerHalfOpenCalls", "1" } }) {
+      ValueParam valueParam = new ValueParam();
+      valueParam.setName(param[0]);
+      valueParam.setValue(param[1]);
+      initParams.addParameter(valueParam);
+    }
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(initParams, resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
+      @Override
+      protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
+        return mock(PrivateKey.class);
+      }
+      @Override
+      protected String getAccessToken() throws IOException {
+        return "fakeAccessToken";
+      }
+    };
+    try {
+      messagePublisher.send(new Message("", "", "", "", "", ""));
+      fail("A RetryableSendException should have been thrown");
+    } catch (RetryableSendException e) {
+      // circuit opened by the failure, then half-open since the open duration is 0
+    }
+
+    // When
+    try {
+      messagePublisher.send(new Message("", "", "", "", "", ""));
+      fail("An IllegalStateException should have been thrown");
+    } catch (IllegalStateException e) {
+      // trial call failed
+    }
+    messagePublisher.send(new Message("", "", "", "", "", ""));
+
+    // Then
+    verify(httpClient, times(3)).execute(any());
+  }
+
+  @Test
+  public void shouldNotRetryWhenResponseIsBadRequest() throws Exception {
+    // Given
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_BAD_REQUEST, ""));
+    when(httpResponse.getEntity()).thenReturn(new ByteArrayEntity("{}".getBytes()));
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    FCMMessagePublisher messagePublisher = buildMessagePublisher();
+
+    // When
+    try {
+      messagePublisher.send(new Message("", "", "", "", "", ""));
+      fail("An exception should have been thrown");
+    } catch (Exception e) {
+      // Then
+      assertFalse(e instanceof RetryableSendException);
+    }
+  }
+
+  @Test
+  public void shouldParseRetryAfterHeader() {
+    assertEquals(30000, FCMMessagePublisher.parseRetryAfter("30"));
+    assertEquals(-1, FCMMessagePublisher.parseRetryAfter(null));
+    assertEquals(-1, FCMMessagePublisher.parseRetryAfter("soon"));
+    assertEquals(0, FCMMessagePublisher.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT"));
+    long retryAfter = FCMMessagePublisher.parseRetryAfter(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2)));
+    assertTrue(retryAfter > 100000 && retryAfter <= 120000);
+  }
+
+  @Test
+  public void shouldSetCollapseKeyWhenMessageIsCoalesced() throws Exception {
+    // Given
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_OK, ""));
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    FCMMessagePublisher messagePublisher = buildMessagePublisher();
+    Message androidMessage = new Message("john", "token1", "android", "title", "body", "url");
+    androidMessage.setCollapseKey("LikePlugin-1");
+    Message iosMessage = new Message("mary", "token2", "ios", "title", "body", "url");
+    iosMessage.setCollapseKey("LikePlugin-1");
+    ArgumentCaptor<HttpPost> reqArgs = ArgumentCaptor.forClass(HttpPost.class);
+
+    // When
+    messagePublisher.send(androidMessage);
+    messagePublisher.send(iosMessage);
+
+    // Then
+    verify(httpClient, times(2)).execute(reqArgs.capture());
+    JSONObject android = new JSONObject(IOUtils.toString(reqArgs.getAllValues().get(0).getEntity().getContent(), "UTF-8"))
+            .getJSONObject("message").getJSONObject("android");
+    assertEquals("LikePlugin-1", android.getString("collapse_key"));
+    assertEquals("60s", android.getString("ttl"));
+    JSONObject apnsHeaders = new JSONObject(IOUtils.toString(reqArgs.getAllValues().get(1).getEntity().getContent(), "UTF-8"))
+            .getJSONObject("message").getJSONObject("apns").getJSONObject("headers");
+    assertEquals("LikePlugin-1", apnsHeaders.getString("apns-collapse-id"));
+    assertTrue(apnsHeaders.has("apns-expiration"));
+  }
+
+  @Test
+  public void shouldLookUpInlineImageLabelOncePerLocale() throws Exception {
+    // Given
+    when(httpResponse.getStatusLine()).thenReturn(
+            new BasicStatusLine(new ProtocolVersion("", 1, 2), HttpStatus.SC_OK, ""));
+    when(httpClient.execute(any())).thenReturn(httpResponse);
+    when(userLocaleCache.getLocale(anyString())).thenReturn(Locale.FRENCH);
+    FCMMessagePublisher messagePublisher = new FCMMessagePublisher(buildInitParams(), resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                                                   new PushMetrics(), userLocaleCache, badgeCounter) {
+      @Override
+      protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
+        return mock(PrivateKey.class);
+      }
+      @Override
+      protected String getAccessToken() throws IOException {
+        return "fakeAccessToken";
+      }
+    };
+    String bodyWithImage = "My Notification <img data-plugin-name='insertImage' src=\"http://fake.com/image.png\"/> Text";
+
+    // When
+    messagePublisher.send(new Message("john", "token1", "android", "Title", "My Notification Text", "http://notification.url/target"));
+    messagePublisher.send(new Message("john", "token1", "android", "Title", bodyWithImage, "http://notification.url/target"));
+    messagePublisher.send(new Message("mary", "token2", "android", "Title", bodyWithImage, "http://notification.url/target"));
+
+    // Then
+    verify(httpClient, times(3)).execute(any());
+    verify(userLocaleCache, times(2)).getLocale(anyString());
+    verify(resourceBundleService, times(1)).getResourceBundle("locale.portlet.notification.PushNotifications", Locale.FRENCH);
+  }
+
+  private FCMMessagePublisher buildMessagePublisher() {
+    return new FCMMessagePublisher(buildInitParams(), resourceBundleService, new ApacheFCMHttpTransport(httpClient),
+                                   new PushMetrics(), userLocaleCache, badgeCounter) {
+      @Override
+      protected PrivateKey getPrivateKeyFromPkcs8(String privateKeyPem) throws IOException {
+        return mock(PrivateKey.class);
+      }
+      @Override
+      protected String getAccessToken() throws IOException {
+        return "fakeAccessToken";
+      }
+    };
+  }
+
   private InitParams buildInitParams() {
     InitParams initParams = new InitParams();
     ValueParam serverKeyParam = new ValueParam();
@@ -0,0 +1,104 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.service.fcm;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class FCMPayloadWriterTest {
+
+  @Test
+  public void shouldEscapeSpecialCharacters() throws Exception {
+    // Given
+    FCMPayloadWriter writer = new FCMPayloadWriter(0);
+
+    // When
+    writer.writeFragment(FCMPayloadWriter.fragment("{\"value\":"))
+          .writeString("quote \" backslash \\ new line \n tab \t control \u0001 separator \u2028")
+          .writeFragment(FCMPayloadWriter.fragment("}"));
+
+    // Then
+    assertEquals("{\"value\":\"quote \\\" backslash \\\\ new line \\n tab \\t control \\u0001 separator \\u2028\"}",
+                 writer.toString());
+    assertEquals("quote \" backslash \\ new line \n tab \t control \u0001 separator \u2028",
+                 new JSONObject(writer.toString()).getString("value"));
+  }
+
+  @Test
+  public void shouldWriteNonAsciiCharactersInUtf8() throws Exception {
+    // Given
+    String value = "Caf\u00e9 \u20ac \uD83D\uDE00 \u4e2d\u6587";
+    FCMPayloadWriter writer = new FCMPayloadWriter(0);
+
+    // When
+    writer.writeString(value);
+
+    // Then
+    assertArrayEquals(("\"" + value + "\"").getBytes(StandardCharsets.UTF_8), writer.toByteArray());
+  }
+
+  @Test
+  public void shouldReplaceUnpairedSurrogate() throws Exception {
+    // Given
+    FCMPayloadWriter writer = new FCMPayloadWriter(0);
+
+    // When
+    writer.writeString("a\uD83Db");
+
+    // Then
+    assertEquals("\"a?b\"", writer.toString());
+  }
+
+  @Test
+  public void shouldWriteNullAndNumbers() throws Exception {
+    // Given
+    FCMPayloadWriter writer = new FCMPayloadWriter(0);
+
+    // When
+    writer.writeFragment(FCMPayloadWriter.fragment("["))
+          .writeString(null)
+          .writeFragment(FCMPayloadWriter.fragment(","))
+          .writeNumber(-1234567890123L)
+          .writeFragment(FCMPayloadWriter.fragment("]"));
+
+    // Then
+    assertEquals("[null,-1234567890123]", writer.toString());
+  }
+
+  @Test
+  public void shouldGrowBufferAndReturnEntityWithoutCopy() throws Exception {
+    // Given
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      value.append("\u00e9\"");
+    }
+    FCMPayloadWriter writer = new FCMPayloadWriter(16);
+
+    // When
+    writer.writeString(value.toString());
+
+    // Then
+    assertEquals(4002, writer.size());
+    assertEquals(4002, writer.toEntity().getContentLength());
+    assertEquals(writer.toString(), IOUtils.toString(writer.toEntity().getContent(), "UTF-8"));
+  }
+}
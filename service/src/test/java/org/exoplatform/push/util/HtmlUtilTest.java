@@ -0,0 +1,108 @@
+/*
+ * This file is part of the Meeds project (https://meeds.io/).
+ * Copyright (C) 2020 Meeds Association
+ * contact@meeds.io
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.exoplatform.push.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+public class HtmlUtilTest {
+
+  private static final String GOLDEN_FILES_FOLDER = "/html-to-text";
+
+  @Test
+  public void shouldConvertHtmlToPlainTextAsGoldenFiles() throws Exception {
+    for (File htmlFile : getGoldenHtmlFiles()) {
+      // Given
+      String html = read(htmlFile);
+      String expectedText = read(new File(htmlFile.getParentFile(), htmlFile.getName().replace(".html", ".txt")));
+
+      // When
+      String text = HtmlUtil.toPlainText(html);
+
+      // Then
+      assertEquals("Wrong plain text for " + htmlFile.getName(), expectedText, text);
+    }
+  }
+
+  @Test
+  public void shouldConvertHtmlToPlainTextAsJsoup() throws Exception {
+    for (File htmlFile : getGoldenHtmlFiles()) {
+      // Given
+      String html = read(htmlFile);
+
+      // When
+      String text = HtmlUtil.toPlainText(html);
+
+      // Then
+      assertEquals("Plain text different from Jsoup for " + htmlFile.getName(), toPlainTextWithJsoup(html), text);
+    }
+  }
+
+  @Test
+  public void shouldReturnEmptyTextWhenNoContent() {
+    assertEquals("", HtmlUtil.toPlainText(null));
+    assertEquals("", HtmlUtil.toPlainText(""));
+    assertEquals("", HtmlUtil.toPlainText("<div> <br> </div>"));
+  }
+
+  @Test
+  public void shouldDropUnclosedTagAtTheEnd() {
+    assertEquals("My Notification", HtmlUtil.toPlainText("My Notification <a href=\"/portal"));
+  }
+
+  @Test
+  public void shouldStripTagsAsRegularExpression() {
+    String[] titles = new String[] { null, "", "My Notification Title", "My <b>Notification</b> Title",
+        "a<b<c>d", "a > b", "unclosed <tag", "<><b></b>" };
+    for (String title : titles) {
+      String expected = title == null ? null : title.replaceAll("\\<[^>]*>", "");
+      assertEquals(expected, HtmlUtil.stripTags(title));
+    }
+  }
+
+  /**
+   * Former conversion, parsing the content twice with Jsoup
+   */
+  private String toPlainTextWithJsoup(String html) {
+    Document document = Jsoup.parse(html);
+    document.outputSettings(new Document.OutputSettings().prettyPrint(false));
+    document.select("br").append("\n");
+    document.select("p").prepend("\n\n");
+    return Jsoup.parse(document.html()).wholeText().trim();
+  }
+
+  private File[] getGoldenHtmlFiles() throws Exception {
+    File folder = new File(getClass().getResource(GOLDEN_FILES_FOLDER).toURI());
+    File[] htmlFiles = folder.listFiles((dir, name) -> name.endsWith(".html"));
+    assertNotNull(htmlFiles);
+    assertTrue(htmlFiles.length > 0);
+    Arrays.sort(htmlFiles);
+    return htmlFiles;
+  }
+
+  private String read(File file) throws Exception {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+}